@@ -0,0 +1,180 @@
+package exif.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import exif.Exif;
+
+/*
+ * Micro benchmarks of the parser, without any dependency (the project has no build file, so JMH can not be used).
+ *
+ *   javac -d out src/*.java bench/*.java
+ *   java -cp out exif.bench.ExifBenchmark [corpusDirectory] [benchmarkName...]
+ *
+ * Each benchmark loops over all the files of the corpus (default bench/corpus), with warmup iterations first.
+ * For each benchmark it prints:
+ * - ns/op    : average time of one operation (one file parse, or one getter call)
+ * - ops/s    : operations per second (files/s for the parse benchmarks)
+ * - bytes/op : bytes allocated by the benchmark thread per operation (HotSpot only, -1 otherwise)
+ * Results of the operations are consumed, so the JIT can not remove them.
+ */
+public class ExifBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURE_ITERATIONS = 10;
+	private static final long ITERATION_NANOS = 1000000000L; //each iteration runs at least 1 second
+
+	//An operation on one file of the corpus
+	private interface Operation {
+		void run(int fileIndex) throws IOException;
+	}
+
+	private static final String[] TAG_NAMES = { "Make", "Orientation", "DateTimeOriginal", "ExposureTime", "FNumber", "ISOSpeedRatings", "GPSLatitude", "LensModel" };
+	private static final int[] TAG_VALUES = { 0x010F, 0x0112, 0x9003, 0x829A, 0x829D, 0x8827, 0x0002, 0xA434 };
+
+	private final File[] _files;
+	private final Exif[] _parsed;
+	private long _sink;	//Consumes the results
+
+	//Files which can not be parsed are not benchmarked
+	public ExifBenchmark(File[] files) {
+		List<File> parsedFiles = new ArrayList<File>();
+		List<Exif> parsed = new ArrayList<Exif>();
+		for (File file : files) {
+			try {
+				parsed.add(new Exif(file));
+				parsedFiles.add(file);
+			} catch (IOException e) {
+				System.out.println("Skip " + file.getName() + " : " + e.getMessage());
+			}
+		}
+		_files = parsedFiles.toArray(new File[parsedFiles.size()]);
+		_parsed = parsed.toArray(new Exif[parsed.size()]);
+	}
+
+	public static void main(String[] args) throws IOException {
+		File corpus = new File(args.length > 0 ? args[0] : "bench/corpus");
+		File[] files = corpus.listFiles();
+		if ((files == null) || (files.length == 0)) {
+			throw new IOException("No file in corpus directory '" + corpus.getAbsolutePath() + "', generate it with exif.bench.ExifSampleGenerator");
+		}
+		Arrays.sort(files);
+		List<String> selected = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+
+		ExifBenchmark benchmark = new ExifBenchmark(files);
+		System.out.println("Corpus: " + benchmark._files.length + " files from " + corpus.getAbsolutePath());
+		System.out.println(String.format("%-24s %12s %12s %12s", "Benchmark", "ns/op", "ops/s", "bytes/op"));
+		for (String name : benchmark.names()) {
+			if (selected.isEmpty() || selected.contains(name)) {
+				benchmark.run(name, benchmark.operation(name));
+			}
+		}
+		if (benchmark._sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private List<String> names() {
+		List<String> names = new ArrayList<String>();
+		names.add("parse");
+		names.add("parseNoThumbnail");
+		names.add("getByValue");
+		names.add("getByName");
+		names.add("getAllExtracted");
+		return names;
+	}
+
+	private Operation operation(String name) {
+		if (name.equals("parse")) {
+			return new Operation() {
+				public void run(int fileIndex) throws IOException {
+					consume(new Exif(_files[fileIndex]));
+				}
+			};
+		} else if (name.equals("parseNoThumbnail")) {
+			return new Operation() {
+				public void run(int fileIndex) throws IOException {
+					consume(new Exif(_files[fileIndex], false));
+				}
+			};
+		} else if (name.equals("getByValue")) {
+			return new Operation() {
+				private int _next;
+
+				public void run(int fileIndex) {
+					_next = (_next + 1) % TAG_VALUES.length;
+					consume(_parsed[fileIndex].get(TAG_VALUES[_next]));
+				}
+			};
+		} else if (name.equals("getByName")) {
+			return new Operation() {
+				private int _next;
+
+				public void run(int fileIndex) {
+					_next = (_next + 1) % TAG_NAMES.length;
+					consume(_parsed[fileIndex].get(TAG_NAMES[_next]));
+				}
+			};
+		} else if (name.equals("getAllExtracted")) {
+			return new Operation() {
+				public void run(int fileIndex) {
+					consume(_parsed[fileIndex].getAllExtracted().size());
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown benchmark " + name);
+	}
+
+	private void consume(Object result) {
+		_sink += (result == null) ? 1 : System.identityHashCode(result);
+	}
+
+	private void run(String name, Operation operation) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+			iteration(operation);
+		}
+		long ops = 0;
+		long nanos = 0;
+		long allocated = 0;
+		for (int i = 0; i < MEASURE_ITERATIONS; ++i) {
+			long allocatedBefore = allocatedBytes();
+			long[] result = iteration(operation);
+			allocated += allocatedBytes() - allocatedBefore;
+			ops += result[0];
+			nanos += result[1];
+		}
+		double bytesPerOp = (allocatedBytes() < 0) ? -1 : (double) allocated / ops;
+		System.out.println(String.format("%-24s %12.1f %12.0f %12.1f", name, (double) nanos / ops, ops * 1e9 / nanos, bytesPerOp));
+	}
+
+	//Loop over the corpus for at least ITERATION_NANOS; return {number of operations, elapsed nanos}
+	private long[] iteration(Operation operation) throws IOException {
+		long ops = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < _files.length; ++i) {
+				operation.run(i);
+			}
+			ops += _files.length;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ITERATION_NANOS);
+		return new long[] { ops, elapsed };
+	}
+
+	//Bytes allocated by the current thread since its start, or -1 if the JVM can not tell
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+			if (hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+				return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
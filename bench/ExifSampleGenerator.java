@@ -0,0 +1,355 @@
+package exif.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/*
+ * Generate the benchmark corpus: JPEG (and TIFF) files with a synthetic EXIF segment.
+ * The output is deterministic, so the checked-in corpus can be regenerated at any time:
+ *   java -cp out exif.bench.ExifSampleGenerator bench/corpus
+ *
+ * For each byte order (be_ = Motorola, le_ = Intel):
+ * - small   : IFD0 + Exif SubIFD + thumbnail
+ * - gps     : small + GPS SubIFD
+ * - large   : gps + 400 extra tags + a 30KB MakerNote
+ * - nothumb : gps + 10 extra tags, without IFD1
+ * - raw.tif : bare TIFF file (no JPEG container)
+ */
+public class ExifSampleGenerator {
+
+	private static class Entry {
+		private final int _tag;
+		private final int _format;
+		private final int _count;
+		private final byte[] _data;
+		private final Ifd _sub;	//Pointed IFD, for sub IFD tags (data is then null)
+
+		private Entry(int tag, int format, int count, byte[] data, Ifd sub) {
+			_tag = tag;
+			_format = format;
+			_count = count;
+			_data = data;
+			_sub = sub;
+		}
+	}
+
+	private static class Ifd {
+		private final List<Entry> _entries = new ArrayList<Entry>();
+		private Ifd _next;
+		private byte[] _thumbnail;
+	}
+
+	private final ByteOrder _order;
+
+	public ExifSampleGenerator(ByteOrder order) {
+		_order = order;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "bench/corpus");
+		dir.mkdirs();
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			String prefix = (order == ByteOrder.BIG_ENDIAN) ? "be" : "le";
+			ExifSampleGenerator generator = new ExifSampleGenerator(order);
+			write(new File(dir, prefix + "_small.jpg"), generator.jpeg(generator.build(0, false, 0, true)));
+			write(new File(dir, prefix + "_gps.jpg"), generator.jpeg(generator.build(0, true, 0, true)));
+			write(new File(dir, prefix + "_large.jpg"), generator.jpeg(generator.build(400, true, 30000, true)));
+			write(new File(dir, prefix + "_nothumb.jpg"), generator.jpeg(generator.build(10, true, 0, false)));
+			write(new File(dir, prefix + "_raw.tif"), generator.tiff(generator.build(5, true, 100, false)));
+		}
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Entries
+	//-------------------------------------------------------------------------
+
+	private ByteBuffer allocate(int length) {
+		return ByteBuffer.allocate(length).order(_order);
+	}
+
+	private Entry ascii(int tag, String value) {
+		byte[] data = (value + "\0").getBytes();
+		return new Entry(tag, 2, data.length, data, null);
+	}
+
+	private Entry shorts(int tag, int... values) {
+		ByteBuffer data = allocate(2 * values.length);
+		for (int value : values) {
+			data.putShort((short) value);
+		}
+		return new Entry(tag, 3, values.length, data.array(), null);
+	}
+
+	private Entry longs(int tag, long... values) {
+		ByteBuffer data = allocate(4 * values.length);
+		for (long value : values) {
+			data.putInt((int) value);
+		}
+		return new Entry(tag, 4, values.length, data.array(), null);
+	}
+
+	//values = numerator, denominator, numerator, denominator, ...
+	private Entry rationals(int tag, long... values) {
+		ByteBuffer data = allocate(4 * values.length);
+		for (long value : values) {
+			data.putInt((int) value);
+		}
+		return new Entry(tag, 5, values.length / 2, data.array(), null);
+	}
+
+	private Entry signedRationals(int tag, int... values) {
+		ByteBuffer data = allocate(4 * values.length);
+		for (int value : values) {
+			data.putInt(value);
+		}
+		return new Entry(tag, 10, values.length / 2, data.array(), null);
+	}
+
+	private Entry undefined(int tag, byte[] data) {
+		return new Entry(tag, 7, data.length, data, null);
+	}
+
+	private Entry bytes(int tag, int... values) {
+		byte[] data = new byte[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			data[i] = (byte) values[i];
+		}
+		return new Entry(tag, 1, values.length, data, null);
+	}
+
+	private Entry sub(int tag, Ifd ifd) {
+		return new Entry(tag, 4, 1, null, ifd);
+	}
+
+	//-------------------------------------------------------------------------
+	//-- EXIF content
+	//-------------------------------------------------------------------------
+
+	private Ifd build(int extraTags, boolean gps, int makerNoteLength, boolean thumbnail) throws IOException {
+		Ifd ifd0 = new Ifd();
+		ifd0._entries.add(ascii(0x010F, "RICOH IMAGING COMPANY, LTD."));
+		ifd0._entries.add(ascii(0x0110, "PENTAX K-3"));
+		ifd0._entries.add(shorts(0x0112, 6));
+		ifd0._entries.add(rationals(0x011A, 72, 1));
+		ifd0._entries.add(rationals(0x011B, 72, 1));
+		ifd0._entries.add(shorts(0x0128, 2));
+		ifd0._entries.add(ascii(0x0131, "Firmware 1.0"));
+		ifd0._entries.add(ascii(0x0132, "2018:05:01 10:11:12"));
+		ifd0._entries.add(shorts(0x0213, 1));
+
+		Ifd exifIfd = new Ifd();
+		exifIfd._entries.add(rationals(0x829A, 1, 250));
+		exifIfd._entries.add(rationals(0x829D, 56, 10));
+		exifIfd._entries.add(shorts(0x8822, 2));
+		exifIfd._entries.add(shorts(0x8827, 400));
+		exifIfd._entries.add(undefined(0x9000, "0230".getBytes()));
+		exifIfd._entries.add(ascii(0x9003, "2018:05:01 10:11:12"));
+		exifIfd._entries.add(ascii(0x9004, "2018:05:01 10:11:12"));
+		exifIfd._entries.add(undefined(0x9101, new byte[] { 1, 2, 3, 0 }));
+		exifIfd._entries.add(signedRationals(0x9201, 8, 1));
+		exifIfd._entries.add(signedRationals(0x9204, -1, 3));
+		exifIfd._entries.add(shorts(0x9207, 5));
+		exifIfd._entries.add(shorts(0x9209, 16));
+		exifIfd._entries.add(rationals(0x920A, 350, 10));
+		exifIfd._entries.add(shorts(0x9214, 100, 200, 50, 60));
+		if (makerNoteLength > 0) {
+			byte[] makerNote = new byte[makerNoteLength];
+			for (int i = 0; i < makerNote.length; ++i) {
+				makerNote[i] = (byte) i;
+			}
+			exifIfd._entries.add(undefined(0x927C, makerNote));
+		}
+		exifIfd._entries.add(undefined(0xA000, "0100".getBytes()));
+		exifIfd._entries.add(shorts(0xA001, 1));
+		exifIfd._entries.add(longs(0xA002, 6016));
+		exifIfd._entries.add(longs(0xA003, 4000));
+		exifIfd._entries.add(undefined(0xA300, new byte[] { 3 }));
+		exifIfd._entries.add(ascii(0xA434, "smc PENTAX-DA 18-55mm"));
+		exifIfd._entries.add(rationals(0xA432, 18, 1, 55, 1, 35, 10, 56, 10));
+		for (int i = 0; i < extraTags; ++i) {
+			exifIfd._entries.add(shorts(0xC000 + i, i));
+		}
+		ifd0._entries.add(sub(0x8769, exifIfd));
+
+		if (gps) {
+			Ifd gpsIfd = new Ifd();
+			gpsIfd._entries.add(bytes(0x0000, 2, 3, 0, 0));
+			gpsIfd._entries.add(ascii(0x0001, "N"));
+			gpsIfd._entries.add(rationals(0x0002, 48, 1, 51, 1, 2976, 100));
+			gpsIfd._entries.add(ascii(0x0003, "W"));
+			gpsIfd._entries.add(rationals(0x0004, 2, 1, 17, 1, 4020, 100));
+			gpsIfd._entries.add(bytes(0x0005, 0));
+			gpsIfd._entries.add(rationals(0x0006, 3550, 100));
+			gpsIfd._entries.add(rationals(0x0007, 10, 1, 11, 1, 12, 1));
+			gpsIfd._entries.add(ascii(0x001D, "2018:05:01"));
+			ifd0._entries.add(sub(0x8825, gpsIfd));
+		}
+
+		if (thumbnail) {
+			Ifd ifd1 = new Ifd();
+			byte[] thumbnailData = jpegImage(160, 120);
+			ifd1._entries.add(shorts(0x0103, 6));
+			ifd1._entries.add(rationals(0x011A, 72, 1));
+			ifd1._entries.add(rationals(0x011B, 72, 1));
+			ifd1._entries.add(shorts(0x0128, 2));
+			ifd1._entries.add(longs(0x0201, 0)); //patched by jpeg() once the thumbnail position is known
+			ifd1._entries.add(longs(0x0202, thumbnailData.length));
+			ifd1._thumbnail = thumbnailData;
+			ifd0._next = ifd1;
+		}
+
+		//Tags must be sorted in an IFD
+		sort(ifd0);
+		sort(exifIfd);
+		if (ifd0._next != null) {
+			sort(ifd0._next);
+		}
+		return ifd0;
+	}
+
+	private static void sort(Ifd ifd) {
+		Collections.sort(ifd._entries, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return Integer.compare(a._tag, b._tag);
+			}
+		});
+	}
+
+	private static byte[] jpegImage(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return out.toByteArray();
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Files
+	//-------------------------------------------------------------------------
+
+	//Write the IFD, then its out of line data, its sub IFDs and the next IFD (depth first); return the IFD position in out
+	private int layout(Ifd ifd, ByteArrayOutputStream out) throws IOException {
+		int start = out.size();
+		int ifdLength = 2 + 12 * ifd._entries.size() + 4;
+		out.write(new byte[ifdLength]); //filled once the data positions are known
+		ByteBuffer block = allocate(ifdLength);
+		block.putShort((short) ifd._entries.size());
+		List<Integer> subPositions = new ArrayList<Integer>();
+		List<Ifd> subIfds = new ArrayList<Ifd>();
+		for (Entry entry : ifd._entries) {
+			block.putShort((short) entry._tag);
+			block.putShort((short) entry._format);
+			block.putInt(entry._count);
+			if (entry._sub != null) {
+				subPositions.add(block.position());
+				subIfds.add(entry._sub);
+				block.putInt(0);
+			} else if (entry._data.length <= 4) {
+				byte[] inline = new byte[4];
+				System.arraycopy(entry._data, 0, inline, 0, entry._data.length);
+				block.put(inline);
+			} else {
+				align(out);
+				block.putInt(out.size());
+				out.write(entry._data);
+			}
+		}
+		int nextPosition = block.position();
+		block.putInt(0);
+		for (int i = 0; i < subIfds.size(); ++i) {
+			align(out);
+			block.putInt(subPositions.get(i), layout(subIfds.get(i), out));
+		}
+		if (ifd._next != null) {
+			align(out);
+			block.putInt(nextPosition, layout(ifd._next, out));
+		}
+		byte[] all = out.toByteArray();
+		System.arraycopy(block.array(), 0, all, start, ifdLength);
+		out.reset();
+		out.write(all);
+		return start;
+	}
+
+	//TIFF offsets should be word aligned
+	private static void align(ByteArrayOutputStream out) {
+		if ((out.size() & 1) == 1) {
+			out.write(0);
+		}
+	}
+
+	private byte[] tiff(Ifd ifd0) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer header = allocate(8);
+		byte alignment = (byte) ((_order == ByteOrder.LITTLE_ENDIAN) ? 'I' : 'M');
+		header.put(alignment);
+		header.put(alignment);
+		header.putShort((short) 0x002A);
+		header.putInt(8);
+		out.write(header.array());
+		layout(ifd0, out);
+		return out.toByteArray();
+	}
+
+	private byte[] jpeg(Ifd ifd0) throws IOException {
+		byte[] tiff = tiff(ifd0);
+		byte[] thumbnail = (ifd0._next != null) ? ifd0._next._thumbnail : null;
+		if (thumbnail != null) {
+			//Append the thumbnail after the TIFF data, and patch the JpegIFOffset entry of IFD1
+			byte[] withThumbnail = new byte[tiff.length + thumbnail.length];
+			System.arraycopy(tiff, 0, withThumbnail, 0, tiff.length);
+			System.arraycopy(thumbnail, 0, withThumbnail, tiff.length, thumbnail.length);
+			ByteBuffer buffer = ByteBuffer.wrap(withThumbnail).order(_order);
+			for (int i = 8; i + 12 < tiff.length; i += 2) {
+				if (((buffer.getShort(i) & 0xFFFF) == 0x0201) && ((buffer.getShort(i + 2) & 0xFFFF) == 4) && (buffer.getInt(i + 4) == 1) && (buffer.getInt(i + 8) == 0)) {
+					buffer.putInt(i + 8, tiff.length);
+					break;
+				}
+			}
+			tiff = withThumbnail;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		//SOI
+		out.write(0xFF);
+		out.write(0xD8);
+		//APP0 JFIF
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0 });
+		//APP1 EXIF
+		int app1Length = 2 + 6 + tiff.length;
+		out.write(0xFF);
+		out.write(0xE1);
+		out.write((app1Length >> 8) & 0xFF);
+		out.write(app1Length & 0xFF);
+		out.write(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+		out.write(tiff);
+		//Main image, without its own SOI
+		byte[] image = jpegImage(64, 48);
+		out.write(image, 2, image.length - 2);
+		return out.toByteArray();
+	}
+}
@@ -3,13 +3,37 @@ package exif;
 import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
 
@@ -50,25 +74,159 @@ import javax.imageio.ImageIO;
  */
 public class Exif {
 	
-	private boolean _debug = true;
-	private HashMap<Integer, ExifValue> _exifDataByTagValue;
-	private HashMap<String, ExifValue>  _exifDataByTagName;
-	private List<ExifValue> 			_exifDataExtracted;
-	private BufferedImage				_thumbnail;
+	//Tag dictionary, built once and shared (read only) by all Exif instances
+	private static final Map<Integer, Tag> _tagsByValue;
+	private static final Map<String, Tag>  _tagsByName;
+	
+	static {
+		HashMap<Integer, Tag> tagsByValue = new HashMap<Integer, Tag>();
+		HashMap<String, Tag> tagsByName = new HashMap<String, Tag>();
+		initExifDatas(tagsByValue, tagsByName);
+		_tagsByValue = Collections.unmodifiableMap(tagsByValue);
+		_tagsByName = Collections.unmodifiableMap(tagsByName);
+	}
+	
+	//Values extracted from the parsed file; filled by the constructor only, then never modified (except the cache of lazily decoded values)
+	private final Options	 _options;
+	private final ParseListener _listener;		//Null when nobody listens, so the parser pays nothing
+	private ByteBuffer		 _tiff;				//TIFF data of the EXIF segment, where entry values are decoded from
+	private long			 _tiffPosition = -1;	//Position of the TIFF data in the parsed source
+	private int[]			 _tiffBlockStarts;	//For a TIFF container, _tiff is a compact copy: start of each copied block in _tiff...
+	private long[]			 _tiffBlockSources;	//...and its position in the parsed source
+	private final List<SubImage> _subImages = new ArrayList<SubImage>();
+	private Set<Integer>	 _visitedIFDs;		//Only used while parsing, to not parse an IFD twice
+	private Budget			 _budget;			//Limits of the parse (see Options)
+	private EntryIndex		 _entries;
+	private final int[]		 _wantedTags;		//Sorted tag selection (null = extract all tags)
+	private final boolean[]	 _wantedTagsFound;
+	private int				 _wantedTagsFoundCount;
+	private int				 _thumbnailOffset = -1;	//Position of the IFD1 JPEG thumbnail inside the TIFF data (-1 = no thumbnail)
+	private int				 _thumbnailLength;
+	private long			 _recordThumbnailOffset = -1;	//Read from a record: the thumbnail is only located in the file, its bytes are not in memory
+	private long			 _exifSegmentPosition = -1;	//JPEG: position of the APP1 segment marker of the EXIF data...
+	private int				 _exifSegmentLength;	//...and length of the whole segment (marker included)
+	private long			 _crcChunkPosition = -1;	//PNG: position of the type of the eXIf chunk, whose CRC covers type and data...
+	private int				 _crcChunkLength;	//...and length of its data
+	private BufferedImage	 _thumbnail;		//Decoded on first demand
+	private boolean			 _thumbnailDecoded;
 	
 	private HashMap<Integer, ExifValue> _makerNoteDataByTagValue;
 	private HashMap<String, ExifValue>  _makerNoteDataByTagName;
 	private List<ExifValue> 			_makerNoteDataExtracted;
 	
 	
+	private Exif(Options options) {
+		_options = options;
+		_listener = options.getListener();
+		_entries = new EntryIndex();
+		_wantedTags = options.getTags();
+		_wantedTagsFound = (_wantedTags == null) ? null : new boolean[_wantedTags.length];
+	}
+	
 	public Exif(File file) throws IOException {
-		this.initExifDatas();
-		this.parse(file, true);
+		this(file, new Options());
 	}
 	
 	public Exif(File file, boolean extractThumbnail) throws IOException {
-		this.initExifDatas();
-		this.parse(file, extractThumbnail);
+		this(file, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(File file, Options options) throws IOException {
+		this(options);
+		this.parse(file);
+	}
+	
+	public Exif(Path path) throws IOException {
+		this(path, new Options());
+	}
+	
+	public Exif(Path path, boolean extractThumbnail) throws IOException {
+		this(path, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(Path path, Options options) throws IOException {
+		this(options);
+		this.parse(path);
+	}
+	
+	//The channel is neither closed nor moved (its position is restored after parsing)
+	public Exif(SeekableByteChannel channel) throws IOException {
+		this(channel, new Options());
+	}
+	
+	public Exif(SeekableByteChannel channel, boolean extractThumbnail) throws IOException {
+		this(channel, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(SeekableByteChannel channel, Options options) throws IOException {
+		this(channel instanceof FileChannel ? new ChannelSource((FileChannel) channel) : new SeekableChannelSource(channel), options);
+	}
+	
+	//In memory data are parsed without any copy
+	public Exif(byte[] data) throws IOException {
+		this(data, 0, data.length, new Options());
+	}
+	
+	public Exif(byte[] data, boolean extractThumbnail) throws IOException {
+		this(data, 0, data.length, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(byte[] data, Options options) throws IOException {
+		this(data, 0, data.length, options);
+	}
+	
+	public Exif(byte[] data, int offset, int length) throws IOException {
+		this(data, offset, length, new Options());
+	}
+	
+	public Exif(byte[] data, int offset, int length, boolean extractThumbnail) throws IOException {
+		this(data, offset, length, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(byte[] data, int offset, int length, Options options) throws IOException {
+		this(ByteBuffer.wrap(data, offset, length), options);
+	}
+	
+	//Parse the bytes between the buffer position and its limit. The buffer itself (position, limit, content) is never modified
+	public Exif(ByteBuffer buffer) throws IOException {
+		this(buffer, new Options());
+	}
+	
+	public Exif(ByteBuffer buffer, boolean extractThumbnail) throws IOException {
+		this(buffer, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(ByteBuffer buffer, Options options) throws IOException {
+		this(new BufferSource(buffer), options);
+	}
+	
+	//Forward only parse, for pipes, sockets or downloads: only the bytes up to the end of the EXIF segment are read,
+	//the rest of the stream is not consumed. The stream is not closed.
+	public Exif(InputStream in) throws IOException {
+		this(in, new Options());
+	}
+	
+	public Exif(InputStream in, boolean extractThumbnail) throws IOException {
+		this(in, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(InputStream in, Options options) throws IOException {
+		this(options);
+		this.parse(new StreamSource(in), 1); //SOI is searched byte by byte, so nothing is read after the EXIF segment
+	}
+	
+	//Parse from a custom reader (for example a Source shared between threads)
+	public Exif(Source source) throws IOException {
+		this(source, new Options());
+	}
+	
+	public Exif(Source source, boolean extractThumbnail) throws IOException {
+		this(source, new Options().setExtractThumbnail(extractThumbnail));
+	}
+	
+	public Exif(Source source, Options options) throws IOException {
+		this(options);
+		this.parse(source);
 	}
 	
 	
@@ -76,22 +234,247 @@ public class Exif {
 	//-- Getters
 	//-------------------------------------------------------------------------
 
+	//Return null if the tag has not been extracted from the file
 	public ExifValue get(int tagValue) {
-		return _exifDataByTagValue.get(tagValue);
+		int index = _entries.find(tagValue);
+		if (index < 0) {
+			return null;
+		}
+		return getEntryValue(index);
 	}
 	
 	public ExifValue get(String tagName) {
-		return _exifDataByTagName.get(tagName);
+		Tag tag = _tagsByName.get(tagName);
+		if (tag == null) {
+			return null;
+		}
+		return get(tag.getTagValue());
 	}
 	
 	public List<ExifValue> getAllExtracted() {
-		return _exifDataExtracted;
+		ExifValue[] values = new ExifValue[_entries.size()];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = getEntryValue(i);
+		}
+		return Collections.unmodifiableList(Arrays.asList(values));
+	}
+	
+	//Number of extracted entries, without decoding them
+	public int getExtractedCount() {
+		return _entries.size();
+	}
+	
+	//Other images described in the file, in parse order: SubIFDs (0x014a) trees, IFD1 (thumbnail) and next IFDs of the chain.
+	//Their values are not mixed with the main image ones returned by get().
+	public List<SubImage> getSubImages() {
+		return Collections.unmodifiableList(_subImages);
 	}
 	
-	public BufferedImage getThumbnail() {
+	//Decode the thumbnail image the first time it is asked. Return null if there is no thumbnail, or if it can not be decoded.
+	public synchronized BufferedImage getThumbnail() {
+		if ((_thumbnailDecoded == false) && (_thumbnailOffset >= 0)) {
+			_thumbnailDecoded = true; //even if it fails, do not try again
+			byte[] thumbnailData = new byte[_thumbnailLength];
+			getThumbnailBytes().get(thumbnailData);
+			try {
+				_thumbnail = ImageIO.read(new ByteArrayInputStream(thumbnailData));
+			} catch (IOException e) {
+				//Corrupted thumbnail, stay null
+			}
+		}
 		return _thumbnail;
 	}
 	
+	//Return the raw embedded JPEG thumbnail without copy (read only, position 0 to limit), or null if there is no thumbnail.
+	//It shares the bytes given to the constructor when parsing from memory.
+	//An Exif read from a record (see ExifCache) only knows the thumbnail location: read it from the file with getThumbnailOffset().
+	public ByteBuffer getThumbnailBytes() {
+		if (_thumbnailOffset < 0) {
+			return null;
+		}
+		ByteBuffer thumbnail = _tiff.asReadOnlyBuffer();
+		thumbnail.position(_thumbnailOffset);
+		thumbnail.limit(_thumbnailOffset + _thumbnailLength);
+		return thumbnail.slice();
+	}
+	
+	//Position of the embedded JPEG thumbnail from the start of the parsed file (or buffer), to read it directly; -1 if there is no thumbnail
+	public long getThumbnailOffset() {
+		return (_thumbnailOffset < 0) ? _recordThumbnailOffset : toSourcePosition(_thumbnailOffset);
+	}
+	
+	//Length in bytes of the embedded JPEG thumbnail, 0 if there is no thumbnail
+	public int getThumbnailLength() {
+		return (getThumbnailOffset() < 0) ? 0 : _thumbnailLength;
+	}
+	
+	//Byte order of the TIFF data (values written with ExifPatcher.setRaw must use it), null if there is no EXIF data
+	public ByteOrder getByteOrder() {
+		return (_tiff == null) ? null : _tiff.order();
+	}
+	
+	//Return the definition of a known tag (null if unknown)
+	public static Tag getTag(int tagValue) {
+		return _tagsByValue.get(tagValue);
+	}
+	
+	public static Tag getTag(String tagName) {
+		return _tagsByName.get(tagName);
+	}
+	
+	//-------------------------------------------------------------------------
+	//-- Options
+	//-------------------------------------------------------------------------
+	
+	public static class Options {
+		private boolean _extractThumbnail = true;
+		private boolean _lazyDecoding = false;
+		private int[]   _tags = null;
+		private ParseListener _listener = null;
+		private long _maxScanLength = 64 * 1024;
+		private int _maxDepth = 8;
+		private int _maxEntries = 16384;
+		private long _maxBytesRead = 64L * 1024 * 1024;
+		private long _maxAllocation = 16L * 1024 * 1024;
+		private long _timeoutMillis = 0;
+		
+		//Locate the IFD1 thumbnail image (default true), it is decoded only when asked
+		public Options setExtractThumbnail(boolean extractThumbnail) {
+			_extractThumbnail = extractThumbnail;
+			return this;
+		}
+		
+		public boolean isExtractThumbnail() {
+			return _extractThumbnail;
+		}
+		
+		//Only index the IFD entries while parsing, and decode a value the first time it is asked (default false).
+		//The Exif then keeps a reference to the EXIF bytes: in memory data given to the constructor must not be modified while the Exif is used.
+		public Options setLazyDecoding(boolean lazyDecoding) {
+			_lazyDecoding = lazyDecoding;
+			return this;
+		}
+		
+		public boolean isLazyDecoding() {
+			return _lazyDecoding;
+		}
+		
+		//Only extract these tags (default null = all tags). Sub IFDs which can not contain one of them are not read,
+		//the thumbnail is not extracted, and parsing stops as soon as all of them are found.
+		public Options setTags(int... tagValues) {
+			if (tagValues == null) {
+				_tags = null;
+			} else {
+				int[] tags = tagValues.clone();
+				Arrays.sort(tags);
+				int nbTags = 0;
+				for (int i = 0; i < tags.length; ++i) {
+					if ((i == 0) || (tags[i] != tags[i - 1])) {
+						tags[nbTags++] = tags[i];
+					}
+				}
+				_tags = Arrays.copyOf(tags, nbTags);
+			}
+			return this;
+		}
+		
+		public int[] getTags() {
+			return (_tags == null) ? null : _tags.clone();
+		}
+		
+		//Receive the parse events (default null = no events). Events are sent by the thread which parses, from the constructor;
+		//in lazy decoding mode a value is reported when it is decoded for the first time.
+		public Options setListener(ParseListener listener) {
+			_listener = listener;
+			return this;
+		}
+		
+		public ParseListener getListener() {
+			return _listener;
+		}
+		
+		//Maximum number of bytes read to search a JPEG marker, when the data does not start with one (default 64KB).
+		//Data which does not start with a JPEG SOI, and does not contain one in these bytes, is rejected.
+		public Options setMaxScanLength(long maxScanLength) {
+			_maxScanLength = maxScanLength;
+			return this;
+		}
+		
+		public long getMaxScanLength() {
+			return _maxScanLength;
+		}
+		
+		//The next limits protect from corrupted or malicious files: when one is reached, the parse fails with a BudgetExceededException.
+		
+		//Maximum nesting of sub IFDs (default 8): IFD0 is at depth 0, the Exif SubIFD at depth 1, the Interoperability IFD at depth 2...
+		public Options setMaxDepth(int maxDepth) {
+			_maxDepth = maxDepth;
+			return this;
+		}
+		
+		public int getMaxDepth() {
+			return _maxDepth;
+		}
+		
+		//Maximum number of IFD entries of all the IFDs (default 16384)
+		public Options setMaxEntries(int maxEntries) {
+			_maxEntries = maxEntries;
+			return this;
+		}
+		
+		public int getMaxEntries() {
+			return _maxEntries;
+		}
+		
+		//Maximum number of bytes read from the data (default 64MB)
+		public Options setMaxBytesRead(long maxBytesRead) {
+			_maxBytesRead = maxBytesRead;
+			return this;
+		}
+		
+		public long getMaxBytesRead() {
+			return _maxBytesRead;
+		}
+		
+		//Maximum size of one read or one decoded value (default 16MB), checked before the memory is allocated
+		public Options setMaxAllocation(long maxAllocation) {
+			_maxAllocation = maxAllocation;
+			return this;
+		}
+		
+		public long getMaxAllocation() {
+			return _maxAllocation;
+		}
+		
+		//Maximum duration of the parse (default 0 = no limit), checked before each read and each IFD
+		public Options setTimeoutMillis(long timeoutMillis) {
+			_timeoutMillis = timeoutMillis;
+			return this;
+		}
+		
+		public long getTimeoutMillis() {
+			return _timeoutMillis;
+		}
+	}
+	
+	//A limit of the Options has been reached
+	public static class BudgetExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		public BudgetExceededException(String message) {
+			super(message);
+		}
+	}
+	
+	//The data is not a valid file of its format (or of a supported format): parsing the same bytes always fails the same way
+	public static class FormatException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		public FormatException(String message) {
+			super(message);
+		}
+	}
+	
 	//-------------------------------------------------------------------------
 	//-- Helpers
 	//-------------------------------------------------------------------------
@@ -104,12 +487,42 @@ public class Exif {
 		return convertGPS(this.get(0x0003), this.get(0x0004));
 	}
 	
+	//Meters above sea level (negative below), null if unknown
+	public Double getGPSAltitude() {
+		ExifValue altitude = this.get(0x0006);
+		if ((altitude == null) || (altitude.getRationalCount() < 1)) {
+			return null;
+		}
+		ExifValue ref = this.get(0x0005);
+		boolean isBelowSeaLevel = (ref != null) && ref.isInteger() && (ref.getLong() == 1);
+		return isBelowSeaLevel ? -altitude.getDouble() : altitude.getDouble();
+	}
+	
+	//UTC time of the GPS fix (GPSDateStamp and GPSTimeStamp) in milliseconds since 1970, null if unknown
+	public Long getGPSTimestamp() {
+		ExifValue date = this.get(0x001D);
+		ExifValue time = this.get(0x0007);
+		if ((date == null) || (date.isString() == false) || (time == null) || (time.getRationalCount() < 3)) {
+			return null;
+		}
+		String[] fields = date.getString().trim().split(":");
+		if (fields.length != 3) {
+			return null;
+		}
+		try {
+			long days = LocalDate.of(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2])).toEpochDay();
+			double seconds = time.getDouble(0) * 3600. + time.getDouble(1) * 60. + time.getDouble(2);
+			return days * 86400000L + Math.round(seconds * 1000.);
+		} catch (RuntimeException e) { //not a number, or not a date
+			return null;
+		}
+	}
+	
 	private Double convertGPS(ExifValue ref, ExifValue coord) {
 		if ((ref != null) && (coord != null)) {
-			if ((ref.getValue() != null) && (coord.getValue() != null)) {
-				List<Rational> coordinates = (List<Rational>) coord.getValue();
-				String reference = ((String) ref.getValue()).toUpperCase().trim();
-				double degrees = coordinates.get(0).getValue() + coordinates.get(1).getValue() / 60. + coordinates.get(2).getValue() / 3600.;
+			if (ref.isString() && (coord.getRationalCount() >= 3)) {
+				String reference = ref.getString().toUpperCase().trim();
+				double degrees = coord.getDouble(0) + coord.getDouble(1) / 60. + coord.getDouble(2) / 3600.;
 				if ((reference.compareTo("N") != 0) && (reference.compareTo("E") != 0)) {
 					degrees *= -1.;
 				}
@@ -123,153 +536,230 @@ public class Exif {
 	//-- Internal data
 	//-------------------------------------------------------------------------
 	
-	private void initExifDatas() {
-		_exifDataByTagValue =  new HashMap<Integer, ExifValue>();
-		_exifDataByTagName =  new HashMap<String, ExifValue>();
-		_exifDataExtracted = new LinkedList<ExifValue>();
-		
+	private static void initExifDatas(HashMap<Integer, Tag> tagsByValue, HashMap<String, Tag> tagsByName) {
 		//-- Tags used by IFD0 (main image) -----------------------------------
-		this.addExifData(0x010e, "ImageDescription", "Describes image.");
-		this.addExifData(0x010f, "Make", "Shows manufacturer of digicam.");
-		this.addExifData(0x0110, "Model", "Shows model number of digicam.");
-		this.addExifData(0x0112, "Orientation", "The orientation of the camera relative to the scene, when the image was captured. The start point of stored data is, '1' means upper left, '3' lower right, '6' upper right, '8' lower left, '9' undefined.");
-		this.addExifData(0x011a, "XResolution", "Display/Print resolution of image. Large number of digicam uses 1/72inch, but it has no mean because personal computer doesn't use this value to display/print out.");
-		this.addExifData(0x011b, "YResolution", "Display/Print resolution of image. Large number of digicam uses 1/72inch, but it has no mean because personal computer doesn't use this value to display/print out.");
-		this.addExifData(0x0128, "ResolutionUnit", "Unit of XResolution(0x011a)/YResolution(0x011b). '1' means no-unit, '2' means inch, '3' means centimeter.");
-		this.addExifData(0x0131, "Software", "Shows firmware(internal software of digicam) version number.");
-		this.addExifData(0x0132, "DateTime", "Date/Time of image was last modified. Data format is YYYY:MM:DD HH:MM:SS+0x00, total 20bytes. In usual, it has the same value of DateTimeOriginal(0x9003)).");
-		this.addExifData(0x013e, "WhitePoint", "Defines chromaticity of white point of the image. If the image uses CIE Standard Illumination D65(known as international standard of 'daylight'), the values are '3127/10000,3290/10000').");
-		this.addExifData(0x013f, "PrimaryChromaticities", "Defines chromaticity of the primaries of the image. If the image uses CCIR Recommendation 709 primearies, values are '640/1000,330/1000,300/1000,600/1000,150/1000,0/1000'.");
-		this.addExifData(0x0211, "YCbCrCoefficients", "When image format is YCbCr, this value shows a constant to translate it to RGB format. In usual, values are '0.299/0.587/0.114'.");
-		this.addExifData(0x0213, "YCbCrPositioning", "When image format is YCbCr and uses 'Subsampling'(cropping of chroma data, all the digicam do that), defines the chroma sample point of subsampling pixel array. '1' means the center of pixel array, '2' means the datum point.");
-		this.addExifData(0x0214, "ReferenceBlackWhite", "Shows reference value of black point/white point. In case of YCbCr format, first 2 show black/white of Y, next 2 are Cb, last 2 are Cr. In case of RGB format, first 2 show black/white of R, next 2 are G, last 2 are B.");
-		this.addExifData(0x8298, "Copyright", "Shows copyright information");
-		this.addExifData(0x8769, "ExifOffset", "Offset to Exif Sub IFD.", true);
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x010e, "ImageDescription", "Describes image.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x010f, "Make", "Shows manufacturer of digicam.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0110, "Model", "Shows model number of digicam.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0112, "Orientation", "The orientation of the camera relative to the scene, when the image was captured. The start point of stored data is, '1' means upper left, '3' lower right, '6' upper right, '8' lower left, '9' undefined.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x011a, "XResolution", "Display/Print resolution of image. Large number of digicam uses 1/72inch, but it has no mean because personal computer doesn't use this value to display/print out.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x011b, "YResolution", "Display/Print resolution of image. Large number of digicam uses 1/72inch, but it has no mean because personal computer doesn't use this value to display/print out.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0128, "ResolutionUnit", "Unit of XResolution(0x011a)/YResolution(0x011b). '1' means no-unit, '2' means inch, '3' means centimeter.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0131, "Software", "Shows firmware(internal software of digicam) version number.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0132, "DateTime", "Date/Time of image was last modified. Data format is YYYY:MM:DD HH:MM:SS+0x00, total 20bytes. In usual, it has the same value of DateTimeOriginal(0x9003)).");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x013e, "WhitePoint", "Defines chromaticity of white point of the image. If the image uses CIE Standard Illumination D65(known as international standard of 'daylight'), the values are '3127/10000,3290/10000').");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x013f, "PrimaryChromaticities", "Defines chromaticity of the primaries of the image. If the image uses CCIR Recommendation 709 primearies, values are '640/1000,330/1000,300/1000,600/1000,150/1000,0/1000'.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0211, "YCbCrCoefficients", "When image format is YCbCr, this value shows a constant to translate it to RGB format. In usual, values are '0.299/0.587/0.114'.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0213, "YCbCrPositioning", "When image format is YCbCr and uses 'Subsampling'(cropping of chroma data, all the digicam do that), defines the chroma sample point of subsampling pixel array. '1' means the center of pixel array, '2' means the datum point.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x0214, "ReferenceBlackWhite", "Shows reference value of black point/white point. In case of YCbCr format, first 2 show black/white of Y, next 2 are Cb, last 2 are Cr. In case of RGB format, first 2 show black/white of R, next 2 are G, last 2 are B.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x8298, "Copyright", "Shows copyright information");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x8769, "ExifOffset", "Offset to Exif Sub IFD.", true);
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x014a, "SubIFDs", "Offsets to the IFDs of other images of the file (reduced resolution images, raw image data...).", true);
 		//-- Tags used by Exif SubIFD -----------------------------------------
-		this.addExifData(0x829a, "ExposureTime", "Exposure time (reciprocal of shutter speed). Unit is second.");
-		this.addExifData(0x829d, "FNumber", "The actual F-number(F-stop) of lens when the image was taken.");
-		this.addExifData(0x8822, "ExposureProgram", "Exposure program that the camera used when image was taken. '1' means manual control, '2' program normal, '3' aperture priority, '4' shutter priority, '5' program creative (slow program), '6' program action(high-speed program), '7' portrait mode, '8' landscape mode.");
-		this.addExifData(0x8827, "ISOSpeedRatings", "CCD sensitivity equivalent to Ag-Hr film speedrate.");
-		this.addExifData(0x9000, "ExifVersion", "Exif version number. Stored as 4bytes of ASCII character (like '0210' meaning v2.1)");
-		this.addExifData(0x9003, "DateTimeOriginal", "Date/Time of original image taken. This value should not be modified by user program.");
-		this.addExifData(0x9004, "DateTimeDigitized", "Date/Time of image digitized. Usually, it contains the same value of DateTimeOriginal(0x9003).");
-		this.addExifData(0x9101, "ComponentConfiguration", "Information specific to compressed data. The channels of each component are arranged in order from the 1st component to the 4th. For uncompressed data the data arrangement is given in the <PhotometricInterpretation> tag. However, since <PhotometricInterpretation> can only express the order of Y, Cb and Cr, this tag is provided for cases when compressed data uses components other than Y, Cb, and Cr and to enable support of other sequences. 0 = - / 1 = Y / 2 = Cb / 3 = Cr / 4 = R / 5 = G / 6 = B");
-		this.addExifData(0x9102, "CompressedBitsPerPixel", "The average compression ratio of JPEG.");
-		this.addExifData(0x9201, "ShutterSpeedValue", "Shutter speed. To convert this value to ordinary 'Shutter Speed'; calculate this value's power of 2, then reciprocal. For example, if value is '4', shutter speed is 1/(2^4)=1/16 second.");
-		this.addExifData(0x9202, "ApertureValue", "The actual aperture value of lens when the image was taken. To convert this value to ordinary F-number(F-stop), calculate this value's power of root 2 (=1.4142). For example, if value is '5', F-number is SQRT(2)^5 = 1.4142^5 = F5.6.");
-		this.addExifData(0x9203, "BrightnessValue", "Brightness of taken subject, unit is EV.");
-		this.addExifData(0x9204, "ExposureBiasValue", "Exposure bias value of taking picture. Unit is EV");
-		this.addExifData(0x9205, "MaxApertureValue", "Maximum aperture value of lens. You can convert to F-number by calculating power of root 2 (same process of ApertureValue(0x9202))");
-		this.addExifData(0x9206, "SubjectDistance", "Distance to focus point, unit is meter");
-		this.addExifData(0x9207, "MeteringMode", "Exposure metering method. '1' means average, '2' center weighted average, '3' spot, '4' multi-spot, '5' multi-segment.");
-		this.addExifData(0x9208, "LightSource", "Light source, actually this means white balance setting. '0' means auto, '1' daylight, '2' fluorescent, '3' tungsten, '10' flash.");
-		this.addExifData(0x9209, "Flash", "0x0 = No Flash / 0x1 = Fired / 0x5 = Fired, Return not detected / 0x7 = Fired, Return detected / 0x8 = On, Did not fire / 0x9 = On, Fired / 0xd = On, Return not detected / 0xf = On, Return detected / 0x10 = Off, Did not fire / 0x14 = Off, Did not fire, Return not detected / 0x18 = Auto, Did not fire / 0x19 = Auto, Fired / 0x1d = Auto, Fired, Return not detected / 0x1f = Auto, Fired, Return detected / 0x20 = No flash function / 0x30 = Off, No flash function / 0x41 = Fired, Red-eye reduction / 0x45 = Fired, Red-eye reduction, Return not detected / 0x47 = Fired, Red-eye reduction, Return detected / 0x49 = On, Red-eye reduction / 0x4d = On, Red-eye reduction, Return not detected / 0x4f = On, Red-eye reduction, Return detected / 0x50 = Off, Red-eye reduction / 0x58 = Auto, Did not fire, Red-eye reduction / 0x59 = Auto, Fired, Red-eye reduction / 0x5d = Auto, Fired, Red-eye reduction, Return not detected / 0x5f = Auto, Fired, Red-eye reduction, Return detected");
-		this.addExifData(0x920a, "FocalLength", "Focal length of lens used to take image. Unit is millimeter.");
-		this.addExifData(0x927c, "MakerNote", "Manufacturer specific information.", true);
-		this.addExifData(0x9286, "UserComment", "Stores user comment");
-		this.addExifData(0xa000, "FlashPixVersion", "The FlashPix format version supported by a FPXR file. If the FPXR function supports Flashpix format Ver. 1.0, this is indicated similarly to ExifVersion by recording '0100' as 4-byte ASCII.");
-		this.addExifData(0xa001, "ColorSpace", "Normally sRGB (=1) is used to define the color space based on the PC monitor conditions and environment. If a color space other than sRGB is used, Uncalibrated (=65535) is set. Image data recorded as Uncalibrated can be treated as sRGB when it is converted to Flashpix. ");
-		this.addExifData(0xa002, "ExifImageWidth", "Width size of main image");
-		this.addExifData(0xa003, "ExifImageHeight", "Height size of main image");
-		this.addExifData(0xa004, "RelatedSoundFile", "If this digicam can record audio data with image, shows name of audio data (only name, no fullpath).");
-		this.addExifData(0xa005, "InteroperabilityIFD", "A pointer to the Exif-related Interoperability IFD. Interoperability IFD is composed of tags which stores the information to ensure the Interoperability. The Interoperability structure of Interoperability IFD is same as TIFF defined IFD structure but does not contain the image data characteristically compared with normal TIFF IFD. ", true);
-		this.addExifData(0xa20e, "FocalPlaneXResolution", "CCD's pixel X density");
-		this.addExifData(0xa20f, "FocalPlaneYResolution", "CCD's pixel Y density");
-		this.addExifData(0xa210, "FocalPlaneResolutionUnit", "Unit of FocalPlaneXResoluton/FocalPlaneYResolution. '1' means no-unit, '2' inch, '3' centimeter");
-		this.addExifData(0xa217, "SensingMethod", "Shows type of image sensor unit. '2' means 1 chip color area sensor, most of all digicam use this type");
-		this.addExifData(0xa300, "FileSource", "Indicates the image source. If a DSC (Digital Still Camera) recorded the image, this tag will always be set to 3, indicating that the image was recorded on a DSC.");
-		this.addExifData(0xa301, "SceneType", " Indicates the type of scene. If a DSC recorded the image, this tag value shall always be set to 1, indicating that the image was directly photographed.");
-		this.addExifData(0xa433, "LensMake", "Records the lens manufactor as an ASCII string.");
-		this.addExifData(0xA434, "LensModel", "Records the lens's model name and model number as an ASCII string.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x829a, "ExposureTime", "Exposure time (reciprocal of shutter speed). Unit is second.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x829d, "FNumber", "The actual F-number(F-stop) of lens when the image was taken.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x8822, "ExposureProgram", "Exposure program that the camera used when image was taken. '1' means manual control, '2' program normal, '3' aperture priority, '4' shutter priority, '5' program creative (slow program), '6' program action(high-speed program), '7' portrait mode, '8' landscape mode.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x8827, "ISOSpeedRatings", "CCD sensitivity equivalent to Ag-Hr film speedrate.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9000, "ExifVersion", "Exif version number. Stored as 4bytes of ASCII character (like '0210' meaning v2.1)");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9003, "DateTimeOriginal", "Date/Time of original image taken. This value should not be modified by user program.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9004, "DateTimeDigitized", "Date/Time of image digitized. Usually, it contains the same value of DateTimeOriginal(0x9003).");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9101, "ComponentConfiguration", "Information specific to compressed data. The channels of each component are arranged in order from the 1st component to the 4th. For uncompressed data the data arrangement is given in the <PhotometricInterpretation> tag. However, since <PhotometricInterpretation> can only express the order of Y, Cb and Cr, this tag is provided for cases when compressed data uses components other than Y, Cb, and Cr and to enable support of other sequences. 0 = - / 1 = Y / 2 = Cb / 3 = Cr / 4 = R / 5 = G / 6 = B");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9102, "CompressedBitsPerPixel", "The average compression ratio of JPEG.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9201, "ShutterSpeedValue", "Shutter speed. To convert this value to ordinary 'Shutter Speed'; calculate this value's power of 2, then reciprocal. For example, if value is '4', shutter speed is 1/(2^4)=1/16 second.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9202, "ApertureValue", "The actual aperture value of lens when the image was taken. To convert this value to ordinary F-number(F-stop), calculate this value's power of root 2 (=1.4142). For example, if value is '5', F-number is SQRT(2)^5 = 1.4142^5 = F5.6.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9203, "BrightnessValue", "Brightness of taken subject, unit is EV.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9204, "ExposureBiasValue", "Exposure bias value of taking picture. Unit is EV");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9205, "MaxApertureValue", "Maximum aperture value of lens. You can convert to F-number by calculating power of root 2 (same process of ApertureValue(0x9202))");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9206, "SubjectDistance", "Distance to focus point, unit is meter");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9207, "MeteringMode", "Exposure metering method. '1' means average, '2' center weighted average, '3' spot, '4' multi-spot, '5' multi-segment.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9208, "LightSource", "Light source, actually this means white balance setting. '0' means auto, '1' daylight, '2' fluorescent, '3' tungsten, '10' flash.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9209, "Flash", "0x0 = No Flash / 0x1 = Fired / 0x5 = Fired, Return not detected / 0x7 = Fired, Return detected / 0x8 = On, Did not fire / 0x9 = On, Fired / 0xd = On, Return not detected / 0xf = On, Return detected / 0x10 = Off, Did not fire / 0x14 = Off, Did not fire, Return not detected / 0x18 = Auto, Did not fire / 0x19 = Auto, Fired / 0x1d = Auto, Fired, Return not detected / 0x1f = Auto, Fired, Return detected / 0x20 = No flash function / 0x30 = Off, No flash function / 0x41 = Fired, Red-eye reduction / 0x45 = Fired, Red-eye reduction, Return not detected / 0x47 = Fired, Red-eye reduction, Return detected / 0x49 = On, Red-eye reduction / 0x4d = On, Red-eye reduction, Return not detected / 0x4f = On, Red-eye reduction, Return detected / 0x50 = Off, Red-eye reduction / 0x58 = Auto, Did not fire, Red-eye reduction / 0x59 = Auto, Fired, Red-eye reduction / 0x5d = Auto, Fired, Red-eye reduction, Return not detected / 0x5f = Auto, Fired, Red-eye reduction, Return detected");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x920a, "FocalLength", "Focal length of lens used to take image. Unit is millimeter.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x927c, "MakerNote", "Manufacturer specific information.", true);
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9286, "UserComment", "Stores user comment");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa000, "FlashPixVersion", "The FlashPix format version supported by a FPXR file. If the FPXR function supports Flashpix format Ver. 1.0, this is indicated similarly to ExifVersion by recording '0100' as 4-byte ASCII.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa001, "ColorSpace", "Normally sRGB (=1) is used to define the color space based on the PC monitor conditions and environment. If a color space other than sRGB is used, Uncalibrated (=65535) is set. Image data recorded as Uncalibrated can be treated as sRGB when it is converted to Flashpix. ");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa002, "ExifImageWidth", "Width size of main image");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa003, "ExifImageHeight", "Height size of main image");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa004, "RelatedSoundFile", "If this digicam can record audio data with image, shows name of audio data (only name, no fullpath).");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa005, "InteroperabilityIFD", "A pointer to the Exif-related Interoperability IFD. Interoperability IFD is composed of tags which stores the information to ensure the Interoperability. The Interoperability structure of Interoperability IFD is same as TIFF defined IFD structure but does not contain the image data characteristically compared with normal TIFF IFD. ", true);
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa20e, "FocalPlaneXResolution", "CCD's pixel X density");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa20f, "FocalPlaneYResolution", "CCD's pixel Y density");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa210, "FocalPlaneResolutionUnit", "Unit of FocalPlaneXResoluton/FocalPlaneYResolution. '1' means no-unit, '2' inch, '3' centimeter");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa217, "SensingMethod", "Shows type of image sensor unit. '2' means 1 chip color area sensor, most of all digicam use this type");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa300, "FileSource", "Indicates the image source. If a DSC (Digital Still Camera) recorded the image, this tag will always be set to 3, indicating that the image was recorded on a DSC.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa301, "SceneType", " Indicates the type of scene. If a DSC recorded the image, this tag value shall always be set to 1, indicating that the image was directly photographed.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xa433, "LensMake", "Records the lens manufactor as an ASCII string.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA434, "LensModel", "Records the lens's model name and model number as an ASCII string.");
 		//-- Misc Tags -------------------------------------------------------- 
-		this.addExifData(0x013b, "Artist", "Person who created the image.");
-		this.addExifData(0x8825, "GPSInfo", "A pointer to the Exif-related GPS Info IFD.", true);
-		this.addExifData(0x8830, "SensitivityType", "The SensitivityType tag indicates which one of the parameters of ISO12232 is the PhotographicSensitivity tag:  0 = Unknown / 1 = Standard Output Sensitivity / 2 = Recommended Exposure Index / 3 = ISO Speed / 4 = Standard Output Sensitivity and Recommended Exposure Index / 5 = Standard Output Sensitivity and ISO Speed / 6 = Recommended Exposure Index and ISO Speed / 7 = Standard Output Sensitivity, Recommended Exposure Index and ISO Speed");
-		this.addExifData(0x8831, "StandardOutputSensitivity", "This tag indicates the standard output sensitivity value of a camera or input device defined in ISO 12232. When recording this tag, the PhotographicSensitivity and SensitivityType tags shall also be recorded.");
-		this.addExifData(0xA401, "CustomRendered", "Indicates the use of special processing on image data, such as rendering geared to output. When special processing is performed, the reader is expected to disable or minimize any further processing. The specification defines these values: 0 = Normal process / 1 = Custom process.");
-		this.addExifData(0xA402, "ExposureMode", "Indicates the exposure mode set when the image was shot.  In auto-bracketing mode, the camera shoots a series of frames of the same scene at different exposure settings. The specification defines these values: 0 = Auto exposure / 1 = Manual exposure / 2 = Auto bracket ");
-		this.addExifData(0xA403, "WhiteBalance", "Indicates the white balance mode set when the image was shot. The specification defines these values: 0 = Auto white balance / 1 = Manual white balance");
-		this.addExifData(0xA405, "FocalLengthIn35mmFilm", "Indicates the equivalent focal length assuming a 35mm film camera, in mm. A value of 0 means the focal length is unknown. Note that this tag differs from the FocalLength tag.");
-		this.addExifData(0xA406, "SceneCaptureType", "Indicates the type of scene that was shot. It can also be used to record the mode in which the image was shot. Note that this differs from the SceneType tag.  The specification defines these values: 0 = Standard / 1 = Landscape / 2 = Portrait / 3 = Night scene.");
-		this.addExifData(0xA408, "Contrast", "Indicates the direction of contrast processing applied by the camera when the image was shot. The specification defines these values: 0 = Normal / 1 = Soft / 2 = Hard");
-		this.addExifData(0xA409, "Saturation", "Indicates the direction of saturation processing applied by the camera when the image was shot. The specification defines these values: 0 = Normal / 1 = Low saturation / 2 = High saturation");
-		this.addExifData(0xA40A, "Sharpness", "Indicates the direction of sharpness processing applied by the camera when the image was shot. The specification defines these values: 0 = Normal / 1 = Soft / 2 = Hard");
-		this.addExifData(0xA40C, "SubjectDistanceRange", " Indicates the distance to the subject. The specification defines these values: 0 = Unknown / 1 = Macro / 2 = Close view / 3 = Distant view");
-		this.addExifData(0x9290, "SubsecTime", "A tag used to record fractions of seconds for the DateTime tag.");
-		this.addExifData(0x9291, "SubsecTimeOriginal", "A tag used to record fractions of seconds for the DateTimeOriginal tag.");
-		this.addExifData(0x9292, "SubsecTimeDigitized", "A tag used to record fractions of seconds for the DateTimeDigitized tag.");
-		this.addExifData(0xA404, "DigitalZoomRatio", "Indicates the digital zoom ratio when the image was shot. If the numerator of the recorded value is 0, this indicates that digital zoom was not used. ");
-		this.addExifData(0xA407, "GainControl", "Indicates the degree of overall image gain adjustment.  The specification defines these values: 0 = None / 1 = Low gain up / 2 = High gain up / 3 = Low gain down / 4 = High gain down.");
-		this.addExifData(0xA432, "LensSpecification", "This tag notes minimum focal length, maximum focal length, minimum F number in the minimum focal length, and minimum F number in the maximum focal length, which are specification information for the lens that was used in photography. When the minimum F number is unknown, the notation is 0/0.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x013b, "Artist", "Person who created the image.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD0, 0x8825, "GPSInfo", "A pointer to the Exif-related GPS Info IFD.", true);
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x8830, "SensitivityType", "The SensitivityType tag indicates which one of the parameters of ISO12232 is the PhotographicSensitivity tag:  0 = Unknown / 1 = Standard Output Sensitivity / 2 = Recommended Exposure Index / 3 = ISO Speed / 4 = Standard Output Sensitivity and Recommended Exposure Index / 5 = Standard Output Sensitivity and ISO Speed / 6 = Recommended Exposure Index and ISO Speed / 7 = Standard Output Sensitivity, Recommended Exposure Index and ISO Speed");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x8831, "StandardOutputSensitivity", "This tag indicates the standard output sensitivity value of a camera or input device defined in ISO 12232. When recording this tag, the PhotographicSensitivity and SensitivityType tags shall also be recorded.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA401, "CustomRendered", "Indicates the use of special processing on image data, such as rendering geared to output. When special processing is performed, the reader is expected to disable or minimize any further processing. The specification defines these values: 0 = Normal process / 1 = Custom process.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA402, "ExposureMode", "Indicates the exposure mode set when the image was shot.  In auto-bracketing mode, the camera shoots a series of frames of the same scene at different exposure settings. The specification defines these values: 0 = Auto exposure / 1 = Manual exposure / 2 = Auto bracket ");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA403, "WhiteBalance", "Indicates the white balance mode set when the image was shot. The specification defines these values: 0 = Auto white balance / 1 = Manual white balance");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA405, "FocalLengthIn35mmFilm", "Indicates the equivalent focal length assuming a 35mm film camera, in mm. A value of 0 means the focal length is unknown. Note that this tag differs from the FocalLength tag.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA406, "SceneCaptureType", "Indicates the type of scene that was shot. It can also be used to record the mode in which the image was shot. Note that this differs from the SceneType tag.  The specification defines these values: 0 = Standard / 1 = Landscape / 2 = Portrait / 3 = Night scene.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA408, "Contrast", "Indicates the direction of contrast processing applied by the camera when the image was shot. The specification defines these values: 0 = Normal / 1 = Soft / 2 = Hard");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA409, "Saturation", "Indicates the direction of saturation processing applied by the camera when the image was shot. The specification defines these values: 0 = Normal / 1 = Low saturation / 2 = High saturation");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA40A, "Sharpness", "Indicates the direction of sharpness processing applied by the camera when the image was shot. The specification defines these values: 0 = Normal / 1 = Soft / 2 = Hard");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA40C, "SubjectDistanceRange", " Indicates the distance to the subject. The specification defines these values: 0 = Unknown / 1 = Macro / 2 = Close view / 3 = Distant view");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9290, "SubsecTime", "A tag used to record fractions of seconds for the DateTime tag.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9291, "SubsecTimeOriginal", "A tag used to record fractions of seconds for the DateTimeOriginal tag.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0x9292, "SubsecTimeDigitized", "A tag used to record fractions of seconds for the DateTimeDigitized tag.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA404, "DigitalZoomRatio", "Indicates the digital zoom ratio when the image was shot. If the numerator of the recorded value is 0, this indicates that digital zoom was not used. ");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA407, "GainControl", "Indicates the degree of overall image gain adjustment.  The specification defines these values: 0 = None / 1 = Low gain up / 2 = High gain up / 3 = Low gain down / 4 = High gain down.");
+		addExifData(tagsByValue, tagsByName, Directory.EXIF, 0xA432, "LensSpecification", "This tag notes minimum focal length, maximum focal length, minimum F number in the minimum focal length, and minimum F number in the maximum focal length, which are specification information for the lens that was used in photography. When the minimum F number is unknown, the notation is 0/0.");
 		//-- Tag used by GPSInfo ----------------------------------------------
-		this.addExifData(0x0000, "GPSVersionID", " Indicates the version of GPSInfoIFD. The version is given as byte sequence 2, 2, 0, 0 to indicate version 2.2. This tag is mandatory when GPS IFD tag is present. Note that the GPSVersionID tag is written differently from the ExifVersion tag.");
-		this.addExifData(0x0001, "GPSLatitudeRef", "Indicates whether the latitude is north or south latitude. The ASCII value 'N' indicates north latitude, and 'S' is south latitude.");
-		this.addExifData(0x0002, "GPSLatitude", "Indicates the latitude. The latitude is expressed as three RATIONAL values giving the degrees, minutes, and seconds, respectively. If latitude is expressed as degrees, minutes and seconds, a typical format would be dd/1,mm/1,ss/1. When degrees and minutes are used and, for example, fractions of minutes are given up to two decimal places, the format would be dd/1,mmmm/100,0/1.");
-		this.addExifData(0x0003, "GPSLongitudeRef", "Indicates whether the longitude is east or west longitude. ASCII 'E' indicates east longitude, and 'W' is west longitude.");
-		this.addExifData(0x0004, "GPSLongitude", "Indicates the longitude. The longitude is expressed as three RATIONAL values giving the degrees, minutes, and seconds, respectively. If longitude is expressed as degrees, minutes and seconds, a typical format would be ddd/1,mm/1,ss/1. When degrees and minutes are used and, for example, fractions of minutes are given up to two decimal places, the format would be ddd/1,mmmm/100,0/1.");
-		this.addExifData(0x0005, "GPSAltitudeRef", "Indicates the altitude used as the reference altitude. If the reference is sea level and the altitude is above sea level, 0 is given. If the altitude is below sea level, a value of 1 is given and the altitude is indicated as an absolute value in the GPSAltitude tag. The reference unit is meters. Note that this tag is BYTE type, unlike other reference tags. The specification defines these values: 0 = Above sea level / 1 = Below sea level");
-		this.addExifData(0x0006, "GPSAltitude", "Indicates the altitude based on the reference in GPSAltitudeRef. Altitude is expressed as one RATIONAL value. The reference unit is meters.");
-		this.addExifData(0x0007, "GPSTimeStamp", "Indicates the time as UTC (Coordinated Universal Time). TimeStamp is expressed as three RATIONAL values giving the hour, minute, and second.");
-		this.addExifData(0x0008, "GPSSatellites", "Indicates the GPS satellites used for measurements. This tag can be used to describe the number of satellites, their ID number, angle of elevation, azimuth, SNR and other information in ASCII notation. The format is not specified. If the GPS receiver is incapable of taking measurements, value of the tag shall be set to NULL.");
-		this.addExifData(0x0009, "GPSStatus", "Indicates the status of the GPS receiver when the image is recorded. The speficiation defines these values: 'A' = Measurement is in progress / 'V' = Measurement is Interoperability");
-		this.addExifData(0x000A, "GPSMeasureMode", "Indicates the GPS measurement mode. The specification defines these values: '2' = 2-dimensional measurement / '3' = 3-dimensional measurement");
-		this.addExifData(0x000C, "GPSSpeedRef", "Indicates the unit used to express the GPS receiver speed of movement. The specification defines these values: 'K' = Kilometers per hour / 'M' = Miles per hour / 'N' = Knots");
-		this.addExifData(0x000D, "GPSSpeed", "Indicates the speed of GPS receiver movement.");
-		this.addExifData(0x000E, "GPSTrackRef", "Indicates the reference for giving the direction of GPS receiver movement. The specification defines these values: 'T' = True direction / 'M' = Magnetic direction");
-		this.addExifData(0x000F, "GPSTrack", "Indicates the direction of GPS receiver movement. The range of values is from 0.00 to 359.99.");
-		this.addExifData(0x0010, "GPSImgDirectionRef", "Indicates the reference for giving the direction of the image when it is captured. The specification defines these values: 'T' = True direction / 'M' = Magnetic direction");
-		this.addExifData(0x0011, "GPSImgDirection", "Indicates the direction of the image when it was captured. The range of values is from 0.00 to 359.99.");
-		this.addExifData(0x0012, "GPSMapDatum", "Indicates the geodetic survey data used by the GPS receiver. If the survey data is restricted to Japan, the value of this tag is 'TOKYO' or 'WGS-84'. If a GPS Info tag is recorded, it is strongly recommended that this tag be recorded.");
-		this.addExifData(0x0017, "GPSDestBearingRef", "Indicates the reference used for giving the bearing to the destination point. The specification defines these values: 'T' = True direction / 'M' = Magnetic direction");
-		this.addExifData(0x0018, "GPSDestBearing", "Indicates the bearing to the destination point. The range of values is from 0.00 to 359.99.");
-		this.addExifData(0x001B, "GPSProcessingMethod", "A character string recording the name of the method used for location finding. The first byte indicates the character code used, and this is followed by the name of the method. Since the Type is not ASCII, NULL termination is not necessary.");
-		this.addExifData(0x001D, "GPSDateStamp", "A character string recording date and time information relative to UTC (Coordinated Universal Time). The format is 'YYYY:MM:DD.' The length of the string is 11 bytes including NULL.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0000, "GPSVersionID", " Indicates the version of GPSInfoIFD. The version is given as byte sequence 2, 2, 0, 0 to indicate version 2.2. This tag is mandatory when GPS IFD tag is present. Note that the GPSVersionID tag is written differently from the ExifVersion tag.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0001, "GPSLatitudeRef", "Indicates whether the latitude is north or south latitude. The ASCII value 'N' indicates north latitude, and 'S' is south latitude.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0002, "GPSLatitude", "Indicates the latitude. The latitude is expressed as three RATIONAL values giving the degrees, minutes, and seconds, respectively. If latitude is expressed as degrees, minutes and seconds, a typical format would be dd/1,mm/1,ss/1. When degrees and minutes are used and, for example, fractions of minutes are given up to two decimal places, the format would be dd/1,mmmm/100,0/1.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0003, "GPSLongitudeRef", "Indicates whether the longitude is east or west longitude. ASCII 'E' indicates east longitude, and 'W' is west longitude.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0004, "GPSLongitude", "Indicates the longitude. The longitude is expressed as three RATIONAL values giving the degrees, minutes, and seconds, respectively. If longitude is expressed as degrees, minutes and seconds, a typical format would be ddd/1,mm/1,ss/1. When degrees and minutes are used and, for example, fractions of minutes are given up to two decimal places, the format would be ddd/1,mmmm/100,0/1.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0005, "GPSAltitudeRef", "Indicates the altitude used as the reference altitude. If the reference is sea level and the altitude is above sea level, 0 is given. If the altitude is below sea level, a value of 1 is given and the altitude is indicated as an absolute value in the GPSAltitude tag. The reference unit is meters. Note that this tag is BYTE type, unlike other reference tags. The specification defines these values: 0 = Above sea level / 1 = Below sea level");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0006, "GPSAltitude", "Indicates the altitude based on the reference in GPSAltitudeRef. Altitude is expressed as one RATIONAL value. The reference unit is meters.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0007, "GPSTimeStamp", "Indicates the time as UTC (Coordinated Universal Time). TimeStamp is expressed as three RATIONAL values giving the hour, minute, and second.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0008, "GPSSatellites", "Indicates the GPS satellites used for measurements. This tag can be used to describe the number of satellites, their ID number, angle of elevation, azimuth, SNR and other information in ASCII notation. The format is not specified. If the GPS receiver is incapable of taking measurements, value of the tag shall be set to NULL.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0009, "GPSStatus", "Indicates the status of the GPS receiver when the image is recorded. The speficiation defines these values: 'A' = Measurement is in progress / 'V' = Measurement is Interoperability");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x000A, "GPSMeasureMode", "Indicates the GPS measurement mode. The specification defines these values: '2' = 2-dimensional measurement / '3' = 3-dimensional measurement");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x000C, "GPSSpeedRef", "Indicates the unit used to express the GPS receiver speed of movement. The specification defines these values: 'K' = Kilometers per hour / 'M' = Miles per hour / 'N' = Knots");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x000D, "GPSSpeed", "Indicates the speed of GPS receiver movement.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x000E, "GPSTrackRef", "Indicates the reference for giving the direction of GPS receiver movement. The specification defines these values: 'T' = True direction / 'M' = Magnetic direction");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x000F, "GPSTrack", "Indicates the direction of GPS receiver movement. The range of values is from 0.00 to 359.99.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0010, "GPSImgDirectionRef", "Indicates the reference for giving the direction of the image when it is captured. The specification defines these values: 'T' = True direction / 'M' = Magnetic direction");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0011, "GPSImgDirection", "Indicates the direction of the image when it was captured. The range of values is from 0.00 to 359.99.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0012, "GPSMapDatum", "Indicates the geodetic survey data used by the GPS receiver. If the survey data is restricted to Japan, the value of this tag is 'TOKYO' or 'WGS-84'. If a GPS Info tag is recorded, it is strongly recommended that this tag be recorded.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0017, "GPSDestBearingRef", "Indicates the reference used for giving the bearing to the destination point. The specification defines these values: 'T' = True direction / 'M' = Magnetic direction");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x0018, "GPSDestBearing", "Indicates the bearing to the destination point. The range of values is from 0.00 to 359.99.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x001B, "GPSProcessingMethod", "A character string recording the name of the method used for location finding. The first byte indicates the character code used, and this is followed by the name of the method. Since the Type is not ASCII, NULL termination is not necessary.");
+		addExifData(tagsByValue, tagsByName, Directory.GPS, 0x001D, "GPSDateStamp", "A character string recording date and time information relative to UTC (Coordinated Universal Time). The format is 'YYYY:MM:DD.' The length of the string is 11 bytes including NULL.");
 		//-- Tag used by IFD1 (thumbnail image) -------------------------------
-		this.addExifData(0x0100, "ImageWidth", "Width of thumbnail image.");
-		this.addExifData(0x0101, "ImageLength", "Height of thumbnail image.");
-		this.addExifData(0x0102, "BitsPerSample", "When image format is no compression, this value shows the number of bits per component for each pixel. Usually this value is '8,8,8'.");
-		this.addExifData(0x0103, "Compression", "Shows compression method. 1 = No compression / 2 = CCITT modified Huffman RLE / 3 = CCITT Group 3 fax encoding / 4 = CCITT Group 4 fax encoding / 5 = LZW / 6 = JPEG ('old-style' JPEG, later overriden in Technote2) / 7 = JPEG ('new-style' JPEG) / 8 = Deflate ('Adobe-style') / 9 = Defined by TIFF-F and TIFF-FX standard (RFC 2301) / 10 = Defined by TIFF-F and TIFF-FX standard (RFC 2301)");
-		this.addExifData(0x0106, "PhotometricInterpretation", "Shows the color space of the image data components. '1' means monochrome, '2' means RGB, '6' means YCbCr.");
-		this.addExifData(0x0111, "StripOffsets", "When image format is no compression, this value shows offset to image data. In some case image data is striped and this value is plural.");
-		this.addExifData(0x0115, "SamplesPerPixel", "When image format is no compression, this value shows the number of components stored for each pixel. At color image, this value is '3'.");
-		this.addExifData(0x0116, "RowsPerStrip", "When image format is no compression and image has stored as strip, this value shows how many rows stored to each strip. If image has not striped, this value is the same as ImageLength(0x0101).");
-		this.addExifData(0x0117, "StripByteConunts", "When image format is no compression and stored as strip, this value shows how many bytes used for each strip and this value is plural. If image has not stripped, this value is single and means whole data size of image.");
-		this.addExifData(0x011c, "PlanarConfiguration", "When image format is no compression YCbCr, this value shows byte aligns of YCbCr data. If value is '1', Y/Cb/Cr value is chunky format, contiguous for each subsampling pixel. If value is '2', Y/Cb/Cr value is separated and stored to Y plane/Cb plane/Cr plane format.");
-		this.addExifData(0x0201, "JpegIFOffset", "When image format is JPEG, this value show offset to JPEG data stored.");
-		this.addExifData(0x0202, "JpegIFByteCount", "When image format is JPEG, this value shows data size of JPEG image.");
-		this.addExifData(0x0212, "YCbCrSubSampling", "When image format is YCbCr and uses subsampling(cropping of chroma data, all the digicam do that), this value shows how many chroma data subsampled. First value shows horizontal, next value shows vertical subsample rate.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0100, "ImageWidth", "Width of thumbnail image.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0101, "ImageLength", "Height of thumbnail image.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0102, "BitsPerSample", "When image format is no compression, this value shows the number of bits per component for each pixel. Usually this value is '8,8,8'.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0103, "Compression", "Shows compression method. 1 = No compression / 2 = CCITT modified Huffman RLE / 3 = CCITT Group 3 fax encoding / 4 = CCITT Group 4 fax encoding / 5 = LZW / 6 = JPEG ('old-style' JPEG, later overriden in Technote2) / 7 = JPEG ('new-style' JPEG) / 8 = Deflate ('Adobe-style') / 9 = Defined by TIFF-F and TIFF-FX standard (RFC 2301) / 10 = Defined by TIFF-F and TIFF-FX standard (RFC 2301)");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0106, "PhotometricInterpretation", "Shows the color space of the image data components. '1' means monochrome, '2' means RGB, '6' means YCbCr.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0111, "StripOffsets", "When image format is no compression, this value shows offset to image data. In some case image data is striped and this value is plural.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0115, "SamplesPerPixel", "When image format is no compression, this value shows the number of components stored for each pixel. At color image, this value is '3'.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0116, "RowsPerStrip", "When image format is no compression and image has stored as strip, this value shows how many rows stored to each strip. If image has not striped, this value is the same as ImageLength(0x0101).");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0117, "StripByteConunts", "When image format is no compression and stored as strip, this value shows how many bytes used for each strip and this value is plural. If image has not stripped, this value is single and means whole data size of image.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x011c, "PlanarConfiguration", "When image format is no compression YCbCr, this value shows byte aligns of YCbCr data. If value is '1', Y/Cb/Cr value is chunky format, contiguous for each subsampling pixel. If value is '2', Y/Cb/Cr value is separated and stored to Y plane/Cb plane/Cr plane format.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0201, "JpegIFOffset", "When image format is JPEG, this value show offset to JPEG data stored.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0202, "JpegIFByteCount", "When image format is JPEG, this value shows data size of JPEG image.");
+		addExifData(tagsByValue, tagsByName, Directory.IFD1, 0x0212, "YCbCrSubSampling", "When image format is YCbCr and uses subsampling(cropping of chroma data, all the digicam do that), this value shows how many chroma data subsampled. First value shows horizontal, next value shows vertical subsample rate.");
 	}
 	
-	private void addExifData(int tagValue, String tagName, String description) {
-		this.addExifData(tagValue, tagName, description, false);
+	private static void addExifData(HashMap<Integer, Tag> tagsByValue, HashMap<String, Tag> tagsByName, Directory directory, int tagValue, String tagName, String description) {
+		addExifData(tagsByValue, tagsByName, directory, tagValue, tagName, description, false);
 	}
 	
-	private void addExifData(int tagValue, String tagName, String description, boolean isSubIDF) {
-		ExifValue exifValue = new ExifValue(tagValue, tagName, description, isSubIDF);
-		if (_debug) {
-			if ((_exifDataByTagValue.get(tagValue) != null) || (_exifDataByTagName.get(tagName) != null)) {
-				System.err.println("Exif tag 0x" + String.format("%04X", tagValue) + " / " + tagName + " is already added!");
-			}
+	private static void addExifData(HashMap<Integer, Tag> tagsByValue, HashMap<String, Tag> tagsByName, Directory directory, int tagValue, String tagName, String description, boolean isSubIDF) {
+		if ((tagsByValue.get(tagValue) != null) || (tagsByName.get(tagName) != null)) {
+			throw new IllegalStateException("Exif tag 0x" + String.format("%04X", tagValue) + " / " + tagName + " is already added!");
 		}
-		_exifDataByTagValue.put(tagValue, exifValue);
-		_exifDataByTagName.put(tagName, exifValue);
+		Tag tag = new Tag(directory, tagValue, tagName, description, isSubIDF);
+		tagsByValue.put(tagValue, tag);
+		tagsByName.put(tagName, tag);
 	}
 	
-	private ExifValue addExifData(int tagValue) {
-		ExifValue exifValue = new ExifValue(tagValue);
-		_exifDataByTagValue.put(tagValue, exifValue);
-		return exifValue;
+	//IFD where a tag is stored
+	public enum Directory {
+		IFD0,				//Main image
+		EXIF,				//Exif SubIFD (pointed by ExifOffset 0x8769)
+		GPS,				//GPS Info IFD (pointed by GPSInfo 0x8825)
+		INTEROPERABILITY,	//Interoperability IFD (pointed by InteroperabilityIFD 0xa005)
+		MAKER_NOTE,			//Manufacturer specific data (pointed by MakerNote 0x927c)
+		IFD1,				//Thumbnail image
+		SUB_IMAGE			//Other images: IFD2 and next IFDs of the chain, SubIFDs (pointed by SubIFDs 0x014a)
 	}
 	
-	public class Rational {
-		private int _numerator;
-		private int _denominator;
+	//Definition of a known exif tag (shared by all Exif instances)
+	public static class Tag {
+		private final Directory _directory;
+		private final int _tagValue;
+		private final String _tagName;
+		private final String _description;
+		private final boolean _isSubIDF;
+		
+		private Tag(Directory directory, int tagValue, String tagName, String description, boolean isSubIDF) {
+			_directory = directory;
+			_tagValue = tagValue;
+			_tagName = tagName;
+			_description = description;
+			_isSubIDF = isSubIDF;
+		}
+		
+		public Directory getDirectory() {
+			return _directory;
+		}
+		
+		public int getTagValue() {
+			return _tagValue;
+		}
+		
+		public String getTagName() {
+			return _tagName;
+		}
+		
+		public String getDescription() {
+			return _description;
+		}
 		
-		public Rational(int numerator, int denominator) {
+		public boolean isSubIDF() {
+			return _isSubIDF;
+		}
+	}
+	
+	//Values of an image IFD which is not the main image (see getSubImages)
+	public static class SubImage {
+		private final String _name;
+		private final List<ExifValue> _values;
+		private final int _nextIFDOffset;	//Next IFD of the chain (0 = none)
+		
+		private SubImage(String name, ExifValue[] values, int nextIFDOffset) {
+			_name = name;
+			_values = Collections.unmodifiableList(Arrays.asList(values));
+			_nextIFDOffset = nextIFDOffset;
+		}
+		
+		//Position of the IFD in the file: "IFD1", "IFD2"..., or "IDF0 SubIFD 0", "IDF0 SubIFD 0 SubIFD 1"...
+		public String getName() {
+			return _name;
+		}
+		
+		public List<ExifValue> getValues() {
+			return _values;
+		}
+		
+		//Return null if the tag is not in this IFD
+		public ExifValue get(int tagValue) {
+			for (ExifValue value : _values) {
+				if (value.getTagValue() == tagValue) {
+					return value;
+				}
+			}
+			return null;
+		}
+	}
+	
+	public static class Rational {
+		private final long _numerator;	//long, so unsigned 32 bits values do not overflow
+		private final long _denominator;
+		
+		public Rational(long numerator, long denominator) {
 			_numerator = numerator;
 			_denominator = denominator;
 		}
 		
+		public long getNumerator() {
+			return _numerator;
+		}
+		
+		public long getDenominator() {
+			return _denominator;
+		}
+		
 		public double getValue() {
 			if (_denominator == 0) {
 				return 0;
@@ -284,105 +774,773 @@ public class Exif {
 		}
 	}
 	
-	public class ExifValue {
-		private int _tagValue;
-		private String _tagName;
-		private String _description;
-		
-		private boolean _isSubIDF;
-		
-		private Integer  _valueI;
-		private String   _valueS;
-		private Rational _valueR;
-		
-		private List<Rational> _valueLR;
-		
-		
-		public ExifValue(int tagValue) {
-			this.init(tagValue, null, null, false);
+	//Read only List views of the primitive storage, for ExifValue.getValue()
+	private static class IntegerList extends AbstractList<Integer> implements RandomAccess {
+		private final long[] _integers;
+		
+		private IntegerList(long[] integers) {
+			_integers = integers;
+		}
+		
+		@Override
+		public Integer get(int index) {
+			return Integer.valueOf((int) _integers[index]);
+		}
+		
+		@Override
+		public int size() {
+			return _integers.length;
+		}
+	}
+	
+	private static class DoubleList extends AbstractList<Double> implements RandomAccess {
+		private final double[] _doubles;
+		
+		private DoubleList(double[] doubles) {
+			_doubles = doubles;
+		}
+		
+		@Override
+		public Double get(int index) {
+			return Double.valueOf(_doubles[index]);
+		}
+		
+		@Override
+		public int size() {
+			return _doubles.length;
+		}
+	}
+	
+	private static class RationalList extends AbstractList<Rational> implements RandomAccess {
+		private final long[] _rationals;
+		
+		private RationalList(long[] rationals) {
+			_rationals = rationals;
+		}
+		
+		@Override
+		public Rational get(int index) {
+			if ((index < 0) || (index >= size())) {
+				throw new IndexOutOfBoundsException("Index " + index + " out of " + size() + " rationals");
+			}
+			return new Rational(_rationals[2 * index], _rationals[2 * index + 1]);
+		}
+		
+		@Override
+		public int size() {
+			return _rationals.length / 2;
+		}
+	}
+	
+	//Value of a tag extracted from a file. An ExifValue is immutable, so it can be shared between threads.
+	public static class ExifValue {
+		private final int _tagValue;
+		private final Tag _tag; //null when the tag is unknown
+		
+		//Decoded value, in primitive storage: at most one of them is not null (all null when the value can not be decoded)
+		private final String _string;
+		private final long[] _integers;		//Integer values of byte, short and long formats (unsigned values are never negative)
+		private final long[] _rationals;	//Numerator, denominator pairs
+		private final double[] _doubles;	//Float and double formats
+		private final byte[] _bytes;		//Undefined format, when the tag does not tell how to decode it
+		
+		
+		private ExifValue(int tagValue, String string, long[] integers, long[] rationals, double[] doubles, byte[] bytes) {
+			_tagValue = tagValue;
+			_tag = Exif.getTag(tagValue);
+			_string = string;
+			_integers = integers;
+			_rationals = rationals;
+			_doubles = doubles;
+			_bytes = bytes;
+		}
+		
+		public boolean isSubIDF() {
+			return (_tag != null) && _tag.isSubIDF();
+		}
+		
+		//Return a String, an Integer, Rational or Double (or a List of them when there are several values), or a byte[] for undefined data.
+		//Return null when the value can not be decoded.
+		//Boxed objects are created by each call: prefer the typed getters below.
+		public Object getValue() {
+			if (_string != null) {
+				return _string;
+			} else if (_integers != null) {
+				if (_integers.length == 1) {
+					return Integer.valueOf((int) _integers[0]);
+				}
+				return new IntegerList(_integers);
+			} else if (_rationals != null) {
+				if (_rationals.length == 2) {
+					return new Rational(_rationals[0], _rationals[1]);
+				}
+				return new RationalList(_rationals);
+			} else if (_doubles != null) {
+				if (_doubles.length == 1) {
+					return Double.valueOf(_doubles[0]);
+				}
+				return new DoubleList(_doubles);
+			} else if (_bytes != null) {
+				return _bytes.clone();
+			}
+			return null;
+		}
+		
+		public boolean isString() {
+			return _string != null;
+		}
+		
+		public boolean isInteger() {
+			return _integers != null;
+		}
+		
+		public boolean isRational() {
+			return _rationals != null;
+		}
+		
+		public boolean isFloat() {
+			return _doubles != null;
+		}
+		
+		public boolean isBytes() {
+			return _bytes != null;
+		}
+		
+		//Null if the value is not undefined data; the returned array is a copy
+		public byte[] getBytes() {
+			return (_bytes == null) ? null : _bytes.clone();
+		}
+		
+		//Null if the value is not a string
+		public String getString() {
+			return _string;
+		}
+		
+		//Number of integer, rational, float values or undefined bytes (0 for a string or a value which can not be decoded)
+		public int getCount() {
+			if (_integers != null) {
+				return _integers.length;
+			} else if (_rationals != null) {
+				return _rationals.length / 2;
+			} else if (_doubles != null) {
+				return _doubles.length;
+			} else if (_bytes != null) {
+				return _bytes.length;
+			}
+			return 0;
+		}
+		
+		public int getInt() {
+			return (int) getLong(0);
+		}
+		
+		public int getInt(int index) {
+			return (int) getLong(index);
+		}
+		
+		public long getLong() {
+			return getLong(0);
+		}
+		
+		public long getLong(int index) {
+			if (_integers == null) {
+				throw new IllegalStateException(getShortTitle() + " is not an integer value");
+			}
+			return _integers[index];
+		}
+		
+		//Integer, rational or float value as a double (a rational with a zero denominator gives 0)
+		public double getDouble() {
+			return getDouble(0);
+		}
+		
+		public double getDouble(int index) {
+			if (_doubles != null) {
+				return _doubles[index];
+			} else if (_integers != null) {
+				return _integers[index];
+			} else if (_rationals != null) {
+				long denominator = _rationals[2 * index + 1];
+				return (denominator == 0) ? 0 : (double) _rationals[2 * index] / (double) denominator;
+			}
+			throw new IllegalStateException(getShortTitle() + " is not a numeric value");
+		}
+		
+		public int getRationalCount() {
+			return (_rationals == null) ? 0 : _rationals.length / 2;
+		}
+		
+		public Rational getRational(int index) {
+			return new Rational(getNumerator(index), getDenominator(index));
+		}
+		
+		//Numerator of the index-th rational, without allocation
+		public long getNumerator(int index) {
+			if (_rationals == null) {
+				throw new IllegalStateException(getShortTitle() + " is not a rational value");
+			}
+			return _rationals[2 * index];
+		}
+		
+		public long getDenominator(int index) {
+			if (_rationals == null) {
+				throw new IllegalStateException(getShortTitle() + " is not a rational value");
+			}
+			return _rationals[2 * index + 1];
+		}
+		
+		public int getTagValue() {
+			return _tagValue;
+		}
+		
+		public Tag getTag() {
+			return _tag;
+		}
+		
+		public String getTagName() {
+			return (_tag == null) ? null : _tag.getTagName();
+		}
+		
+		public String getShortTitle() {
+			int b1 = (_tagValue >> 8) & 0x000000FF;
+			int b0 = _tagValue & 0x000000FF;
+			if (_tag == null) {
+				return "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " Unknown";
+			} else {
+				return  "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " " + _tag.getTagName();
+			}
+		}
+		
+		public String getFullTitle() {
+			int b1 = (_tagValue >> 8) & 0x000000FF;
+			int b0 = _tagValue & 0x000000FF;
+			if (_tag == null) {
+				return "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " Unknown";
+			} else {
+				return  "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " " + _tag.getTagName() + " (" + _tag.getDescription() + ")";
+			}
+		}
+
+		public ExifValue getEmptyCopy() {
+			return new ExifValue(_tagValue, null, null, null, null, null);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	//-- Parse events
+	//-------------------------------------------------------------------------
+	
+	/*
+	 * Structured parse events, to trace or diagnose a file without any output from the library itself.
+	 * Positions are in bytes from the start of the file, IFD offsets are relative to the TIFF header.
+	 */
+	public interface ParseListener {
+		//marker is 0xFFD8 (SOI), 0xFFD9 (EOI), 0xFFEn (APPn) or another 0xFFxx segment which stops the parse.
+		//length is the segment length (without marker), 0 for SOI and EOI, -1 when not read.
+		//For ISO media files (HEIF...), marker is the box type (4 characters as a big endian int) and length the box length (-1 if more than 2GB).
+		//For PNG and WebP files, marker is the chunk type (4 characters as a big endian int) and length the chunk data length.
+		void segmentFound(int marker, long position, int length);
+		
+		void ifdEntered(String name, long offset, int nbEntries);
+		
+		void entryDecoded(ExifValue value, int format, int count);
+		
+		//The entry is kept, but its format or count is not supported: its value is null
+		void valueUndecodable(ExifValue value, int format, int count);
+		
+		//Something is skipped, but the parse goes on
+		void warning(String message);
+	}
+	
+	//Empty implementation, to only override the wanted events
+	public static class ParseAdapter implements ParseListener {
+		public void segmentFound(int marker, long position, int length) {
+		}
+		
+		public void ifdEntered(String name, long offset, int nbEntries) {
+		}
+		
+		public void entryDecoded(ExifValue value, int format, int count) {
+		}
+		
+		public void valueUndecodable(ExifValue value, int format, int count) {
+		}
+		
+		public void warning(String message) {
+		}
+	}
+	
+	//Human readable trace of the parse, for debugging
+	public static class PrintParseListener implements ParseListener {
+		private final PrintStream _out;
+		
+		public PrintParseListener(PrintStream out) {
+			_out = out;
+		}
+		
+		public void segmentFound(int marker, long position, int length) {
+			_out.println("SEGMENT 0x" + String.format("%04X", marker) + " at " + position + (length >= 0 ? " length " + length : ""));
+		}
+		
+		public void ifdEntered(String name, long offset, int nbEntries) {
+			_out.println(name + " at " + offset + " : " + nbEntries + " entries");
+		}
+		
+		public void entryDecoded(ExifValue value, int format, int count) {
+			_out.println("      " + value.getShortTitle() + " [" + FORMAT_NAME[format] + " x " + count + "] = " + value.getValue());
+		}
+		
+		public void valueUndecodable(ExifValue value, int format, int count) {
+			_out.println("ERROR " + value.getShortTitle() + " [" + FORMAT_NAME[format] + " x " + count + "] can not be decoded");
+		}
+		
+		public void warning(String message) {
+			_out.println("WARNING " + message);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	//-- Readers
+	//-------------------------------------------------------------------------
+	
+	/*
+	 * Random access to the bytes to parse.
+	 * The parser only asks for segment headers and whole segments, so a read never depends on a previous one:
+	 * implementations must not keep a current position, so a single Source can be used by several threads at the same time.
+	 */
+	public interface Source {
+		public long size() throws IOException;
+		
+		//Return a buffer containing the bytes [position, position+length[ between its position and its limit (less bytes if end of data is reached)
+		public ByteBuffer read(long position, int length) throws IOException;
+	}
+	
+	//Positional reads on a FileChannel: FileChannel.read(ByteBuffer, position) does not change the channel position, and is thread safe
+	public static class ChannelSource implements Source {
+		private final FileChannel _channel;
+		
+		public ChannelSource(FileChannel channel) {
+			_channel = channel;
+		}
+		
+		@Override
+		public long size() throws IOException {
+			return _channel.size();
+		}
+		
+		@Override
+		public ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining()) {
+				int bread = _channel.read(buffer, position + buffer.position());
+				if (bread == -1) {
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+	
+	//Memory mapped file: reads are slices of the mapping, the OS only loads the pages really used (useful for large TIFF based files)
+	public static class MappedSource implements Source {
+		private final FileChannel _channel;
+		private final MappedByteBuffer _buffer; //A mapping is limited to 2GB, bytes after are read through the channel
+		
+		public MappedSource(FileChannel channel) throws IOException {
+			_channel = channel;
+			_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+		}
+		
+		@Override
+		public long size() throws IOException {
+			return _channel.size();
+		}
+		
+		@Override
+		public ByteBuffer read(long position, int length) throws IOException {
+			if ((position >= _buffer.capacity()) || ((position + length > _buffer.capacity()) && (_buffer.capacity() == Integer.MAX_VALUE))) {
+				return new ChannelSource(_channel).read(position, length);
+			}
+			ByteBuffer buffer = _buffer.duplicate();
+			buffer.limit((int) Math.min(position + length, _buffer.capacity()));
+			buffer.position((int) position);
+			return buffer.slice();
+		}
+	}
+	
+	//In memory data: reads are slices of the buffer, nothing is copied
+	public static class BufferSource implements Source {
+		private final ByteBuffer _buffer;
+		
+		public BufferSource(ByteBuffer buffer) {
+			_buffer = buffer.slice().asReadOnlyBuffer();
+		}
+		
+		@Override
+		public long size() {
+			return _buffer.capacity();
+		}
+		
+		@Override
+		public ByteBuffer read(long position, int length) {
+			ByteBuffer buffer = _buffer.duplicate();
+			if (position >= _buffer.capacity()) {
+				buffer.position(_buffer.capacity());
+			} else {
+				buffer.limit((int) Math.min(position + length, _buffer.capacity()));
+				buffer.position((int) position);
+			}
+			return buffer.slice();
+		}
+	}
+	
+	//Any seekable channel (zip file system, custom storage...): the channel has a single position, so reads are serialized
+	public static class SeekableChannelSource implements Source {
+		private final SeekableByteChannel _channel;
+		
+		public SeekableChannelSource(SeekableByteChannel channel) {
+			_channel = channel;
+		}
+		
+		@Override
+		public long size() throws IOException {
+			return _channel.size();
+		}
+		
+		@Override
+		public ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			synchronized (_channel) {
+				long initialPosition = _channel.position();
+				try {
+					_channel.position(position);
+					while (buffer.hasRemaining()) {
+						if (_channel.read(buffer) == -1) {
+							break;
+						}
+					}
+				} finally {
+					_channel.position(initialPosition);
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+	
+	//Forward only stream: the parser reads segments in increasing positions, so only the previous read is kept,
+	//in case the next one starts inside it (e.g. a segment header read 4 bytes, but only 2 were used).
+	private static class StreamSource implements Source {
+		private final InputStream _in;
+		private long _position;		//Position of the next byte of the stream
+		private byte[] _last = new byte[0];
+		private long _lastPosition;
+		
+		private StreamSource(InputStream in) {
+			_in = in;
+		}
+		
+		@Override
+		public long size() {
+			return Long.MAX_VALUE; //unknown, reads stop at end of stream
+		}
+		
+		@Override
+		public ByteBuffer read(long position, int length) throws IOException {
+			if (position < _lastPosition) {
+				throw new IOException("Can not read back to position " + position + " in a forward only stream (already at " + _lastPosition + ")");
+			}
+			byte[] data = new byte[length];
+			int nbRead = 0;
+			long lastEnd = _lastPosition + _last.length;
+			if (position < lastEnd) {
+				nbRead = (int) Math.min(length, lastEnd - position);
+				System.arraycopy(_last, (int) (position - _lastPosition), data, 0, nbRead);
+			} else {
+				skip(position - _position);
+			}
+			while (nbRead < length) {
+				int bread = _in.read(data, nbRead, length - nbRead);
+				if (bread == -1) {
+					break;
+				}
+				nbRead += bread;
+				_position += bread;
+			}
+			_last = (nbRead == length) ? data : Arrays.copyOf(data, nbRead);
+			_lastPosition = position;
+			return ByteBuffer.wrap(_last);
+		}
+		
+		private void skip(long length) throws IOException {
+			while (length > 0) {
+				long skipped = _in.skip(length);
+				if (skipped <= 0) {
+					//skip() may not be able to tell the end of stream
+					if (_in.read() == -1) {
+						return;
+					}
+					skipped = 1;
+				}
+				length -= skipped;
+				_position += skipped;
+			}
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	//-- Records
+	//-------------------------------------------------------------------------
+	
+	//Compact binary form of the extracted entries, with their raw TIFF data, so an Exif can be rebuilt without parsing the file (see ExifCache).
+	//Sub images are not written, and only the location of the thumbnail.
+	//  byte order ('I' or 'M'), thumbnail offset (long), thumbnail length (int), number of entries (int)
+	//  for each entry: IFD (byte, Directory ordinal), tag (short), format (short), count (int), data length (int, at least 4), data
+	void writeRecord(DataOutput out) throws IOException {
+		out.writeByte(((_tiff != null) && (_tiff.order() == ByteOrder.LITTLE_ENDIAN)) ? 'I' : 'M');
+		out.writeLong(getThumbnailOffset());
+		out.writeInt(getThumbnailLength());
+		out.writeInt(_entries.size());
+		for (int i = 0; i < _entries.size(); ++i) {
+			int format = _entries._formats[i];
+			int count = _entries._counts[i];
+			int length = (int) Math.max(4, (count & 0xFFFFFFFFL) * FORMAT_LENGTH[format]);
+			out.writeByte(_entries._directories[i].ordinal());
+			out.writeShort(_entries._tags[i]);
+			out.writeShort(format);
+			out.writeInt(count);
+			out.writeInt(length);
+			ByteBuffer data = getEntryData(i, length);
+			if (data.hasArray()) {
+				out.write(data.array(), data.arrayOffset() + data.position(), length);
+			} else {
+				for (int j = 0; j < length; ++j) {
+					out.writeByte(data.get(j));
+				}
+			}
+		}
+	}
+	
+	private static final Directory[] DIRECTORIES = Directory.values();
+	
+	//Raw access to the extracted entries, without ExifValue objects (see ExifExport, ExifPatcher, ExifRewriter, ExifColumns)
+	int findEntry(int tagValue) {
+		return _entries.find(tagValue);
+	}
+	
+	Directory getEntryDirectory(int index) {
+		return _entries._directories[index];
+	}
+	
+	int getEntryTag(int index) {
+		return _entries._tags[index];
+	}
+	
+	int getEntryFormat(int index) {
+		return _entries._formats[index];
+	}
+	
+	int getEntryCount(int index) {
+		return _entries._counts[index];
+	}
+	
+	//Length in bytes of the entry value
+	long getEntryLength(int index) {
+		return (_entries._counts[index] & 0xFFFFFFFFL) * FORMAT_LENGTH[_entries._formats[index]];
+	}
+	
+	//View of the raw TIFF data of the entry value (at least 4 bytes, in the byte order of the TIFF data)
+	ByteBuffer getEntryData(int index) {
+		return getEntryData(index, (int) Math.max(4, getEntryLength(index)));
+	}
+	
+	//First value of the entry as a number, read from the TIFF data without decoding the entry (NaN if it is empty or not numeric).
+	//As ExifValue.getDouble, a rational with a zero denominator gives 0.
+	double getEntryNumber(int index) {
+		int format = _entries._formats[index];
+		int position = _entries._positions[index];
+		if (_entries._counts[index] == 0) {
+			return Double.NaN;
+		}
+		if (format == 1) { //unsigned byte
+			return _tiff.get(position) & 0xFF;
+		} else if (format == 3) { //unsigned short
+			return _tiff.getShort(position) & 0xFFFF;
+		} else if ((format == 4) || (format == 13)) { //unsigned long, offset to subdirectory
+			return _tiff.getInt(position) & 0xFFFFFFFFL;
+		} else if (format == 5) { //unsigned rational
+			long denominator = _tiff.getInt(position + 4) & 0xFFFFFFFFL;
+			return (denominator == 0) ? 0 : (double) (_tiff.getInt(position) & 0xFFFFFFFFL) / (double) denominator;
+		} else if (format == 6) { //signed byte
+			return _tiff.get(position);
+		} else if (format == 8) { //signed short
+			return _tiff.getShort(position);
+		} else if (format == 9) { //signed long
+			return _tiff.getInt(position);
+		} else if (format == 10) { //signed rational
+			int denominator = _tiff.getInt(position + 4);
+			return (denominator == 0) ? 0 : (double) _tiff.getInt(position) / (double) denominator;
+		} else if (format == 11) { //float
+			return _tiff.getFloat(position);
+		} else if (format == 12) { //double
+			return _tiff.getDouble(position);
+		}
+		return Double.NaN;
+	}
+	
+	//Ascii value of the entry without its ending zeros and spaces, null if it is not ascii
+	String getEntryString(int index) {
+		if (_entries._formats[index] != 2) {
+			return null;
+		}
+		int position = _entries._positions[index];
+		int length = _entries._counts[index];
+		while ((length > 0) && ((_tiff.get(position + length - 1) & 0xFF) <= ' ')) {
+			length--;
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; ++i) {
+			chars[i] = (char) (_tiff.get(position + i) & 0xFF);
+		}
+		return new String(chars);
+	}
+	
+	//Position of the raw data of the entry value in the parsed source, or -1 for an Exif read from a record
+	long getEntrySourcePosition(int index) {
+		if ((_tiffPosition < 0) && (_tiffBlockStarts == null)) {
+			return -1;
+		}
+		return toSourcePosition(_entries._positions[index]);
+	}
+	
+	//JPEG APP1 segment of the EXIF data: position of its marker (-1 if not a JPEG file, or no EXIF data), and length of the whole segment
+	long getExifSegmentPosition() {
+		return _exifSegmentPosition;
+	}
+	
+	int getExifSegmentLength() {
+		return _exifSegmentLength;
+	}
+	
+	//PNG eXIf chunk, whose CRC must be updated when a value is changed in the file: position of its type (-1 if there is no such chunk), and length of its data
+	long getCRCChunkPosition() {
+		return _crcChunkPosition;
+	}
+	
+	int getCRCChunkLength() {
+		return _crcChunkLength;
+	}
+	
+	//Bytes kept in memory to decode the values: the whole buffer holding the TIFF data (the data given to the constructor when parsing from memory)
+	long getRetainedLength() {
+		if (_tiff == null) {
+			return 0;
 		}
-		
-		public ExifValue(int tagValue, String tagName, String description, boolean isSubIDF) {
-			this.init(tagValue, tagName, description, isSubIDF);
+		return _tiff.hasArray() ? _tiff.array().length : _tiff.capacity();
+	}
+	
+	private ByteBuffer getEntryData(int index, int length) {
+		return view(_tiff, _entries._positions[index], length);
+	}
+	
+	//Rebuild an Exif from a record (between the buffer position and its limit), without copy: values are decoded from the record when asked
+	static Exif readRecord(ByteBuffer record, Options options) throws IOException {
+		ByteBuffer header = record.slice(); //record headers are big endian
+		if (header.remaining() < 17) {
+			throw new IOException("Corrupted record: " + header.remaining() + " bytes");
 		}
-		
-		private void init(int tagValue, String tagName, String description, boolean isSubIDF) {
-			if (_debug) {	
-				_tagValue = tagValue;
-				_tagName = tagName;
-				_description = description;
-				_isSubIDF = isSubIDF;
-			} else {
-				_tagValue = tagValue;
-				_tagName = null;				
-				_description = null;
-				_isSubIDF = isSubIDF;
+		Exif exif = new Exif(options);
+		exif._recordThumbnailOffset = header.getLong(1);
+		exif._thumbnailLength = header.getInt(9);
+		int nbEntries = header.getInt(13);
+		
+		int position = 17;
+		for (int i = 0; i < nbEntries; ++i) {
+			if (position + 13 > header.limit()) {
+				throw new IOException("Corrupted record: entry " + i + " is out of the record");
 			}
+			int directory = header.get(position) & 0xFF;
+			int tag = header.getShort(position + 1) & 0xFFFF;
+			int format = header.getShort(position + 3) & 0xFFFF;
+			int count = header.getInt(position + 5);
+			int length = header.getInt(position + 9);
+			if ((directory >= DIRECTORIES.length) || (format < 1) || (format > 13) || (length != Math.max(4, (count & 0xFFFFFFFFL) * FORMAT_LENGTH[format])) || (position + 13 + (long) length > header.limit())) {
+				throw new IOException("Corrupted record: entry " + i + " of tag 0x" + String.format("%04X", tag) + " is not valid");
+			}
+			exif._entries.add(DIRECTORIES[directory], tag, format, count, position + 13);
+			position += 13 + length;
 		}
-		
-		public boolean isSubIDF() {
-			return _isSubIDF;
-		}
-		
-		public void setValue(String value) {
-			_valueS = value;
+		exif._tiff = record.slice().order((header.get(0) == 'I') ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		exif._entries.seal();
+		return exif;
+	}
+	
+	//Counters of one parse, checked against the limits of the options
+	private static class Budget {
+		private final Options _options;
+		private final long _start = System.nanoTime();
+		private long _bytesRead;
+		private long _entries;
+		
+		private Budget(Options options) {
+			_options = options;
 		}
 		
-		public void setValue(Integer value) {
-			_valueI = value;
+		private void read(long length) throws IOException {
+			_bytesRead += length;
+			if (_bytesRead > _options.getMaxBytesRead()) {
+				throw new BudgetExceededException("More than " + _options.getMaxBytesRead() + " bytes read");
+			}
 		}
 		
-		public void setValue(Rational value) {
-			_valueR = value;
+		private void allocate(long length, String what) throws IOException {
+			if (length > _options.getMaxAllocation()) {
+				throw new BudgetExceededException(what + " needs " + length + " bytes, more than the " + _options.getMaxAllocation() + " bytes allowed");
+			}
 		}
 		
-		public void appendValue(Rational value) {
-			if (_valueLR == null) {
-				_valueLR = new LinkedList<Rational>();
+		private void enterIFD(String name, int depth, int nbEntries) throws IOException {
+			if (depth > _options.getMaxDepth()) {
+				throw new BudgetExceededException(name + " is at depth " + depth + ", more than the " + _options.getMaxDepth() + " allowed");
+			}
+			_entries += nbEntries;
+			if (_entries > _options.getMaxEntries()) {
+				throw new BudgetExceededException("More than " + _options.getMaxEntries() + " IFD entries");
 			}
-			_valueLR.add(value);
+			checkTimeout();
 		}
 		
-		public Object getValue() {
-			if (_valueS != null) {
-				return _valueS;
-			} else if (_valueI != null) {
-				return _valueI;
-			} else if (_valueR != null) {
-				return _valueR;
-			} else if (_valueLR != null) {
-				return _valueLR;
-			} else {
-				return null;
+		private void checkTimeout() throws IOException {
+			long timeout = _options.getTimeoutMillis();
+			if ((timeout > 0) && (System.nanoTime() - _start > timeout * 1000000L)) {
+				throw new BudgetExceededException("Parse timeout of " + timeout + " ms exceeded");
 			}
 		}
-		
-		public String getTagName() {
-			return _tagName;
+	}
+	
+	//Count and limit all the reads of a parse
+	private static class BudgetSource implements Source {
+		private final Source _source;
+		private final Budget _budget;
+		
+		private BudgetSource(Source source, Budget budget) {
+			_source = source;
+			_budget = budget;
 		}
 		
-		public String getShortTitle() {
-			int b1 = (_tagValue >> 8) & 0x000000FF;
-			int b0 = _tagValue & 0x000000FF;
-			if (_tagName == null) {
-				return "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " Unknown";
-			} else {
-				return  "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " " + _tagName;
-			}
+		@Override
+		public long size() throws IOException {
+			return _source.size();
 		}
 		
-		public String getFullTitle() {
-			int b1 = (_tagValue >> 8) & 0x000000FF;
-			int b0 = _tagValue & 0x000000FF;
-			if (_tagName == null) {
-				return "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " Unknown";
-			} else {
-				return  "0x" + String.format("%02X", b1) + String.format("%02X", b0) + " " + _tagName + " (" + _description + ")";
-			}
-		}
-
-		public ExifValue getEmptyCopy() {
-			return new ExifValue(_tagValue, _tagName, _description, _isSubIDF);
+		@Override
+		public ByteBuffer read(long position, int length) throws IOException {
+			_budget.allocate(length, "Read at " + position);
+			_budget.checkTimeout();
+			ByteBuffer data = _source.read(position, length);
+			_budget.read(data.remaining());
+			return data;
 		}
 	}
 	
@@ -390,24 +1548,6 @@ public class Exif {
 	//-- Parser
 	//-------------------------------------------------------------------------
 
-	private void debug(String message, boolean isError) {
-		if (_debug) {
-			if (isError) {
-				if (message.startsWith("      ")) {
-					System.out.println(message.replace("      ", "ERROR "));
-				} else {
-					System.err.println(message);
-				}
-			} else {
-				System.out.println(message);
-			}
-		}
-	}
-	
-	private void debug(String message) {
-		debug(message, false);
-	}
-	
 	//Start Of Image
 	private boolean isSOI(int b0, int b1) {
 		return ((b0 == 0xFF) && (b1 == 0xD8));
@@ -536,141 +1676,236 @@ public class Exif {
 	 * SOI  APP1 Length   EXIF data         N JPEG sections           EOI
 	 *      [----> section EXIF <----]
 	 *      
-	 * Bellow is a LL(1) parser --> Fastest read
+	 * Bellow is a LL(1) parser on segment markers: only segment headers and the APP1 segment are read, other segments are jumped over
 	 */
-
-	private int skipBytes(FileInputStream in, long length)  throws IOException {
-		if (length <= 0) {
-			throw new IOException("Try to skip " + length + " bytes. Must be strictly positive.");
-		} else if (length == 1) {
-			return in.read();
-		} else if (length == 2) {
-			in.read();
-			return in.read();
-		} else { //length > 2
-			//System.out.println("SKIP " + length + " BYTE" + (length > 1 ? "S" : ""));
-			long currentPos = in.getChannel().position();
-			in.getChannel().position(currentPos + length - 2); //remove 2 byte more, because we want to read it manually to have it in buff _b0 and _b1 for LL(1) parsing
-			in.read();
-			return in.read();
-		}
-	}
-	
-	private void parse(File file, boolean extractThumbnail) throws IOException {
+	
+	private static final int SCAN_CHUNK_LENGTH = 8192;
+	
+	private void parse(File file) throws IOException {
 		if ((file == null) || (file.exists() == false) || (file.canRead() == false)) {
 			return ;
 		}
 		
-		debug("EXIF Parse file '" + file.getAbsolutePath() + "'");
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			parse(new ChannelSource(channel));
+		} finally {
+			channel.close();
+		}		
+	}
+	
+	private void parse(Path path) throws IOException {
+		if ((path == null) || (Files.isReadable(path) == false)) {
+			return ;
+		}
 		
-		FileInputStream in = new FileInputStream(file);
+		SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ);
 		try {
-			int b0 = -1;
-			int b1 = -1;
-			do {
+			parse(channel instanceof FileChannel ? new ChannelSource((FileChannel) channel) : new SeekableChannelSource(channel));
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private void parse(Source source) throws IOException {
+		parse(source, SCAN_CHUNK_LENGTH);
+	}
+	
+	private void parse(Source source, int scanChunkLength) throws IOException {
+		boolean isForwardOnly = source instanceof StreamSource;
+		_budget = new Budget(_options);
+		source = new BudgetSource(source, _budget);
+		
+		//Recognize the container from its first bytes, so files which can not contain a JPEG EXIF segment are not read
+		ByteBuffer head = source.read(0, 12);
+		Container container = sniff(head);
+		if (container == Container.JPEG) {
+			if (_listener != null) {
+				_listener.segmentFound(0xFFD8, 0, 0);
+			}
+			parse_SOI(source, 2);
+			return ;
+		} else if (container == Container.TIFF) {
+			if (isForwardOnly) {
+				throw new IOException("TIFF files can not be parsed from a forward only stream: their IFDs and values are in any order");
+			}
+			parse_TIFFContainer(source);
+			return ;
+		} else if (container == Container.HEIF) {
+			parse_ISOMedia(source);
+			return ;
+		} else if (container == Container.PNG) {
+			parse_PNG(source);
+			return ;
+		} else if (container == Container.RIFF) {
+			parse_RIFF(source, head);
+			return ;
+		} else if (container != Container.UNKNOWN) {
+			throw new FormatException(container + " files are not supported");
+		}
+		
+		//Unknown start: the SOI may follow some other data, search it in the first bytes only
+		long limit = Math.min(source.size(), _options.getMaxScanLength());
+		long position = 0;
+		int b0 = -1;
+		int b1 = -1;
+		while (position < limit) {
+			ByteBuffer chunk = source.read(position, (int) Math.min(scanChunkLength, limit - position));
+			if (chunk.remaining() == 0) {
+				break;
+			}
+			for (int i = chunk.position(); i < chunk.limit(); ++i) {
 				b0 = b1;
-				b1 = in.read(); 
-				if (b1 != -1) {
-					if (isSOI(b0, b1)) {
-						debug("TAG : SOI");
-						parse_SOI(in, extractThumbnail);
+				b1 = chunk.get(i) & 0xFF;
+				if (isSOI(b0, b1)) {
+					if (_listener != null) {
+						_listener.segmentFound(0xFFD8, position + i - chunk.position() - 1, 0);
 					}
+					parse_SOI(source, position + i - chunk.position() + 1);
+					return ;
 				}
-			} while (b1 != -1);
-
-		} finally {
-			in.close();
-		}		
+			}
+			position += chunk.remaining();
+		}
+		throw new FormatException("Unknown file format: no JPEG start of image in the first " + position + " bytes");
+	}
+	
+	private enum Container {
+		JPEG, TIFF, PNG, HEIF, RIFF, UNKNOWN
+	}
+	
+	//Magic numbers of the supported (or at least recognized) containers
+	private static Container sniff(ByteBuffer head) {
+		int length = head.remaining();
+		int[] b = new int[12];
+		for (int i = 0; i < length; ++i) {
+			b[i] = head.get(head.position() + i) & 0xFF;
+		}
+		if ((length >= 3) && (b[0] == 0xFF) && (b[1] == 0xD8) && (b[2] == 0xFF)) {
+			return Container.JPEG;
+		} else if ((length >= 4) && (b[0] == 0x49) && (b[1] == 0x49) && (b[2] == 0x2A) && (b[3] == 0x00)) { //II*.
+			return Container.TIFF;
+		} else if ((length >= 4) && (b[0] == 0x4D) && (b[1] == 0x4D) && (b[2] == 0x00) && (b[3] == 0x2A)) { //MM.*
+			return Container.TIFF;
+		} else if ((length >= 8) && (b[0] == 0x89) && (b[1] == 'P') && (b[2] == 'N') && (b[3] == 'G') && (b[4] == 0x0D) && (b[5] == 0x0A) && (b[6] == 0x1A) && (b[7] == 0x0A)) {
+			return Container.PNG;
+		} else if ((length >= 8) && (b[4] == 'f') && (b[5] == 't') && (b[6] == 'y') && (b[7] == 'p')) { //ISO base media file (HEIF, AVIF, but also MP4, MOV...)
+			return Container.HEIF;
+		} else if ((length >= 12) && (b[0] == 'R') && (b[1] == 'I') && (b[2] == 'F') && (b[3] == 'F')) { //WebP, but also AVI, WAV...
+			return Container.RIFF;
+		}
+		return Container.UNKNOWN;
 	}
 
-	private void parse_SOI(FileInputStream in, boolean extractThumbnail) throws IOException {
-		//can read directly 1 byte more
-		int b0;
-		int b1 = in.read();
-		do {
-			b0 = b1;
-			b1 = in.read();
-			if (b1 != -1) {
-				if (isEOI(b0, b1)) {
-					debug("TAG : EOI (" + in.getChannel().position() + " / " + in.getChannel().size() + ")");
-					return ;
-				} else if (isAPP(b0, b1)) {
-					int appType = b1 & 0x001F;
-					debug("TAG : APP" + appType);
-					parse_APP(in, appType, extractThumbnail);
-				} else if (isOtherSegmentType(b0, b1)) {
-					debug("TAG : other");
-					in.getChannel().position(in.getChannel().size()); //when read another segment... just stop reading the file
+	//Read the segments which follow the SOI, until the EXIF segment is parsed, or a segment which can not be before it is found
+	private void parse_SOI(Source source, long position) throws IOException {
+		long size = source.size();
+		long strayBytes = 0; //bytes between segments which are not a marker
+		while (position + 2 <= size) {
+			ByteBuffer header = source.read(position, 4);
+			if (header.remaining() < 2) {
+				return ;
+			}
+			int b0 = header.get(header.position()) & 0xFF;
+			int b1 = header.get(header.position() + 1) & 0xFF;
+			if (isEOI(b0, b1)) {
+				if (_listener != null) {
+					_listener.segmentFound(0xFFD9, position, 0);
+				}
+				return ;
+			} else if (isAPP(b0, b1)) {
+				int appType = b1 & 0x001F;
+				if (header.remaining() < 4) {
+					throw new FormatException("Unexpected end of file while reading APP" + appType + " length");
+				}
+				int appLength = header.getShort(header.position() + 2) & 0xFFFF; //contains the length of EXIF data part + 2 bytes (2 bytes = the length of the app1Lenght itself)
+				if (_listener != null) {
+					_listener.segmentFound(0xFF00 | b1, position, appLength);
+				}
+				if (parse_APP(source, position + 4, appType, appLength)) {
+					_exifSegmentPosition = position;
+					_exifSegmentLength = 2 + appLength;
+					return ; //We have done reading EXIF, no need to read the rest of the file
+				}
+				position += 2 + appLength;
+			} else if (isOtherSegmentType(b0, b1)) {
+				if (_listener != null) {
+					_listener.segmentFound(0xFF00 | b1, position, -1);
+				}
+				return ; //when read another segment... just stop reading the file
+			} else {
+				if (++strayBytes > _options.getMaxScanLength()) {
+					throw new FormatException("More than " + _options.getMaxScanLength() + " bytes which are not JPEG markers between segments");
 				}
+				position += 1;
 			}
-		} while (b1 != -1);
+		}
 	}
 	
-	private void parse_APP(FileInputStream in, int appType, boolean extractThumbnail) throws IOException {
-		//Read APP section length
-		int b0 = in.read();
-		int b1 = in.read();
-		
-		int appLength = (((b0 << 8) & 0xFF00) | (b1 & 0x00FF)); //contains the length of EXIF data part + 2 bytes (2 bytes = the length of the app1Lenght itself)
-		
+	//Return true if the APP segment contains the EXIF data (and so has been parsed)
+	private boolean parse_APP(Source source, long position, int appType, int appLength) throws IOException {
 		if (appLength < 2) {
-			throw new IOException("APPn length must be greater or equal to 2 bytes"); //2 bytes = the length of the APPnLength itself
+			throw new FormatException("APPn length must be greater or equal to 2 bytes"); //2 bytes = the length of the APPnLength itself
 		}
 		
-		debug("      APP" + appType + " Length : " + appLength);
-		
 		if (appType == 1) {
-			parse_APP1(in, appLength, extractThumbnail);
-		} else {
-			skipBytes(in, appLength-2); //appLength-2 because appLenght contain itself size (which is 2) already read
-			return ;
-		}
-	}
-	
-	private int decode(int b0, int b1, boolean isLittleEndian) {
-		if (isLittleEndian) {
-			return ((b1 << 8) & 0xFF00) | (b0 & 0x00FF);
+			if (appLength < 16) { //6 bytes for EXIF00 header + 8 bytes for TIFF header + 2 bytes (app1Lenght itself)
+				//It's not an EXIF APP1 part, skip it!
+				if (_listener != null) {
+					_listener.warning("APP1 length " + appLength + " is not enough for 'Exif00' header, skip APP1 segment");
+				}
+				return false;
+			}
+			//Read the whole APP1 segment at once (at most 64KB), then everything is decoded from memory
+			ByteBuffer app1 = source.read(position, appLength-2); //app1Length-2 because app1Lenght contain itself size (which is 2) already read
+			if (app1.remaining() != appLength-2) {
+				throw new FormatException("Unexpected end of file: only " + app1.remaining() + " bytes read instead of " + (appLength-2));
+			}
+			return parse_APP1(app1.slice(), position + 6); //TIFF data starts after the 'Exif00' header
 		} else {
-			return ((b0 << 8) & 0xFF00) | (b1 & 0x00FF);
+			return false;
 		}
 	}
 	
-	private int decode(int b0, int b1, int b2, int b3, boolean isLittleEndian) {
-		if (isLittleEndian) {
-			return ((b3 << 24) & 0xFF000000) | ((b2 << 16) & 0x00FF0000) | ((b1 << 8) & 0x0000FF00) | (b0 & 0x000000FF);
-		} else {
-			return ((b0 << 24) & 0xFF000000) | ((b1 << 16) & 0x00FF0000) | ((b2 << 8) & 0x0000FF00) | (b3 & 0x000000FF);
+	//Check that [index, index+length[ is inside the TIFF data, to reject corrupted offsets before reading
+	private void checkBounds(ByteBuffer tiff, long index, long length, String what) throws IOException {
+		if ((index < 0) || (length < 0) || (index + length > tiff.limit())) {
+			throw new FormatException(what + " [" + index + ", " + (index + length) + "[ is out of TIFF data bounds [0, " + tiff.limit() + "[");
 		}
 	}
 	
-	private void parse_APP1(FileInputStream in, int appLength, boolean extractThumbnail) throws IOException {
-		if (appLength < 16) { //6 bytes for EXIF00 header + 8 bytes for TIFF header + 2 bytes (app1Lenght itself)
-			//It's not an EXIF APP1 part, skip it!
-			debug("      APP1 is length is not enough for 'Exif00' tag, skip APP1 block");
-			skipBytes(in, appLength-2); //app1Length-2 because app1Lenght contain itself size (which is 2) already read
-			return ;
-		}
+	//Return true if the APP1 segment contains EXIF data
+	private boolean parse_APP1(ByteBuffer app1, long tiffPosition) throws IOException {
 		
 		//Read "Exif#0#0" header (6 bytes length)
 		//45 78 69 66 00 00
 		// E  x  i  f #0 #0
-		int b0 = in.read();
-		int b1 = in.read();
-		int b2 = in.read();
-		int b3 = in.read();
-		int b4 = in.read();
-		int b5 = in.read();
-		
-		debug("      APP1 Header tag is '" + (char)b0 + (char)b1 + (char)b2 + (char)b3 + (char)b4 + (char)b5 + "'");
+		int b0 = app1.get(0) & 0xFF;
+		int b1 = app1.get(1) & 0xFF;
+		int b2 = app1.get(2) & 0xFF;
+		int b3 = app1.get(3) & 0xFF;
+		int b4 = app1.get(4) & 0xFF;
+		int b5 = app1.get(5) & 0xFF;
 		
 		if ((b0 != 0x45) || (b1 != 0x78) || (b2 != 0x69) || (b3 != 0x66) || (b4 != 0x00) || (b5 != 0x00)) {
 			//It's not an EXIF APP1 part, skip it!
-			debug("      APP1 is not tag with 'Exif00' header; skip APP1 block");
-			skipBytes(in, appLength-2-6); //app1Length-2 because app1Lenght contain itself size (which is 2) already read; and -6 because we just read 6 bytes to check EXIF00 header
-			return ;
+			if (_listener != null) {
+				_listener.warning("APP1 segment has no 'Exif00' header, skip APP1 segment");
+			}
+			return false;
 		}
 		
+		//TIFF data starts just after the EXIF00 header: all offsets inside TIFF data are relative to the TIFF header
+		app1.position(6);
+		parse_TIFF(app1.slice(), tiffPosition);
+		return true;
+	}
 	
+	//Parse TIFF data (from an APP1 segment, or a compact copy of a TIFF based file), tiffPosition is its position in the source
+	private void parse_TIFF(ByteBuffer tiff, long tiffPosition) throws IOException {
+		int b0;
+		int b1;
+		
 		//Read TIFF header (8 bytes length)
 		//
 		//Big Endian = Motorola
@@ -682,264 +1917,835 @@ public class Exif {
 		// I  I   Value   offset IFD0
 		
 		//Read TIFF header : Part 1, Check if data are in Little Endian or in Big Endian (2 bytes)
-		long tiffHeaderPosition = in.getChannel().position();
-		b0 = in.read();
-		b1 = in.read();
+		b0 = tiff.get(0) & 0xFF;
+		b1 = tiff.get(1) & 0xFF;
 		if (b0 != b1) {
-			throw new IOException("APP1 does not contain a correct TIFF header");
+			throw new FormatException("TIFF data does not contain a correct TIFF header");
 		}
 		if ((b0 != 0x4D) && (b0 != 0x49)) {
-			throw new IOException("APP1 does not contain a correct TIFF header (wrong little or big endian byte)");
+			throw new FormatException("TIFF data does not contain a correct TIFF header (wrong little or big endian byte)");
 		}
 		
 		boolean isLittleEndian = (b0 == 0x49);
-		
-		debug("      APP1 TIFF Header : alignment is "+ (isLittleEndian ? "Little Endian (Intel)" : "Big Endian (Motorola)"));
+		tiff.order(isLittleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
 
 		//Read TIFF header : Part 2, check word control (2 bytes)
-		b0 = in.read();
-		b1 = in.read();
-		if (isLittleEndian) {
-			if ((b0 != 0x2A) && (b1 != 0x00)) {
-				throw new IOException("APP1 does not contain a correct TIFF header (wrong word control, must be 0x2A00 in little endian, but is 0x" + String.format("%02X", b0) + String.format("%02X", b1) + ")");
+		if (tiff.getShort(2) != 0x002A) {
+			throw new FormatException("TIFF data does not contain a correct TIFF header (wrong word control, must be 0x002A, but is 0x" + String.format("%04X", tiff.getShort(2) & 0xFFFF) + ")");
+		}
+		
+		//Read TIFF header : Part 3, get IFD0 offset (4 bytes)
+		//IFD = Image File Directory
+		//IFD0 offset is generally equal to 8 bytes (which is the TIFF header size, but can be greater)
+		int offsetToIFD0 = tiff.getInt(4);
+		
+		if (offsetToIFD0 < 8) {
+			throw new FormatException("OffsetToIFD0 must be at least 8 bytes as the offset itself is coded in 8 bytes length");
+		}
+		
+		_tiff = tiff;
+		_tiffPosition = tiffPosition;
+		_visitedIFDs = new HashSet<Integer>();
+		try {
+			parse_IFD0(tiff, offsetToIFD0);
+		} finally {
+			_visitedIFDs = null;
+		}
+		_entries.seal();
+	}
+	
+	//Return false if the IFD has already been parsed: IFD offsets of corrupted files can make a loop
+	private boolean visitIFD(int offset, String prefix) {
+		if (_visitedIFDs.add(offset)) {
+			return true;
+		}
+		if (_listener != null) {
+			_listener.warning(prefix + " at offset " + offset + " has already been parsed, skip it");
+		}
+		return false;
+	}
+	
+	
+	//IFD0 = EXIF DATA
+	private void parse_IFD0(ByteBuffer tiff, int offset) throws IOException {
+		int nbIFDEntries = parse_SubIFD(tiff, offset, "IDF0", Directory.IFD0, 0);
+		
+		//IFD0 always and to a pointer to IFD1 (or 0 if not IFD1).
+		int nextIFDPosition = offset + 2 + 12 * nbIFDEntries;
+		checkBounds(tiff, nextIFDPosition, 4, "IFD0 offset to IFD1");
+		int nextIFDOffset = tiff.getInt(nextIFDPosition);
+		
+		//IFD1 is the thumbnail; TIFF based files can chain more images: IFD2, IFD3...
+		for (int i = 1; (nextIFDOffset > 0) && isDirectoryWanted((i == 1) ? Directory.IFD1 : Directory.SUB_IMAGE); ++i) {
+			SubImage ifd = parse_SubImage(tiff, nextIFDOffset, "IFD" + i, 0);
+			if (ifd == null) {
+				break;
+			}
+			if (i == 1) {
+				parse_Thumbnail(tiff, ifd);
+			}
+			nextIFDOffset = ifd._nextIFDOffset;
+		}
+	}
+	
+	private class SubIDFPtr {
+		public SubIDFPtr(String name, Directory directory, Long ptr, boolean isMakerNote, Long size) {
+			this.name = name;
+			this.directory = directory;
+			this.ptr = ptr;
+			this.isMakerNote = isMakerNote;
+			this.size = size;
+		}
+		public String name;
+		public Directory directory;
+		public Long ptr;
+		public boolean isMakerNote;
+		public Long size;
+	}
+	
+	//Return the number of entries of the IFD
+	private int parse_SubIFD(ByteBuffer tiff, int offset, String prefix, Directory directory, int depth) throws IOException { 
+		checkBounds(tiff, offset, 2, prefix);
+		int nbIFDEntries = tiff.getShort(offset) & 0xFFFF;
+		checkBounds(tiff, offset, 2 + 12 * nbIFDEntries, prefix);
+		if (visitIFD(offset, prefix) == false) {
+			return 0;
+		}
+		_budget.enterIFD(prefix, depth, nbIFDEntries);
+		
+		if (_listener != null) {
+			_listener.ifdEntered(prefix, offset, nbIFDEntries);
+		}
+		
+		List<SubIDFPtr> subIDF = new LinkedList<SubIDFPtr>();
+		List<Integer> subImages = new ArrayList<Integer>();
+
+		int entryPosition = offset + 2;
+		for (int i = 1; i <= nbIFDEntries; ++i, entryPosition += 12) {
+			int tag = tiff.getShort(entryPosition) & 0xFFFF;
+			
+			int format = tiff.getShort(entryPosition + 2) & 0xFFFF;
+			if ((format < 1) || (format > 13)) {
+				throw new FormatException("IDF tag format must bet between [1-13], but is " + format);
+			}
+			
+			int count = tiff.getInt(entryPosition + 4);
+			int value = tiff.getInt(entryPosition + 8);
+			
+			Tag tagDef = getTag(tag);
+			
+			boolean isSubIdf = false;
+			if (tagDef != null) {
+				if (tagDef.isSubIDF()) {
+					if (tag == 0x927c) { //MakerNote
+						if (format != 7) {
+							throw new FormatException("IDF tag 0x" + String.format("%04X", tag) + " " + tagDef.getTagName() + " must be in format 7 (undefined), but is " + format);
+						}
+					} else {
+						if ((format != 4) && (format != 13)) {
+							throw new FormatException("IDF tag 0x" + String.format("%04X", tag) + " " + tagDef.getTagName() + " must be in format 4 (unsigned long) or 13 (offset to subdirectory), but is " + format);
+						}
+					}
+					isSubIdf = true;
+					if (tag == 0x014a) { //SubIFDs: one offset per image
+						if (isDirectoryWanted(Directory.SUB_IMAGE)) {
+							int dataPosition = getDataPosition(tiff, tag, format, count, entryPosition + 8);
+							for (int k = 0; k < count; ++k) {
+								subImages.add(tiff.getInt(dataPosition + 4 * k));
+							}
+						}
+					} else if (isDirectoryWanted(getPointedDirectory(tag))) {
+						subIDF.add(new SubIDFPtr(tagDef.getTagName(), getPointedDirectory(tag), (long)value, tag == 0x927c, (long)count));
+					}
+				}
+			}
+			
+			if ((isSubIdf == false) && isWanted(tag)) {
+				int index = _entries.add(directory, tag, format, count, getDataPosition(tiff, tag, format, count, entryPosition + 8));
+				if (_options.isLazyDecoding() == false) {
+					getEntryValue(index);
+				}
+				if (isSelectionComplete()) {
+					return nbIFDEntries;
+				}
+			}
+		}
+		
+		for (SubIDFPtr subOffset : subIDF) {
+			if (isSelectionComplete()) {
+				break;
+			}
+			if (subOffset.isMakerNote) {
+				parse_MakerNote(tiff, subOffset.ptr, "Sub-IDF '"+ subOffset.name + "'", subOffset.size);
+			} else {
+				parse_SubIFD(tiff, subOffset.ptr.intValue(), "Sub-IDF '"+ subOffset.name + "'", subOffset.directory, depth + 1);
 			}
+		}
+		for (int k = 0; k < subImages.size(); ++k) {
+			parse_SubImage(tiff, subImages.get(k), prefix + " SubIFD " + k, depth + 1);
+		}
+		
+		return nbIFDEntries;
+	}
+	
+	//Directory pointed by a sub IFD tag
+	private Directory getPointedDirectory(int tag) {
+		if (tag == 0x8769) {
+			return Directory.EXIF;
+		} else if (tag == 0x8825) {
+			return Directory.GPS;
+		} else if (tag == 0xa005) {
+			return Directory.INTEROPERABILITY;
+		} else if (tag == 0x927c) {
+			return Directory.MAKER_NOTE;
+		} else if (tag == 0x014a) {
+			return Directory.SUB_IMAGE;
 		} else {
-			if ((b0 != 0x00) && (b1 != 0x2A)) {
-				throw new IOException("APP1 does not contain a correct TIFF header (wrong word control, must be 0x002A in big endian, but is 0x" + String.format("%02X", b0) + String.format("%02X", b1) + ")");
+			return null;
+		}
+	}
+	
+	//Return false if the directory can not contain any tag of the selection (Options.setTags)
+	private boolean isDirectoryWanted(Directory directory) {
+		if (_wantedTags == null) {
+			return true;
+		}
+		if ((directory == Directory.MAKER_NOTE) || (directory == Directory.IFD1) || (directory == Directory.SUB_IMAGE)) {
+			return false; //no tag is extracted from them
+		}
+		for (int tagValue : _wantedTags) {
+			Tag tag = getTag(tagValue);
+			if ((tag == null) || (directory == null)) {
+				return true; //unknown tag or directory: can be anywhere
+			} else if (tag.getDirectory() == directory) {
+				return true;
+			} else if ((directory == Directory.EXIF) && (tag.getDirectory() == Directory.INTEROPERABILITY)) {
+				return true; //Interoperability IFD is pointed from Exif SubIFD
 			}
 		}
+		return false;
+	}
+	
+	//Return true if the tag is part of the selection (and remember it has been found)
+	private boolean isWanted(int tag) {
+		if (_wantedTags == null) {
+			return true;
+		}
+		int index = Arrays.binarySearch(_wantedTags, tag);
+		if (index < 0) {
+			return false;
+		}
+		if (_wantedTagsFound[index] == false) {
+			_wantedTagsFound[index] = true;
+			_wantedTagsFoundCount++;
+		}
+		return true;
+	}
+	
+	private boolean isSelectionComplete() {
+		return (_wantedTags != null) && (_wantedTagsFoundCount == _wantedTags.length);
+	}
+	
+	//Decode all the entries of an image IFD which is not the main image; return null if the IFD has already been parsed
+	private SubImage parse_SubImage(ByteBuffer tiff, int offset, String name, int depth) throws IOException {
+		checkBounds(tiff, offset, 2, name);
+		int nbIFDEntries = tiff.getShort(offset) & 0xFFFF;
+		checkBounds(tiff, offset, 2 + 12 * nbIFDEntries + 4, name);
+		if (visitIFD(offset, name) == false) {
+			return null;
+		}
+		_budget.enterIFD(name, depth, nbIFDEntries);
 		
-		debug("      APP1 TIFF Header : found correct alignment word control value " + (isLittleEndian ? "0x2A00" : "0x002A"));
+		if (_listener != null) {
+			_listener.ifdEntered(name, offset, nbIFDEntries);
+		}
 		
-		//Read TIFF header : Part 3, get IFD0 offset (4 bytes)
-		//IFD = Image File Directory
-		//IFD0 offset is generally equal to 8 bytes (which is the TIFF header size, but can be greater)
-		b0 = in.read();
-		b1 = in.read();
-		b2 = in.read();
-		b3 = in.read();
+		List<ExifValue> values = new ArrayList<ExifValue>(nbIFDEntries);
+		List<Integer> subImages = new ArrayList<Integer>();
 		
-		int offsetToIFD0 = decode(b0, b1, b2, b3, isLittleEndian);
+		int entryPosition = offset + 2;
+		for (int i = 1; i <= nbIFDEntries; ++i, entryPosition += 12) {
+			int tag = tiff.getShort(entryPosition) & 0xFFFF;
+			
+			int format = tiff.getShort(entryPosition + 2) & 0xFFFF;
+			if ((format < 1) || (format > 13)) {
+				throw new FormatException("IDF tag format must bet between [1-13], but is " + format);
+			}
+			
+			int count = tiff.getInt(entryPosition + 4);
+			int dataPosition = getDataPosition(tiff, tag, format, count, entryPosition + 8);
+			
+			if (tag == 0x014a) { //SubIFDs: offsets are not values, they are followed below
+				if ((format != 4) && (format != 13)) {
+					throw new FormatException("IDF tag 0x014A SubIFDs must be in format 4 (unsigned long) or 13 (offset to subdirectory), but is " + format);
+				}
+				for (int k = 0; k < count; ++k) {
+					subImages.add(tiff.getInt(dataPosition + 4 * k));
+				}
+			} else {
+				values.add(decodeValue(tag, format, count, tiff, dataPosition));
+			}
+		}
 		
-		if (offsetToIFD0 < 8) {
-			throw new IOException("OffsetToIFD0 must be at least 8 bytes as the offset itself is coded in 8 bytes length");
+		SubImage subImage = new SubImage(name, values.toArray(new ExifValue[values.size()]), tiff.getInt(entryPosition));
+		_subImages.add(subImage);
+		for (int k = 0; k < subImages.size(); ++k) {
+			parse_SubImage(tiff, subImages.get(k), name + " SubIFD " + k, depth + 1);
+		}
+		return subImage;
+	}
+	
+	//IFD1 = Thumbnail
+	//There are 3 formats for thumbnails; JPEG format(JPEG uses YCbCr), RGB TIFF format, YCbCr TIFF format.
+	private void parse_Thumbnail(ByteBuffer tiff, SubImage ifd1) throws IOException {
+		if (_options.isExtractThumbnail()) {
+			long compressionMethod = getLongValue(ifd1.get(0x0103));
+			
+			if (compressionMethod == 6) {//it's jpeg compression (old method)
+				long jpegIFOffset = getLongValue(ifd1.get(0x0201));
+				long jpegIFByteCount = getLongValue(ifd1.get(0x0202));
+				if (_tiffBlockStarts != null) { //offset in the file, the thumbnail data has been copied into the compact TIFF data
+					jpegIFOffset = toTiffPosition(jpegIFOffset, jpegIFByteCount);
+				}
+				
+				//The thumbnail is stored inside the TIFF data, so it is already in memory: only keep its location
+				checkBounds(tiff, jpegIFOffset, jpegIFByteCount, "Thumbnail data");
+				_thumbnailOffset = (int) jpegIFOffset;
+				_thumbnailLength = (int) jpegIFByteCount;
+			} else if (_listener != null) {
+				_listener.warning("Unknown compression method " + compressionMethod + " to extract thumbnail image");
+			}
+		}
+	}
+	
+	private long getLongValue(ExifValue exifValue) {
+		if ((exifValue != null) && exifValue.isInteger()) {
+			return exifValue.getLong();
 		}
-		
-		debug("      APP1 TIFF Header : IFD0 offset is " + offsetToIFD0);
+		return 0;
+	}
 
-		//Go to IFD0
-		if (offsetToIFD0 > 8) {
-			skipBytes(in, offsetToIFD0-8); //offsetToIFD0-8 because offsetToIFD0 contains itself size (which is 8) already read;
+	private String getStringValue(ExifValue exifValue) {
+		if ((exifValue != null) && exifValue.isString()) {
+			return exifValue.getString().trim();
 		}
-		
-		parse_IFD0(in, isLittleEndian, tiffHeaderPosition, extractThumbnail);
-		
-		//We have done reading EXIF, just put read cursor at end of file to finish!
-		in.getChannel().position(in.getChannel().size());
+		return "";
 	}
 	
 	
-	//IFD0 = EXIF DATA
-	private void parse_IFD0(FileInputStream in, boolean isLittleEndian, long tiffHeaderPosition, boolean extractThumbnail) throws IOException {
-		parse_SubIFD(in, isLittleEndian, "IDF0", tiffHeaderPosition);
+	//---------------------------------------------------------------------------------------------
+	// TIFF based files (TIFF, DNG, CR2, NEF, ARW...)
+	//---------------------------------------------------------------------------------------------
+	
+	//The file is the TIFF data itself, but its image data can be tens of MB: only the IFDs and their values are read,
+	//and copied one after the other into a compact TIFF data whose offsets are rewritten. Image strips and tiles are never read.
+	private void parse_TIFFContainer(Source source) throws IOException {
+		ByteBuffer header = source.read(0, 8);
+		if (header.remaining() < 8) {
+			throw new FormatException("Unexpected end of file while reading TIFF header");
+		}
+		ByteOrder order = ((header.get(header.position()) & 0xFF) == 0x49) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
 		
-		//IFD0 always and to a pointer to IFD1 (or 0 if not IFD1).
-		int b0 = in.read();
-		int b1 = in.read();
-		int b2 = in.read();
-		int b3 = in.read();
+		long offsetToIFD0 = header.order(order).getInt(header.position() + 4) & 0xFFFFFFFFL;
 		
-		int offsetToIFD1 = decode(b0, b1, b2, b3, isLittleEndian);
-
-		debug("IFD0 Offset to IFD1 : " + offsetToIFD1 + " (" + String.format("%02X", b0) + " " + String.format("%02X", b1) + " " + String.format("%02X", b2) + " " + String.format("%02X", b3) + ")");
+		TIFFCompactor compactor = new TIFFCompactor(source, order);
+		compactor.append(header, 0);
+		compactor.copyIFDs(offsetToIFD0);
 		
-		if (offsetToIFD1 > 0) {
-			in.getChannel().position(tiffHeaderPosition + offsetToIFD1);
-			parse_IFD1(in, isLittleEndian, tiffHeaderPosition, extractThumbnail);
+		_tiffBlockStarts = Arrays.copyOf(compactor._blockStarts, compactor._blockCount);
+		_tiffBlockSources = Arrays.copyOf(compactor._blockSources, compactor._blockCount);
+		parse_TIFF(compactor.toTiff(), 0);
+	}
+	
+	//Position in the parsed source of a position in the TIFF data
+	private long toSourcePosition(int tiffPosition) {
+		if (_tiffBlockStarts == null) {
+			return _tiffPosition + tiffPosition;
 		}
+		int block = Arrays.binarySearch(_tiffBlockStarts, tiffPosition);
+		if (block < 0) {
+			block = -block - 2;
+		}
+		return _tiffBlockSources[block] + (tiffPosition - _tiffBlockStarts[block]);
 	}
 	
-	private class SubIDFPtr {
-		public SubIDFPtr(String name, Long ptr, boolean isMakerNote, Long size) {
-			this.name = name;
-			this.ptr = ptr;
-			this.isMakerNote = isMakerNote;
-			this.size = size;
+	//Position in the compact TIFF data of the bytes [sourcePosition, sourcePosition+length[ of the file, or -1 if they have not been copied
+	private long toTiffPosition(long sourcePosition, long length) {
+		for (int i = 0; i < _tiffBlockStarts.length; ++i) {
+			long blockLength = ((i + 1 < _tiffBlockStarts.length) ? _tiffBlockStarts[i + 1] : _tiff.limit()) - _tiffBlockStarts[i];
+			if ((sourcePosition >= _tiffBlockSources[i]) && (sourcePosition + length <= _tiffBlockSources[i] + blockLength)) {
+				return _tiffBlockStarts[i] + (sourcePosition - _tiffBlockSources[i]);
+			}
 		}
-		public String name;
-		public Long ptr;
-		public boolean isMakerNote;
-		public Long size;
+		return -1;
+	}
+	
+	private static class IFDPtr {
+		public IFDPtr(long source, int patchPosition, int chainIndex, int depth) {
+			this.source = source;
+			this.patchPosition = patchPosition;
+			this.chainIndex = chainIndex;
+			this.depth = depth;
+		}
+		public long source;			//Offset of the IFD in the file
+		public int patchPosition;	//Position of the pointer to rewrite in the compact data
+		public int chainIndex;		//Index in the IFD0, IFD1... chain, -1 for a sub IFD (its next IFD pointer is not followed)
+		public int depth;
 	}
 	
-	private void parse_SubIFD(FileInputStream in, boolean isLittleEndian, String prefix, long tiffHeaderPosition) throws IOException { 
-		int b0, b1, b2, b3;
+	//Copy the IFDs of a TIFF file (and their out of line values) into a compact TIFF data, in the byte order of the file
+	private class TIFFCompactor {
+		private final Source _source;
+		private final ByteOrder _order;
+		private final Map<Long, Integer> _copiedIFDs = new HashMap<Long, Integer>();
+		private ByteBuffer _data;
+		private int[] _blockStarts = new int[16];
+		private long[] _blockSources = new long[16];
+		private int _blockCount;
+		
+		private TIFFCompactor(Source source, ByteOrder order) {
+			_source = source;
+			_order = order;
+			_data = ByteBuffer.allocate(4096).order(order);
+		}
 		
-		b0 = in.read();
-		b1 = in.read();
-		int nbIFDEntries = decode(b0, b1, isLittleEndian);
+		//Append the bytes read from the file at sourcePosition, return their position in the compact data
+		private int append(ByteBuffer bytes, long sourcePosition) {
+			int length = bytes.remaining();
+			if (_data.remaining() < length) {
+				ByteBuffer data = ByteBuffer.allocate(Math.max(2 * _data.capacity(), _data.position() + length)).order(_order);
+				_data.flip();
+				data.put(_data);
+				_data = data;
+			}
+			if (_blockCount == _blockStarts.length) {
+				_blockStarts = Arrays.copyOf(_blockStarts, 2 * _blockCount);
+				_blockSources = Arrays.copyOf(_blockSources, 2 * _blockCount);
+			}
+			int position = _data.position();
+			_blockStarts[_blockCount] = position;
+			_blockSources[_blockCount] = sourcePosition;
+			_blockCount++;
+			_data.put(bytes);
+			return position;
+		}
 		
-		debug("\n" + prefix + " Entries : " + nbIFDEntries);
+		private int copy(long sourcePosition, long length, String what) throws IOException {
+			if ((sourcePosition + length > _source.size()) || (length > Integer.MAX_VALUE)) {
+				throw new FormatException(what + " [" + sourcePosition + ", " + (sourcePosition + length) + "[ is out of file bounds [0, " + _source.size() + "[");
+			}
+			ByteBuffer bytes = _source.read(sourcePosition, (int) length);
+			if (bytes.remaining() != length) {
+				throw new FormatException("Unexpected end of file: only " + bytes.remaining() + " bytes of " + what + " read instead of " + length);
+			}
+			return append(bytes, sourcePosition);
+		}
 		
-		List<SubIDFPtr> subIDF = new LinkedList<SubIDFPtr>();
-
-		for (int i = 1; i <= nbIFDEntries; ++i) {
-			b0 = in.read();
-			b1 = in.read();
-			int tag = decode(b0, b1, isLittleEndian);
-			
-			b0 = in.read();
-			b1 = in.read();
-			int format = decode(b0, b1, isLittleEndian);
-			if ((format < 1) || (format > 13)) {
-				throw new IOException("IDF tag format must bet between [1-13], but is " + format);
+		//Copy IFD0 and everything reachable from it: IFD chain, Exif, GPS, Interoperability and SubIFDs, breadth first
+		private void copyIFDs(long offsetToIFD0) throws IOException {
+			LinkedList<IFDPtr> pending = new LinkedList<IFDPtr>();
+			pending.add(new IFDPtr(offsetToIFD0, 4, 0, 0));
+			while (pending.isEmpty() == false) {
+				IFDPtr ptr = pending.removeFirst();
+				Integer copied = _copiedIFDs.get(ptr.source);
+				if (ptr.source == 0) {
+					_data.putInt(ptr.patchPosition, 0);
+				} else if (copied != null) { //the parser will detect the loop
+					_data.putInt(ptr.patchPosition, copied);
+				} else {
+					copyIFD(ptr, pending);
+				}
 			}
+		}
+		
+		private void copyIFD(IFDPtr ptr, List<IFDPtr> pending) throws IOException {
+			ByteBuffer head = _source.read(ptr.source, 2);
+			if (head.remaining() < 2) {
+				throw new FormatException("IFD at offset " + ptr.source + " is out of file bounds");
+			}
+			int nbIFDEntries = head.order(_order).getShort(head.position()) & 0xFFFF;
+			_budget.enterIFD("IFD at offset " + ptr.source, ptr.depth, 0); //entries are counted by the parser
+			int offset = copy(ptr.source, 2 + 12 * nbIFDEntries + 4, "IFD");
+			_copiedIFDs.put(ptr.source, offset);
+			_data.putInt(ptr.patchPosition, offset);
 			
-			b0 = in.read();
-			b1 = in.read();
-			b2 = in.read();
-			b3 = in.read();
-			int count = decode(b0, b1, b2, b3, isLittleEndian);
-
-			b0 = in.read();
-			b1 = in.read();
-			b2 = in.read();
-			b3 = in.read();
-			int value = decode(b0, b1, b2, b3, isLittleEndian);
-			
-			ExifValue exifValue = this.get(tag);
-			
-			boolean isSubIdf = false;
-			if (exifValue != null) {
-				if (exifValue.isSubIDF()) {
-					if (tag == 0x927c) { //MakerNote
-						if (format != 7) {
-							throw new IOException("IDF tag " + exifValue.getShortTitle() + " must be in format 7 (undefined), but is " + format);
-						}
-					} else {
-						if ((format != 4) && (format != 13)) {
-							throw new IOException("IDF tag " + exifValue.getShortTitle() + " must be in format 4 (unsigned long) or 13 (offset to subdirectory), but is " + format);
-						}
+			long thumbnailOffset = -1;
+			long thumbnailLength = -1;
+			int entryPosition = offset + 2;
+			for (int i = 0; i < nbIFDEntries; ++i, entryPosition += 12) {
+				int tag = _data.getShort(entryPosition) & 0xFFFF;
+				int format = _data.getShort(entryPosition + 2) & 0xFFFF;
+				if ((format < 1) || (format > 13)) {
+					continue; //the parser will reject it
+				}
+				long count = _data.getInt(entryPosition + 4) & 0xFFFFFFFFL;
+				long value = _data.getInt(entryPosition + 8) & 0xFFFFFFFFL;
+				
+				int dataPosition = entryPosition + 8;
+				long length = count * FORMAT_LENGTH[format];
+				if (length > 4) {
+					dataPosition = copy(value, length, "Value of tag 0x" + String.format("%04X", tag));
+					_data.putInt(entryPosition + 8, dataPosition);
+				}
+				
+				boolean isOffset = (format == 4) || (format == 13);
+				if (isOffset && ((tag == 0x8769) || (tag == 0x8825) || (tag == 0xa005))) {
+					pending.add(new IFDPtr(value, entryPosition + 8, -1, ptr.depth + 1));
+				} else if (isOffset && (tag == 0x014a)) {
+					for (int k = 0; k < count; ++k) {
+						pending.add(new IFDPtr(_data.getInt(dataPosition + 4 * k) & 0xFFFFFFFFL, dataPosition + 4 * k, -1, ptr.depth + 1));
 					}
-					isSubIdf = true;
-					subIDF.add(new SubIDFPtr(exifValue.getTagName(), (long)value, tag == 0x927c, (long)count));
-					debug("      " + String.format("%02d", i) + " : TAG = " + this.get(tag).getFullTitle(), this.get(tag).getTagName() == null);
+				} else if (tag == 0x0201) {
+					thumbnailOffset = value;
+				} else if (tag == 0x0202) {
+					thumbnailLength = value;
 				}
 			}
 			
-			if (isSubIdf == false) {
-				decodeTag(i, tag, format, count, b0, b1, b2, b3, isLittleEndian, in, tiffHeaderPosition, true);
+			int nextIFDPosition = offset + 2 + 12 * nbIFDEntries;
+			if (ptr.chainIndex >= 0) {
+				pending.add(new IFDPtr(_data.getInt(nextIFDPosition) & 0xFFFFFFFFL, nextIFDPosition, ptr.chainIndex + 1, 0));
+			} else {
+				_data.putInt(nextIFDPosition, 0);
+			}
+			
+			//The thumbnail of IFD1 is small, copy it so it is in the TIFF data like in a JPEG file
+			if ((ptr.chainIndex == 1) && _options.isExtractThumbnail() && (thumbnailOffset > 0) && (thumbnailLength > 0)) {
+				copy(thumbnailOffset, thumbnailLength, "Thumbnail data");
 			}
 		}
 		
-		for (SubIDFPtr offset : subIDF) {
-			long position = in.getChannel().position();
-			in.getChannel().position(tiffHeaderPosition + offset.ptr);
-			if (offset.isMakerNote) {
-				parse_MakerNote(in, isLittleEndian, "Sub-IDF '"+ offset.name + "'", tiffHeaderPosition, offset.size);
-			} else {
-				parse_SubIFD(in, isLittleEndian, "Sub-IDF '"+ offset.name + "'", tiffHeaderPosition);
+		private ByteBuffer toTiff() {
+			_data.flip();
+			return _data.slice();
+		}
+	}
+	
+	
+	//---------------------------------------------------------------------------------------------
+	// ISO base media files (HEIF, HEIC, AVIF, but also MP4, MOV...)
+	//---------------------------------------------------------------------------------------------
+	
+	private static final int BOX_META = 0x6D657461; //'meta'
+	private static final int BOX_IINF = 0x69696E66; //'iinf'
+	private static final int BOX_INFE = 0x696E6665; //'infe'
+	private static final int BOX_ILOC = 0x696C6F63; //'iloc'
+	private static final int BOX_IDAT = 0x69646174; //'idat'
+	private static final int ITEM_EXIF = 0x45786966; //'Exif'
+	
+	private static class Box {
+		public int type;
+		public long position;
+		public long dataPosition;	//After the box header
+		public long end;
+	}
+	
+	//The file is a sequence of boxes, the EXIF data is an item of the 'meta' box.
+	//Only the box headers are read to jump from box to box, so the media data ('mdat', which is most of the file) is never read.
+	private void parse_ISOMedia(Source source) throws IOException {
+		long size = source.size();
+		long position = 0;
+		while (position < size) {
+			Box box = readBox(source, position, size);
+			if (box == null) {
+				break;
 			}
-			in.getChannel().position(position);
+			if (box.type == BOX_META) {
+				parse_meta(source, box);
+				return ;
+			}
+			position = box.end;
+		}
+		if (_listener != null) {
+			_listener.warning("No 'meta' box, so no EXIF data");
 		}
 	}
 	
-	//IFD1 = Thumbnail
-	//There are 3 formats for thumbnails; JPEG format(JPEG uses YCbCr), RGB TIFF format, YCbCr TIFF format.
-	private void parse_IFD1(FileInputStream in, boolean isLittleEndian, long tiffHeaderPosition, boolean extractThumbnail) throws IOException { 
-		int b0, b1, b2, b3;
-		
-		b0 = in.read();
-		b1 = in.read();
-		int nbIFDEntries = decode(b0, b1, isLittleEndian);
+	//Return null at the end of the data
+	private Box readBox(Source source, long position, long end) throws IOException {
+		ByteBuffer header = source.read(position, 16);
+		if (header.remaining() == 0) {
+			return null;
+		}
+		if (header.remaining() < 8) {
+			throw new FormatException("Unexpected end of file while reading box header at " + position);
+		}
+		header = header.slice();
+		Box box = new Box();
+		box.type = header.getInt(4);
+		box.position = position;
+		long length = header.getInt(0) & 0xFFFFFFFFL;
+		int headerLength = 8;
+		if (length == 1) { //64 bits length
+			if (header.remaining() < 16) {
+				throw new FormatException("Unexpected end of file while reading box header at " + position);
+			}
+			length = header.getLong(8);
+			headerLength = 16;
+		} else if (length == 0) { //up to the end
+			length = end - position;
+		}
+		if ((length < headerLength) || (length > end - position)) {
+			throw new FormatException("Box at " + position + " has a length of " + length + " bytes, out of its parent bounds [" + position + ", " + end + "[");
+		}
+		box.dataPosition = position + headerLength;
+		box.end = position + length;
+		if (_listener != null) {
+			_listener.segmentFound(box.type, position, (length > Integer.MAX_VALUE) ? -1 : (int) length);
+		}
+		return box;
+	}
+	
+	//Read the content of a (small) box
+	private ByteBuffer readBoxData(Source source, Box box) throws IOException {
+		long length = box.end - box.dataPosition;
+		if (length > Integer.MAX_VALUE) {
+			throw new FormatException("Box at " + box.position + " is too large: " + length + " bytes");
+		}
+		ByteBuffer data = source.read(box.dataPosition, (int) length);
+		if (data.remaining() != length) {
+			throw new FormatException("Unexpected end of file: only " + data.remaining() + " bytes read instead of " + length);
+		}
+		return data.slice();
+	}
+	
+	//'meta' is a full box (4 bytes of version and flags before its children): 'iinf' gives the type of each item, 'iloc' the location of its data
+	private void parse_meta(Source source, Box meta) throws IOException {
+		ByteBuffer iinf = null;
+		ByteBuffer iloc = null;
+		Box idat = null;
+		long position = meta.dataPosition + 4;
+		while ((position < meta.end) && ((iinf == null) || (iloc == null) || (idat == null))) {
+			Box box = readBox(source, position, meta.end);
+			if (box == null) {
+				break;
+			}
+			if (box.type == BOX_IINF) {
+				iinf = readBoxData(source, box);
+			} else if (box.type == BOX_ILOC) {
+				iloc = readBoxData(source, box);
+			} else if (box.type == BOX_IDAT) {
+				idat = box;
+			}
+			position = box.end;
+		}
 		
-		debug("\nIFD1 Entries : " + nbIFDEntries);
-
-		HashMap<Integer, ExifValue> ifd1ExifData = new HashMap<Integer, ExifValue>();
+		long exifItemID = (iinf == null) ? -1 : findExifItem(iinf);
+		if ((exifItemID < 0) || (iloc == null)) {
+			if (_listener != null) {
+				_listener.warning("No EXIF item in 'meta' box");
+			}
+			return ;
+		}
+		long[] location = findItemLocation(iloc, exifItemID, idat);
+		if (location[1] > Integer.MAX_VALUE) {
+			throw new FormatException("EXIF item is too large: " + location[1] + " bytes");
+		}
+		ByteBuffer item = source.read(location[0], (int) location[1]);
+		if (item.remaining() != location[1]) {
+			throw new FormatException("Unexpected end of file: only " + item.remaining() + " bytes of EXIF item read instead of " + location[1]);
+		}
+		item = item.slice();
 		
-		for (int i = 1; i <= nbIFDEntries; ++i) {
-			b0 = in.read();
-			b1 = in.read();
-			int tag = decode(b0, b1, isLittleEndian);
-			
-			b0 = in.read();
-			b1 = in.read();
-			int format = decode(b0, b1, isLittleEndian);
-			if ((format < 1) || (format > 13)) {
-				throw new IOException("IDF tag format must bet between [1-13], but is " + format);
+		//The item starts with the offset of the TIFF header (after an 'Exif00' header in general)
+		long tiffOffset = 4 + readUnsigned(item, 0, 4, "Exif item");
+		if (tiffOffset + 8 > item.limit()) {
+			throw new FormatException("EXIF item TIFF header offset " + tiffOffset + " is out of item bounds [0, " + item.limit() + "[");
+		}
+		item.position((int) tiffOffset);
+		parse_TIFF(item.slice(), location[0] + tiffOffset);
+	}
+	
+	//Return the ID of the first item of type 'Exif', or -1
+	private long findExifItem(ByteBuffer iinf) throws IOException {
+		int version = (int) readUnsigned(iinf, 0, 1, "iinf");
+		int position = (version == 0) ? 6 : 8;	//version and flags, then the entry count (2 or 4 bytes)
+		while (position < iinf.limit()) {
+			long length = readUnsigned(iinf, position, 4, "infe");
+			if ((length < 8) || (position + length > iinf.limit())) {
+				throw new FormatException("'infe' box length " + length + " is out of 'iinf' box bounds");
 			}
-			
-			b0 = in.read();
-			b1 = in.read();
-			b2 = in.read();
-			b3 = in.read();
-			int count = decode(b0, b1, b2, b3, isLittleEndian);
-
-			b0 = in.read();
-			b1 = in.read();
-			b2 = in.read();
-			b3 = in.read();
-			//int value = decode(b0, b1, b2, b3, isLittleEndian);
-			
-			ifd1ExifData.put(tag, decodeTag(i, tag, format, count, b0, b1, b2, b3, isLittleEndian, in, tiffHeaderPosition, false));
+			if (readUnsigned(iinf, position + 4, 4, "infe") == BOX_INFE) {
+				int infeVersion = (int) readUnsigned(iinf, position + 8, 1, "infe");
+				if (infeVersion >= 2) { //older versions have no item type
+					int idLength = (infeVersion == 2) ? 2 : 4;
+					long itemType = readUnsigned(iinf, position + 12 + idLength + 2, 4, "infe"); //after the item ID and the protection index
+					if (itemType == ITEM_EXIF) {
+						return readUnsigned(iinf, position + 12, idLength, "infe");
+					}
+				}
+			}
+			position += length;
 		}
-
-		if (extractThumbnail) {
-			long compressionMethod = getLongValue(ifd1ExifData.get(0x0103));
+		return -1;
+	}
+	
+	//Return {position in file, length} of the item data
+	private long[] findItemLocation(ByteBuffer iloc, long itemID, Box idat) throws IOException {
+		int version = (int) readUnsigned(iloc, 0, 1, "iloc");
+		int sizes = (int) readUnsigned(iloc, 4, 2, "iloc");
+		int offsetSize = (sizes >> 12) & 0xF;
+		int lengthSize = (sizes >> 8) & 0xF;
+		int baseOffsetSize = (sizes >> 4) & 0xF;
+		int indexSize = ((version == 1) || (version == 2)) ? sizes & 0xF : 0;
+		int idSize = (version < 2) ? 2 : 4;
+		
+		long itemCount = readUnsigned(iloc, 6, idSize, "iloc");
+		int position = 6 + idSize;
+		for (long i = 0; i < itemCount; ++i) {
+			long id = readUnsigned(iloc, position, idSize, "iloc");
+			position += idSize;
+			int constructionMethod = 0;
+			if ((version == 1) || (version == 2)) {
+				constructionMethod = (int) readUnsigned(iloc, position, 2, "iloc") & 0xF;
+				position += 2;
+			}
+			position += 2; //data reference index
+			long baseOffset = readUnsigned(iloc, position, baseOffsetSize, "iloc");
+			position += baseOffsetSize;
+			int extentCount = (int) readUnsigned(iloc, position, 2, "iloc");
+			position += 2;
+			if (id != itemID) {
+				position += extentCount * (indexSize + offsetSize + lengthSize);
+				continue;
+			}
 			
-			if (compressionMethod == 6) {//it's jpeg compression (old method)
-				long jpegIFOffset = getLongValue(ifd1ExifData.get(0x0201));
-				long jpegIFByteCount = getLongValue(ifd1ExifData.get(0x0202));
-				
-				long position = in.getChannel().position();
-				in.getChannel().position(tiffHeaderPosition + jpegIFOffset);
-				byte[] thumbnailData = new byte[(int) jpegIFByteCount];
-				int bread = in.read(thumbnailData, 0, (int)jpegIFByteCount);
-				if (bread != jpegIFByteCount) {
-					throw new IOException("Unable to read all thumbnail data bytes. Have read only " + bread + " bytes instead of " + jpegIFByteCount);
+			if (extentCount != 1) {
+				throw new FormatException("EXIF item in " + extentCount + " extents is not supported");
+			}
+			position += indexSize;
+			long extentOffset = readUnsigned(iloc, position, offsetSize, "iloc");
+			long length = readUnsigned(iloc, position + offsetSize, lengthSize, "iloc");
+			if (length == 0) {
+				throw new FormatException("EXIF item has no length");
+			}
+			//8 bytes fields can be negative as signed longs, and their sums can overflow
+			if ((baseOffset < 0) || (extentOffset < 0) || (length < 0) || (extentOffset > Long.MAX_VALUE - baseOffset) || (length > Long.MAX_VALUE - baseOffset - extentOffset)) {
+				throw new FormatException("EXIF item location (base offset " + Long.toUnsignedString(baseOffset) + ", offset " + Long.toUnsignedString(extentOffset) + ", length " + Long.toUnsignedString(length) + ") is out of range");
+			}
+			long offset = baseOffset + extentOffset;
+			if (constructionMethod == 0) { //offset in the file
+				return new long[] { offset, length };
+			} else if ((constructionMethod == 1) && (idat != null)) { //offset in the 'idat' box
+				if (offset + length > idat.end - idat.dataPosition) {
+					throw new FormatException("EXIF item [" + offset + ", " + (offset + length) + "[ is out of 'idat' box bounds");
 				}
-				
-				_thumbnail = ImageIO.read(new ByteArrayInputStream(thumbnailData));
-				
-				in.getChannel().position(position);
-				
-				debug("      " + "---> Thumbnail extraction done");
-			} else {
-				debug("      " + "---> Uknown compression method " + compressionMethod + " to extract thumbnail image.", true);
+				return new long[] { idat.dataPosition + offset, length };
 			}
+			throw new FormatException("EXIF item construction method " + constructionMethod + " is not supported");
 		}
-		
-		
-		
-		//IFD1 always and to a pointer to IFD2 (or 0 if no IFD2).
-		b0 = in.read();
-		b1 = in.read();
-		b2 = in.read();
-		b3 = in.read();
-		
-		int offsetToIFD2 = decode(b0, b1, b2, b3, isLittleEndian);
-		
-		debug("IFD1 Offset to IFD2 : " + offsetToIFD2 + " (" + String.format("%02X", b0) + " " + String.format("%02X", b1) + " " + String.format("%02X", b2) + " " + String.format("%02X", b3) + ")");
-
-		
+		throw new FormatException("EXIF item " + itemID + " has no location in 'iloc' box");
 	}
 	
-	private long getLongValue(ExifValue exifValue) {
-		if (exifValue != null) {
-			if (exifValue.getValue() instanceof Integer) {
-				return ((Integer)exifValue.getValue()).longValue();
+	//Big endian unsigned integer of 0 to 8 bytes
+	private static long readUnsigned(ByteBuffer box, int position, int length, String boxName) throws IOException {
+		if ((position < 0) || (position + length > box.limit())) {
+			throw new FormatException("Unexpected end of '" + boxName + "' box at " + position);
+		}
+		long value = 0;
+		for (int i = 0; i < length; ++i) {
+			value = (value << 8) | (box.get(position + i) & 0xFF);
+		}
+		return value;
+	}
+	
+	
+	//---------------------------------------------------------------------------------------------
+	// PNG and WebP files
+	//---------------------------------------------------------------------------------------------
+	
+	private static final int CHUNK_EXIF_PNG = 0x65584966; //'eXIf'
+	private static final int CHUNK_IEND = 0x49454E44; //'IEND'
+	private static final int CHUNK_EXIF_RIFF = 0x45584946; //'EXIF'
+	private static final int CHUNK_VP8X = 0x56503858; //'VP8X'
+	private static final int RIFF_WEBP = 0x57454250; //'WEBP'
+	
+	//After the 8 bytes signature, a PNG file is a sequence of chunks: length (4 bytes), type (4 bytes), data, CRC (4 bytes).
+	//The headers are enough to jump from chunk to chunk, so the image data (IDAT) is never read.
+	private void parse_PNG(Source source) throws IOException {
+		long position = 8;
+		while (true) {
+			ByteBuffer header = source.read(position, 8);
+			if (header.remaining() < 8) {
+				throw new FormatException("Unexpected end of file while reading PNG chunk header at " + position + " (no IEND chunk)");
+			}
+			header = header.slice();
+			int length = header.getInt(0);
+			int type = header.getInt(4);
+			if (length < 0) {
+				throw new FormatException("PNG chunk at " + position + " has a length greater than 2GB");
+			}
+			if (_listener != null) {
+				_listener.segmentFound(type, position, length);
+			}
+			if (type == CHUNK_EXIF_PNG) {
+				_crcChunkPosition = position + 4;
+				_crcChunkLength = length;
+				parse_ExifChunk(source, position + 8, length);
+				return ;
+			} else if (type == CHUNK_IEND) {
+				return ;
 			}
+			position += 8 + length + 4;
 		}
-		return 0;
 	}
-
-	private String getStringValue(ExifValue exifValue) {
-		if (exifValue != null) {
-			if (exifValue.getValue() instanceof String) {
-				return ((String)exifValue.getValue()).trim();
+	
+	//After the 12 bytes header ('RIFF', length, form type), a RIFF file is a sequence of chunks: type (4 bytes), length (4 bytes, little endian), data (padded to an even length)
+	private void parse_RIFF(Source source, ByteBuffer head) throws IOException {
+		int formType = head.getInt(head.position() + 8);
+		if (formType != RIFF_WEBP) {
+			throw new FormatException("RIFF files of type '" + (char) (formType >>> 24) + (char) ((formType >>> 16) & 0xFF) + (char) ((formType >>> 8) & 0xFF) + (char) (formType & 0xFF) + "' are not supported");
+		}
+		long end = 8 + (head.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(head.position() + 4) & 0xFFFFFFFFL);
+		long size = source.size();
+		long position = 12;
+		while (position < end) {
+			ByteBuffer header = source.read(position, 9);
+			if (header.remaining() == 0) {
+				break; //the RIFF length may be wrong
+			}
+			if (header.remaining() < 8) {
+				throw new FormatException("Unexpected end of file while reading WebP chunk header at " + position);
+			}
+			header = header.slice();
+			int type = header.getInt(0);
+			long length = header.order(ByteOrder.LITTLE_ENDIAN).getInt(4) & 0xFFFFFFFFL;
+			if (_listener != null) {
+				_listener.segmentFound(type, position, (length > Integer.MAX_VALUE) ? -1 : (int) length);
+			}
+			if (type == CHUNK_EXIF_RIFF) {
+				parse_ExifChunk(source, position + 8, length);
+				return ;
+			} else if (position + 8 + length > size) { //a chunk can end at the end of the file without its padding byte
+				throw new FormatException("Unexpected end of file: WebP chunk at " + position + " has a length of " + length + " bytes, out of the " + size + " bytes of the file");
+			} else if (position == 12) {
+				//Metadata are only allowed in the extended format, whose first chunk is VP8X with a flag for EXIF data
+				if ((type != CHUNK_VP8X) || (header.remaining() < 9) || ((header.get(8) & 0x08) == 0)) {
+					return ;
+				}
 			}
+			position += 8 + length + (length & 1);
 		}
-		return "";
+	}
+	
+	//The chunk data is the TIFF data, but some writers put the 'Exif00' header of JPEG files before it
+	private void parse_ExifChunk(Source source, long position, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new FormatException("EXIF chunk is too large: " + length + " bytes");
+		}
+		ByteBuffer data = source.read(position, (int) length);
+		if (data.remaining() != length) {
+			throw new FormatException("Unexpected end of file: only " + data.remaining() + " bytes of EXIF chunk read instead of " + length);
+		}
+		data = data.slice();
+		if ((length >= 6) && (data.getInt(0) == 0x45786966) && (data.getShort(4) == 0)) { //Exif00
+			data.position(6);
+			position += 6;
+		}
+		if (data.remaining() < 8) {
+			throw new FormatException("EXIF chunk of " + data.remaining() + " bytes is too short for a TIFF header");
+		}
+		parse_TIFF(data.slice(), position);
 	}
 	
 	
@@ -947,12 +2753,10 @@ public class Exif {
 	// MakerNote decode : has proprietary data encoding format specific to manufacturer and camera!
 	//----------------------------------------------------------------------------------------------
 	
-	private void parse_MakerNote(FileInputStream in, boolean isLittleEndian, String prefix, long tiffHeaderPosition, long size) throws IOException {
+	private void parse_MakerNote(ByteBuffer tiff, long offset, String prefix, long size) throws IOException {
 		String manufacturer = getStringValue(this.get(0x010F)).trim();
 		String camera = getStringValue(this.get(0x0110)).trim();
 		
-		debug("\n" + prefix + " for " + manufacturer + " " + camera);
-		
 		//--> Debug output the makernote data
 		/*
 		long position = in.getChannel().position();
@@ -975,7 +2779,9 @@ public class Exif {
 		} else if ((manufacturer.compareTo("RICOH IMAGING COMPANY, LTD.") == 0) && (camera.startsWith("PENTAX"))) {
 			parse_MakerNote_Pentax(in, isLittleEndian, tiffHeaderPosition, size);
 		} else {*/
-			debug("      " + "    Unknow how to decode proprietary data encoding format for manufacturer '" + manufacturer + "' and camera '" + camera + "'", true);
+			if (_listener != null) {
+				_listener.warning(prefix + " : unknown proprietary data encoding format for manufacturer '" + manufacturer + "' and camera '" + camera + "'");
+			}
 		//}
 			
 	}
@@ -1022,7 +2828,7 @@ public class Exif {
 			b1 = in.read();
 			int format = decode(b0, b1, isLittleEndian);
 			if ((format < 1) || (format > 13)) {
-				throw new IOException("IDF tag format must bet between [1-13], but is " + format);
+				throw new FormatException("IDF tag format must bet between [1-13], but is " + format);
 			}
 
 			b0 = in.read();
@@ -1094,177 +2900,234 @@ public class Exif {
 	// Decode exif tag value
 	//-------------------------------------------------------------------------
 	
-	//When count * type lenght > 4 bytes, the value is not directly embeded into b0 b1, b2, b3; but b0b1b2b3 is a pointer to the location of the values.
-	private ExifValue decodeTag(int idx, int tag, int format, int count, int b0, int b1, int b2, int b3, boolean isLittleEndian, FileInputStream in, long tiffHeaderPosition, boolean saveValue) throws IOException {
-		ExifValue exifValue = this.get(tag);
-		if (exifValue == null) {
-			exifValue = this.addExifData(tag);
+	//Size in bytes of one value of each TIFF format (index = format)
+	private static final int[] FORMAT_LENGTH = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4};
+	
+	//Name of each TIFF format (index = format)
+	private static final String[] FORMAT_NAME = {"", "unsigned byte", "ascii strings", "unsigned short", "unsigned long", "unsigned rational", "signed byte", "undefined", "signed short", "signed long", "signed rational", "signed float", "double float", "offset to subdirectory"};
+	
+	/*
+	 * Compact index of the extracted IFD entries, stored in primitive arrays.
+	 * Entry i is its tag, format, count and the position of its data in the TIFF data: this is all that is needed to decode its value later.
+	 */
+	private static class EntryIndex {
+		private int _size = 0;
+		private Directory[] _directories = new Directory[32];	//IFD where each entry has been found
+		private int[] _tags = new int[32];
+		private int[] _formats = new int[32];
+		private int[] _counts = new int[32];
+		private int[] _positions = new int[32];
+		//Decoded values. Written without lock once parsing is done: ExifValue is immutable, so at worst a value is decoded twice by two threads
+		private ExifValue[] _values = new ExifValue[32];
+		//(tag << 32 | entry index) sorted, for tag lookup by binary search (null while parsing)
+		private long[] _sortedTags = null;
+		
+		public int add(Directory directory, int tag, int format, int count, int position) {
+			if (_size == _tags.length) {
+				int capacity = _size * 2;
+				_directories = Arrays.copyOf(_directories, capacity);
+				_tags = Arrays.copyOf(_tags, capacity);
+				_formats = Arrays.copyOf(_formats, capacity);
+				_counts = Arrays.copyOf(_counts, capacity);
+				_positions = Arrays.copyOf(_positions, capacity);
+				_values = Arrays.copyOf(_values, capacity);
+			}
+			_directories[_size] = directory;
+			_tags[_size] = tag;
+			_formats[_size] = format;
+			_counts[_size] = count;
+			_positions[_size] = position;
+			return _size++;
 		}
 		
-		if (saveValue) {
-			_exifDataExtracted.add(exifValue);
-		} else {
-			exifValue = exifValue.getEmptyCopy(); //because when saveValue, it will directly put the value into the exifValue object!
-		}
-		
-		String formatType = "";
-		if (format == 1) {
-			formatType = "unsigned byte (length : 1 byte)";
-			//unsigned byte type can be used to express lot of stuff, so it must be decoded according to the tag
-			if ((tag == 0x0000) && (count == 4)) {
-				exifValue.setValue("" + (int)b0 + "." + (int)b1 + "." + (int)b2 + "." + (int)b3);
-			} else if ((tag == 0x0005) && (count == 1)) {
-				exifValue.setValue((int)b0);
-			}
-		} else if (format == 2) {
-			formatType = "ascii strings (length : 1 byte)";
-			StringBuilder str = new StringBuilder();
-			if (count == 4) {
-				str.append((char)b0);
-				str.append((char)b1);
-				str.append((char)b2);
-				str.append((char)b3);
-			} else if (count == 3) {
-				str.append((char)b0);
-				str.append((char)b1);
-				str.append((char)b2);
-			} else if (count == 2) {
-				str.append((char)b0);
-				str.append((char)b1);
-			} else if (count == 1) {
-				str.append((char)b0);
+		//Called once parsing is done
+		public void seal() {
+			long[] sortedTags = new long[_size];
+			for (int i = 0; i < _size; ++i) {
+				sortedTags[i] = ((long) _tags[i] << 32) | i;
+			}
+			Arrays.sort(sortedTags);
+			_sortedTags = sortedTags;
+		}
+		
+		//Return the index of the last entry with this tag (as a tag present in several IFD is overridden by the last one), or -1
+		public int find(int tag) {
+			if (_sortedTags == null) {
+				for (int i = _size - 1; i >= 0; --i) {
+					if (_tags[i] == tag) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			int insertionPoint = -Arrays.binarySearch(_sortedTags, ((long) tag << 32) | 0xFFFFFFFFL) - 1;
+			if ((insertionPoint > 0) && ((int) (_sortedTags[insertionPoint - 1] >>> 32) == tag)) {
+				return (int) _sortedTags[insertionPoint - 1];
+			}
+			return -1;
+		}
+		
+		public int size() {
+			return _size;
+		}
+	}
+	
+	private ExifValue getEntryValue(int index) {
+		ExifValue exifValue = _entries._values[index];
+		if (exifValue == null) {
+			exifValue = decodeValue(_entries._tags[index], _entries._formats[index], _entries._counts[index], _tiff, _entries._positions[index]);
+			_entries._values[index] = exifValue;
+		}
+		return exifValue;
+	}
+	
+	//When count * type lenght > 4 bytes, the value is not directly embeded into the entry; but the 4 bytes of the entry are an offset to the location of the values.
+	//Return the position of the value data, checked to be inside the TIFF data
+	private int getDataPosition(ByteBuffer tiff, int tag, int format, int count, int valuePosition) throws IOException {
+		long length = (count & 0xFFFFFFFFL) * FORMAT_LENGTH[format];
+		//Decoded values can take more memory than their data: 8 bytes per integer, 16 per rational
+		long decodedLength = (count & 0xFFFFFFFFL) * (((format == 2) || (format == 7)) ? 1 : ((format == 5) || (format == 10)) ? 16 : 8);
+		_budget.allocate(decodedLength, "Value of tag 0x" + String.format("%04X", tag));
+		if (length <= 4) {
+			return valuePosition;
+		}
+		int dataPosition = tiff.getInt(valuePosition);
+		checkBounds(tiff, dataPosition & 0xFFFFFFFFL, length, "Value of tag 0x" + String.format("%04X", tag));
+		return dataPosition;
+	}
+	
+	private ExifValue decodeValue(int tag, int format, int count, ByteBuffer tiff, int dataPosition) {
+		String string = null;
+		long[] integers = null;
+		long[] rationals = null;
+		double[] doubles = null;
+		byte[] bytes = null;
+		
+		//Only used for inline values (less than 4 bytes)
+		int b0 = tiff.get(dataPosition) & 0xFF;
+		int b1 = tiff.get(dataPosition + 1) & 0xFF;
+		int b2 = tiff.get(dataPosition + 2) & 0xFF;
+		int b3 = tiff.get(dataPosition + 3) & 0xFF;
+		
+		//Values are read in bulk with a view of the value data, in the byte order of the TIFF data
+		ByteBuffer data = view(tiff, dataPosition, count * FORMAT_LENGTH[format]);
+		
+		if (format == 1) { //unsigned byte
+			if ((tag == 0x0000) && (count == 4)) { //GPSVersionID
+				string = "" + b0 + "." + b1 + "." + b2 + "." + b3;
 			} else {
-				long position = in.getChannel().position();
-				int offset = decode(b0, b1, b2, b3, isLittleEndian);
-				in.getChannel().position(tiffHeaderPosition + offset);
+				integers = new long[count];
 				for (int i = 0; i < count; ++i) {
-					str.append((char)in.read());
+					integers[i] = data.get(i) & 0xFF;
 				}
-				in.getChannel().position(position);
 			}
-			exifValue.setValue(str.toString());
-		} else if (format == 3) {
-			formatType = "unsigned short (length : 2 byte)";
-			if (count == 1) {
-				exifValue.setValue(new Integer(decode(b0, b1, isLittleEndian)));
+		} else if (format == 2) { //ascii strings
+			StringBuilder str = new StringBuilder(count);
+			for (int i = 0; i < count; ++i) {
+				str.append((char)(data.get(i) & 0xFF));
 			}
-		} else if (format == 4) {
-			formatType = "unsigned long (length : 4 byte)";
-			if (count == 1) {
-				exifValue.setValue(new Integer(decode(b0, b1, b2, b3, isLittleEndian)));
+			string = str.toString();
+		} else if (format == 3) { //unsigned short
+			ShortBuffer shorts = data.asShortBuffer();
+			integers = new long[count];
+			for (int i = 0; i < count; ++i) {
+				integers[i] = shorts.get(i) & 0xFFFF;
 			}
-		} else if (format == 5) {
-			formatType = "unsigned rational (length : 8 byte)";
-			
-			if (count >= 1) {
-				
-				long position = in.getChannel().position();
-				int offset = decode(b0, b1, b2, b3, isLittleEndian);
-				in.getChannel().position(tiffHeaderPosition + offset);
-				
-				for (int i = 0; i < count; ++i) {
-					int o1 = in.read();
-					int o2 = in.read();
-					int o3 = in.read();
-					int o4 = in.read();
-					int numerator = decode(o1, o2, o3, o4, isLittleEndian);
-					
-					int o5 = in.read();
-					int o6 = in.read();
-					int o7 = in.read();
-					int o8 = in.read();
-					int denominator = decode(o5, o6, o7, o8, isLittleEndian);
-					
-					if (count == 1) {
-						exifValue.setValue(new Rational(numerator, denominator));
-					} else {
-						exifValue.appendValue(new Rational(numerator, denominator));
-					}
-				}
-				
-				in.getChannel().position(position);
+		} else if ((format == 4) || (format == 13)) { //unsigned long, offset to subdirectory
+			IntBuffer ints = data.asIntBuffer();
+			integers = new long[count];
+			for (int i = 0; i < count; ++i) {
+				integers[i] = ints.get(i) & 0xFFFFFFFFL;
 			}
-			
-		} else if (format == 6) { 
-			formatType = "signed byte (length : 1 byte)";
-		} else if (format == 7) { 
-			formatType = "undefined (length : 1 byte)";
+		} else if (format == 5) { //unsigned rational
+			IntBuffer ints = data.asIntBuffer();
+			rationals = new long[2 * count];
+			for (int i = 0; i < rationals.length; ++i) {
+				rationals[i] = ints.get(i) & 0xFFFFFFFFL;
+			}
+		} else if (format == 6) { //signed byte
+			integers = new long[count];
+			for (int i = 0; i < count; ++i) {
+				integers[i] = data.get(i);
+			}
+		} else if (format == 7) { //undefined
 			//when undefined format used, we must decode value according to the tag!
 			if ((tag == 0x9000) && (count == 4)) {
-				exifValue.setValue("" + (char)b0 + (char)b1 + (char)b2 + (char)b3);
+				string = "" + (char)b0 + (char)b1 + (char)b2 + (char)b3;
 			} else if ((tag ==  0x9101) && (count == 4)) {
-				exifValue.setValue("" + (char)(b0 + '0') + (char)(b1 + '0') + (char)(b2 + '0') + (char)(b3 + '0'));
+				string = "" + (char)(b0 + '0') + (char)(b1 + '0') + (char)(b2 + '0') + (char)(b3 + '0');
 			} else if ((tag == 0xA000) && (count == 4)) {
-				exifValue.setValue("" + (char)b0 + (char)b1 + (char)b2 + (char)b3);
+				string = "" + (char)b0 + (char)b1 + (char)b2 + (char)b3;
 			} else if ((tag == 0xA300) && (count == 1)) {
-				exifValue.setValue(decode(b0, b1, b2, b3, isLittleEndian));
+				integers = new long[] { b0 };
 			} else if ((tag == 0xA301) && (count == 1)) {
-				exifValue.setValue(decode(b0, b1, b2, b3, isLittleEndian));
+				integers = new long[] { b0 };
 			} else if ((tag == 0x001B) && (count > 4)) {
-				long position = in.getChannel().position();
-				int offset = decode(b0, b1, b2, b3, isLittleEndian);
-				in.getChannel().position(tiffHeaderPosition + offset);
-				StringBuilder str = new StringBuilder();
+				StringBuilder str = new StringBuilder(count);
 				for (int i = 0; i < count; ++i) {
-					str.append((char)in.read());
+					str.append((char)(data.get(i) & 0xFF));
 				}
-				exifValue.setValue(str.toString());
-				in.getChannel().position(position);
-			}
-		} else if (format == 8) { 
-			formatType = "signed short (length : 2 byte)";
-		} else if (format == 9) { 
-			formatType = "signed long (length : 4 byte)";
-		} else if (format == 10) { 
-			formatType = "signed rational (length : 8 byte)";
-			
-			if (count == 1) {
-				long position = in.getChannel().position();
-				int offset = decode(b0, b1, b2, b3, isLittleEndian);
-				in.getChannel().position(tiffHeaderPosition + offset);
-				
-				int o1 = in.read();
-				int o2 = in.read();
-				int o3 = in.read();
-				int o4 = in.read();
-				int numerator = decode(o1, o2, o3, o4, isLittleEndian);
-				
-				int o5 = in.read();
-				int o6 = in.read();
-				int o7 = in.read();
-				int o8 = in.read();
-				int denominator = decode(o5, o6, o7, o8, isLittleEndian);
-				
-				exifValue.setValue(new Rational(numerator, denominator));
-				
-				in.getChannel().position(position);	
+				string = str.toString();
+			} else {
+				bytes = new byte[count];
+				data.get(bytes);
 			}
-			
-		} else if (format == 11) { 
-			formatType = "signed float (length : 4 byte)";
-		} else if (format == 12) { 
-			formatType = "double float (length : 8 byte)";
-		} else if (format == 13) { 
-			formatType = "offset to subdirectory (length : 4 byte)";
-		} else {
-			formatType = "BUG";
+		} else if (format == 8) { //signed short
+			ShortBuffer shorts = data.asShortBuffer();
+			integers = new long[count];
+			for (int i = 0; i < count; ++i) {
+				integers[i] = shorts.get(i);
+			}
+		} else if (format == 9) { //signed long
+			IntBuffer ints = data.asIntBuffer();
+			integers = new long[count];
+			for (int i = 0; i < count; ++i) {
+				integers[i] = ints.get(i);
+			}
+		} else if (format == 10) { //signed rational
+			IntBuffer ints = data.asIntBuffer();
+			rationals = new long[2 * count];
+			for (int i = 0; i < rationals.length; ++i) {
+				rationals[i] = ints.get(i);
+			}
+		} else if (format == 11) { //signed float
+			FloatBuffer floats = data.asFloatBuffer();
+			doubles = new double[count];
+			for (int i = 0; i < count; ++i) {
+				doubles[i] = floats.get(i);
+			}
+		} else if (format == 12) { //double float
+			DoubleBuffer doubleBuffer = data.asDoubleBuffer();
+			doubles = new double[count];
+			doubleBuffer.get(doubles);
 		}
-
 		
-		debug("      " + String.format("%02d", idx) + " : TAG = " + exifValue.getFullTitle(), exifValue.getTagName() == null);
-		debug("      " + String.format("%02d", idx) + " : FORMAT = " + format + " = " + formatType);
-		debug("      " + String.format("%02d", idx) + " : COUNT = " + count);
-		debug("      " + String.format("%02d", idx) + " : VALUE = " + decode(b0, b1, b2, b3, isLittleEndian) + " (" + String.format("%02X", b0) + " " + String.format("%02X", b1) + " " + String.format("%02X", b2) + " " + String.format("%02X", b3) + ")");
+		if ((count == 0) && (string == null)) { //no value at all
+			integers = null;
+			rationals = null;
+			doubles = null;
+			bytes = null;
+		}
 
+		ExifValue exifValue = new ExifValue(tag, string, integers, rationals, doubles, bytes);
 		
-		Object value = exifValue.getValue();
-		if (value == null) {
-			debug("      " + String.format("%02d", idx) + " : Unable to decode format [" + formatType + "] with count object " + count, true);
-		} else {
-			debug("      " + String.format("%02d", idx) + " : DECODED VALUE = " + value);
+		if (_listener != null) {
+			if ((string == null) && (integers == null) && (rationals == null) && (doubles == null) && (bytes == null)) {
+				_listener.valueUndecodable(exifValue, format, count);
+			} else {
+				_listener.entryDecoded(exifValue, format, count);
+			}
 		}
 		
 		return exifValue;
 	}
+	
+	//Return [position, position + length[ of the TIFF data as a buffer starting at 0, with the TIFF byte order
+	private static ByteBuffer view(ByteBuffer tiff, int position, int length) {
+		ByteBuffer view = tiff.duplicate();
+		view.limit(position + length);
+		view.position(position);
+		return view.slice().order(tiff.order());
+	}
 
-}
\ No newline at end of file
+}
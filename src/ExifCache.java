@@ -0,0 +1,350 @@
+package exif;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Persistent cache of parsed files, so a file is parsed again only when it has changed.
+ *
+ * A file is identified by its absolute path, and is unchanged while its size and modification time (and optionally its
+ * file key, the inode on Unix) are the same: a cache hit costs one stat and one read of the cached record, not a parse.
+ * Files which are not valid (Exif.FormatException) are remembered too, get() throws their error again without parsing
+ * them. Other errors (file system, budget) may not happen again, they are not remembered.
+ *
+ * The store is a single binary file: the index (path, size, modification time, file key and record location) is loaded
+ * at once by the constructor, records are read from the store when a file is asked. New results are kept in memory until
+ * save() (or close()), which rewrites the store in a temporary file and then replaces it.
+ *
+ * The cached Exif objects have the same extracted tags as a parse, but no sub image, and only the thumbnail location
+ * (getThumbnailOffset and getThumbnailLength). The store is only valid for the same tag selection and extractThumbnail
+ * option: with other options, it starts empty.
+ *
+ * get() can be called by several threads at the same time, also while save() replaces the store.
+ */
+public class ExifCache implements Closeable {
+
+	private static final int MAGIC = 0x4A455843; //'JEXC'
+	private static final int VERSION = 3;
+
+	private final Path		   _store;
+	private final Exif.Options _options;
+	private final boolean	   _checkFileKey;
+	private final Map<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong   _hits = new AtomicLong();
+	private final AtomicLong   _misses = new AtomicLong();
+	private volatile boolean   _modified;
+	private FileChannel		   _channel;	//Open on the store, null if there is no store yet
+
+	//Cached state of one file
+	private static class Entry {
+		private final long	 _size;
+		private final long	 _modifiedTime;
+		private final String _fileKey;
+		private final long	 _position;	//Position of the record in the store (-1 if not saved yet)
+		private final int	 _length;
+		private final byte[] _record;	//Not saved yet
+		private final String _error;	//Not null if the file is not valid
+
+		private Entry(long size, long modifiedTime, String fileKey, long position, int length, byte[] record, String error) {
+			_size = size;
+			_modifiedTime = modifiedTime;
+			_fileKey = fileKey;
+			_position = position;
+			_length = length;
+			_record = record;
+			_error = error;
+		}
+
+		private boolean isSameFile(long size, long modifiedTime, String fileKey) {
+			return (_size == size) && (_modifiedTime == modifiedTime) && _fileKey.equals(fileKey);
+		}
+	}
+
+	public ExifCache(Path store) throws IOException {
+		this(store, new Exif.Options(), false);
+	}
+
+	//checkFileKey: a file replaced by another one with the same size and modification time (a copy which keeps the times) is detected
+	public ExifCache(Path store, Exif.Options options, boolean checkFileKey) throws IOException {
+		_store = store;
+		_options = options;
+		_checkFileKey = checkFileKey;
+		_entries.putAll(load());
+	}
+
+	public Exif.Options getOptions() {
+		return _options;
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public int size() {
+		return _entries.size();
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Lookup
+	//-------------------------------------------------------------------------
+
+	//Return the cached Exif if the file has not changed, otherwise parse it (and remember the result)
+	public Exif get(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		String key = path.toAbsolutePath().normalize().toString();
+		long size = attributes.size();
+		long modifiedTime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+		String fileKey = (_checkFileKey && (attributes.fileKey() != null)) ? attributes.fileKey().toString() : "";
+
+		Entry entry = _entries.get(key);
+		if ((entry != null) && entry.isSameFile(size, modifiedTime, fileKey)) {
+			if (entry._error != null) {
+				_hits.incrementAndGet();
+				throw new Exif.FormatException(entry._error);
+			}
+			ByteBuffer record = readRecord(key, entry);
+			if (record != null) {
+				_hits.incrementAndGet();
+				return Exif.readRecord(record, _options);
+			}
+			//Not in the store anymore (replaced by another parse during a save), parsed again
+		}
+
+		//The file may change while it is parsed: the result is then stored with the previous attributes, so it is parsed again next time
+		_misses.incrementAndGet();
+		_modified = true;
+		Exif exif;
+		try {
+			exif = new Exif(path, _options);
+		} catch (Exif.FormatException e) {
+			_entries.put(key, new Entry(size, modifiedTime, fileKey, -1, 0, null, String.valueOf(e.getMessage())));
+			throw e;
+		}
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		exif.writeRecord(new DataOutputStream(record));
+		_entries.put(key, new Entry(size, modifiedTime, fileKey, -1, record.size(), record.toByteArray(), null));
+		return exif;
+	}
+
+	//Record of an entry got before a save(), which may have moved it in the new store: null if it is not in the store anymore
+	private ByteBuffer readRecord(String key, Entry entry) throws IOException {
+		if (entry._record != null) {
+			return ByteBuffer.wrap(entry._record);
+		}
+		synchronized (this) { //save() replaces the store and the entries which point to it
+			Entry current = _entries.get(key);
+			if ((current == null) || (current._error != null) || (current.isSameFile(entry._size, entry._modifiedTime, entry._fileKey) == false)) {
+				return null;
+			}
+			return readRecord(current);
+		}
+	}
+
+	private ByteBuffer readRecord(Entry entry) throws IOException {
+		if (entry._record != null) {
+			return ByteBuffer.wrap(entry._record);
+		}
+		ByteBuffer record = ByteBuffer.allocate(entry._length);
+		synchronized (this) { //save() replaces the channel
+			if (_channel == null) {
+				throw new IOException("Cache store '" + _store + "' is closed");
+			}
+			while (record.hasRemaining()) {
+				if (_channel.read(record, entry._position + record.position()) < 0) {
+					throw new EOFException("Cache store '" + _store + "' is truncated");
+				}
+			}
+		}
+		record.flip();
+		return record;
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Store
+	//-------------------------------------------------------------------------
+	//  magic (int), version (int), options (UTF), number of files (int)
+	//  for each file: path (UTF), size (long), modification time (long, ns), file key (UTF),
+	//                 record length (int, -1 for an invalid file) then record, or error (UTF)
+
+	//Options which change the records
+	private String getOptionsKey() {
+		return "tags=" + Arrays.toString(_options.getTags()) + ";thumbnail=" + _options.isExtractThumbnail();
+	}
+
+	//Open the store and read its index
+	private Map<String, Entry> load() throws IOException {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(_store, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return entries;
+		}
+		PositionInputStream position = new PositionInputStream(new BufferedInputStream(Files.newInputStream(_store), 1 << 16));
+		DataInputStream in = new DataInputStream(position);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("'" + _store + "' is not an EXIF cache store");
+			}
+			if ((in.readInt() != VERSION) || (in.readUTF().equals(getOptionsKey()) == false)) {
+				channel.close();
+				return entries; //written by another version, or parsed with other options
+			}
+			int nbFiles = in.readInt();
+			for (int i = 0; i < nbFiles; ++i) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long modifiedTime = in.readLong();
+				String fileKey = in.readUTF();
+				int length = in.readInt();
+				if (length < 0) {
+					entries.put(path, new Entry(size, modifiedTime, fileKey, -1, 0, null, in.readUTF()));
+				} else {
+					entries.put(path, new Entry(size, modifiedTime, fileKey, position._position, length, null, null));
+					for (long remaining = length; remaining > 0; ) {
+						long skipped = in.skip(remaining);
+						if (skipped <= 0) {
+							throw new EOFException("Cache store '" + _store + "' is truncated");
+						}
+						remaining -= skipped;
+					}
+				}
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		} finally {
+			in.close();
+		}
+		_channel = channel;
+		return entries;
+	}
+
+	//Write all the entries if some have been added since the last save
+	public synchronized void save() throws IOException {
+		if (_modified == false) {
+			return;
+		}
+		_modified = false;
+		List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(_entries.entrySet()); //entries added meanwhile are saved next time
+		Path temporary = _store.resolveSibling(_store.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(getOptionsKey());
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> mapEntry : entries) {
+				Entry entry = mapEntry.getValue();
+				out.writeUTF(mapEntry.getKey());
+				out.writeLong(entry._size);
+				out.writeLong(entry._modifiedTime);
+				out.writeUTF(entry._fileKey);
+				if (entry._error != null) {
+					out.writeInt(-1);
+					out.writeUTF(entry._error);
+				} else {
+					ByteBuffer record = readRecord(entry);
+					out.writeInt(record.remaining());
+					out.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+				}
+			}
+		} catch (IOException e) {
+			_modified = true;
+			out.close();
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		out.close();
+
+		if (_channel != null) {
+			_channel.close();
+			_channel = null;
+		}
+		Files.move(temporary, _store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		//Saved entries now point to the new store, unless they have been replaced meanwhile
+		Map<String, Entry> saved = load();
+		for (Map.Entry<String, Entry> mapEntry : entries) {
+			Entry savedEntry = saved.get(mapEntry.getKey());
+			if (savedEntry != null) {
+				_entries.replace(mapEntry.getKey(), mapEntry.getValue(), savedEntry);
+			}
+		}
+	}
+
+	//Save the new entries, then release the store
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			save();
+		} finally {
+			if (_channel != null) {
+				_channel.close();
+				_channel = null;
+			}
+		}
+	}
+
+	//Tell the position in the store while it is loaded, to locate the records without reading them
+	private static class PositionInputStream extends FilterInputStream {
+		private long _position;
+
+		private PositionInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				_position++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int nbRead = super.read(b, off, len);
+			if (nbRead > 0) {
+				_position += nbRead;
+			}
+			return nbRead;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			_position += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package exif;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Columnar extraction of some tags from many files, for statistics over a whole library (ISO histograms, focal
+ * lengths, capture dates...): one row per file, one primitive array per tag.
+ *
+ *   ExifColumns.Schema schema = new ExifColumns.Schema().addDouble(0x8827).addTimestamp(0x9003).addString(0x0110);
+ *   ExifColumns columns = ExifColumns.extract(files, schema);
+ *   double[] iso = columns.getDoubles(0); //0 when columns.isNull(0, row)
+ *
+ * Only the tags of the schema are extracted, and their values are read directly from the TIFF data into the columns:
+ * no ExifValue is created. Strings are dictionary encoded (codes in an int[], the dictionary is sorted). Each column has
+ * a null bitmap (bit row % 64 of word row / 64 is set when the file has no value), files which can not be parsed have
+ * all their values null and an error.
+ *
+ * Files are parsed in parallel by blocks of 64 rows, so each null bitmap word is written by only one thread: by the calling
+ * thread and by tasks of the given executor (default a pool created for the extraction, one thread per core). As the
+ * calling thread parses blocks too, the extraction ends even if the executor can not run the tasks (a busy pool, or the
+ * pool of the calling thread, like the common fork join pool from a parallel stream).
+ */
+public class ExifColumns {
+
+	public static final int INTEGER = 0;	//int[], first value of an integer tag
+	public static final int DOUBLE = 1;		//double[], first value of a numeric tag (integer, rational, float)
+	public static final int TIMESTAMP = 2;	//long[], milliseconds since 1970 of an ascii date 'YYYY:MM:DD HH:MM:SS' (read as UTC)
+	public static final int STRING = 3;		//int[] codes in the dictionary of an ascii tag
+
+	private static final int BLOCK = 64;	//Rows parsed by a task at a time (one word of the null bitmaps)
+
+	//Tags to extract, and the type of their column
+	public static class Schema {
+		private final List<Integer> _tags = new ArrayList<Integer>();
+		private final List<Integer> _types = new ArrayList<Integer>();
+
+		public Schema addInteger(int tagValue) {
+			return add(tagValue, INTEGER);
+		}
+
+		public Schema addDouble(int tagValue) {
+			return add(tagValue, DOUBLE);
+		}
+
+		public Schema addTimestamp(int tagValue) {
+			return add(tagValue, TIMESTAMP);
+		}
+
+		public Schema addString(int tagValue) {
+			return add(tagValue, STRING);
+		}
+
+		private Schema add(int tagValue, int type) {
+			_tags.add(tagValue);
+			_types.add(type);
+			return this;
+		}
+
+		public int getColumnCount() {
+			return _tags.size();
+		}
+
+		private int[] getTags() {
+			int[] tags = new int[_tags.size()];
+			for (int i = 0; i < tags.length; ++i) {
+				tags[i] = _tags.get(i);
+			}
+			return tags;
+		}
+	}
+
+	//Values of one tag for all the files
+	private static class Column {
+		private final int	 _tag;
+		private final int	 _type;
+		private final long[] _nulls;
+		private int[]		 _integers;	//INTEGER and STRING
+		private double[]	 _doubles;
+		private long[]		 _timestamps;
+		private Map<String, Integer> _codes;	//STRING, while filling
+		private List<String> _dictionary;
+
+		private Column(int tag, int type, int nbRows) {
+			_tag = tag;
+			_type = type;
+			_nulls = new long[(nbRows + BLOCK - 1) / BLOCK];
+			if ((type == INTEGER) || (type == STRING)) {
+				_integers = new int[nbRows];
+			} else if (type == DOUBLE) {
+				_doubles = new double[nbRows];
+			} else {
+				_timestamps = new long[nbRows];
+			}
+			if (type == STRING) {
+				_codes = new HashMap<String, Integer>();
+				_dictionary = new ArrayList<String>();
+			}
+		}
+
+		private void setNull(int row) {
+			_nulls[row / BLOCK] |= 1L << (row % BLOCK);
+		}
+
+		private synchronized int encode(String value) {
+			Integer code = _codes.get(value);
+			if (code == null) {
+				code = _dictionary.size();
+				_codes.put(value, code);
+				_dictionary.add(value);
+			}
+			return code;
+		}
+
+		//Codes in the order of the sorted dictionary, so the result does not depend on the parse order
+		private void sortDictionary() {
+			String[] sorted = _dictionary.toArray(new String[_dictionary.size()]);
+			Arrays.sort(sorted);
+			int[] newCodes = new int[sorted.length];
+			for (int i = 0; i < sorted.length; ++i) {
+				newCodes[_codes.get(sorted[i])] = i;
+			}
+			for (int row = 0; row < _integers.length; ++row) {
+				if ((_nulls[row / BLOCK] & (1L << (row % BLOCK))) == 0) {
+					_integers[row] = newCodes[_integers[row]];
+				}
+			}
+			_dictionary = Collections.unmodifiableList(Arrays.asList(sorted));
+			_codes = null;
+		}
+	}
+
+	private final Path[]	   _paths;
+	private final String[]	   _errors;
+	private final Column[]	   _columns;
+	private final Exif.Options _options;
+
+	private ExifColumns(List<Path> paths, Schema schema) {
+		_paths = paths.toArray(new Path[paths.size()]);
+		_errors = new String[_paths.length];
+		_columns = new Column[schema.getColumnCount()];
+		for (int i = 0; i < _columns.length; ++i) {
+			_columns[i] = new Column(schema._tags.get(i), schema._types.get(i), _paths.length);
+		}
+		_options = new Exif.Options().setTags(schema.getTags()).setExtractThumbnail(false).setLazyDecoding(true);
+	}
+
+	//Parse on a pool of threads created for the extraction (one per core, with the calling thread)
+	public static ExifColumns extract(List<Path> paths, Schema schema) throws IOException {
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		if (parallelism == 1) {
+			return extract(paths, schema, null, 1);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism - 1, new ThreadFactory() {
+			private final AtomicInteger _threads = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ExifColumns-" + _threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			return extract(paths, schema, executor, parallelism);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	//parallelism: number of threads parsing the files, including the calling thread (parallelism - 1 tasks are given to the executor)
+	public static ExifColumns extract(List<Path> paths, Schema schema, Executor executor, int parallelism) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("At least 1 thread must parse the files, but parallelism is " + parallelism);
+		}
+		final ExifColumns columns = new ExifColumns(paths, schema);
+		final int nbBlocks = (columns._paths.length + BLOCK - 1) / BLOCK;
+		final AtomicInteger nextBlock = new AtomicInteger();
+		final CountDownLatch blocksDone = new CountDownLatch(nbBlocks);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		Runnable parser = new Runnable() {
+			@Override
+			public void run() {
+				for (int block = nextBlock.getAndIncrement(); block < nbBlocks; block = nextBlock.getAndIncrement()) {
+					try {
+						columns.fill(block);
+					} catch (RuntimeException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						blocksDone.countDown();
+					}
+				}
+			}
+		};
+		for (int i = 1; i < Math.min(parallelism, nbBlocks); ++i) {
+			try {
+				executor.execute(parser);
+			} catch (RejectedExecutionException e) {
+				break; //the calling thread parses the remaining blocks
+			}
+		}
+		//The calling thread parses blocks too, so the extraction ends even if the executor does not run the tasks (a busy
+		//pool, or the pool of the calling thread): it then only waits for the blocks which other threads are parsing.
+		parser.run();
+		try {
+			blocksDone.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Extraction interrupted");
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		for (Column column : columns._columns) {
+			if (column._type == STRING) {
+				column.sortDictionary();
+			}
+		}
+		return columns;
+	}
+
+	//Parse the files of a block of rows
+	private void fill(int block) {
+		int end = Math.min(_paths.length, (block + 1) * BLOCK);
+		for (int row = block * BLOCK; row < end; ++row) {
+			fillRow(row);
+		}
+	}
+
+	//Parse the file of a row and fill its values
+	private void fillRow(int row) {
+		Exif exif = null;
+		try {
+			FileChannel channel = FileChannel.open(_paths[row], StandardOpenOption.READ);
+			try {
+				exif = new Exif(channel, _options);
+			} finally {
+				channel.close();
+			}
+		} catch (Exception e) { //corrupted files can also fail with runtime exceptions
+			_errors[row] = String.valueOf(e.getMessage());
+		}
+		for (Column column : _columns) {
+			int index = (exif == null) ? -1 : exif.findEntry(column._tag);
+			if ((index < 0) || (fill(column, row, exif, index) == false)) {
+				column.setNull(row);
+			}
+		}
+	}
+
+	//Return false if the value does not fit the column type
+	private static boolean fill(Column column, int row, Exif exif, int index) {
+		if (column._type == STRING) {
+			String value = exif.getEntryString(index);
+			if (value == null) {
+				return false;
+			}
+			column._integers[row] = column.encode(value);
+			return true;
+		} else if (column._type == TIMESTAMP) {
+			long timestamp = parseTimestamp(exif.getEntryString(index));
+			if (timestamp == Long.MIN_VALUE) {
+				return false;
+			}
+			column._timestamps[row] = timestamp;
+			return true;
+		}
+		double value = exif.getEntryNumber(index);
+		if (Double.isNaN(value)) {
+			return false;
+		}
+		if (column._type == DOUBLE) {
+			column._doubles[row] = value;
+			return true;
+		}
+		int format = exif.getEntryFormat(index);
+		if ((format == 5) || (format == 10) || (format == 11) || (format == 12) || (value > Integer.MAX_VALUE)) {
+			return false; //not an integer, or too large for an int
+		}
+		column._integers[row] = (int) value;
+		return true;
+	}
+
+	//'YYYY:MM:DD HH:MM:SS' as milliseconds since 1970 (UTC), Long.MIN_VALUE if it is not a valid date
+	private static long parseTimestamp(String date) {
+		if ((date == null) || (date.length() < 19)) {
+			return Long.MIN_VALUE;
+		}
+		int year = parseDigits(date, 0, 4);
+		int month = parseDigits(date, 5, 2);
+		int day = parseDigits(date, 8, 2);
+		int hour = parseDigits(date, 11, 2);
+		int minute = parseDigits(date, 14, 2);
+		int second = parseDigits(date, 17, 2);
+		if ((year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0) || (second > 60)) {
+			return Long.MIN_VALUE; //unknown dates are often written '0000:00:00 00:00:00' or with spaces
+		}
+		//Days since 1970 of the civil date (proleptic Gregorian calendar)
+		int y = (month <= 2) ? year - 1 : year;
+		int era = ((y >= 0) ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = (long) era * 146097 + dayOfEra - 719468;
+		return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+	}
+
+	//Return -1 if the chars are not all digits
+	private static int parseDigits(String str, int start, int length) {
+		int value = 0;
+		for (int i = start; i < start + length; ++i) {
+			char c = str.charAt(i);
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Columns
+	//-------------------------------------------------------------------------
+	//Arrays are returned without copy
+
+	public int getRowCount() {
+		return _paths.length;
+	}
+
+	public Path getPath(int row) {
+		return _paths[row];
+	}
+
+	//Null if the file has been parsed
+	public String getError(int row) {
+		return _errors[row];
+	}
+
+	public int getColumnCount() {
+		return _columns.length;
+	}
+
+	public int getTag(int column) {
+		return _columns[column]._tag;
+	}
+
+	//INTEGER, DOUBLE, TIMESTAMP or STRING
+	public int getType(int column) {
+		return _columns[column]._type;
+	}
+
+	public boolean isNull(int column, int row) {
+		return (_columns[column]._nulls[row / BLOCK] & (1L << (row % BLOCK))) != 0;
+	}
+
+	//Bit row % 64 of word row / 64 is set when the row has no value
+	public long[] getNullBitmap(int column) {
+		return _columns[column]._nulls;
+	}
+
+	public int[] getIntegers(int column) {
+		return getColumn(column, INTEGER)._integers;
+	}
+
+	public double[] getDoubles(int column) {
+		return getColumn(column, DOUBLE)._doubles;
+	}
+
+	public long[] getTimestamps(int column) {
+		return getColumn(column, TIMESTAMP)._timestamps;
+	}
+
+	//Code of each row in the dictionary
+	public int[] getStringCodes(int column) {
+		return getColumn(column, STRING)._integers;
+	}
+
+	//Sorted distinct values
+	public List<String> getDictionary(int column) {
+		return getColumn(column, STRING)._dictionary;
+	}
+
+	private Column getColumn(int column, int type) {
+		if (_columns[column]._type != type) {
+			throw new IllegalArgumentException("Column " + column + " is of type " + _columns[column]._type + ", not " + type);
+		}
+		return _columns[column];
+	}
+}
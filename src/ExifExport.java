@@ -0,0 +1,559 @@
+package exif;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/*
+ * Export of the extracted entries, and their readers, to store the metadata without the images.
+ *
+ * Binary: one length prefixed record per Exif, with the raw TIFF data of each entry (IFD, tag, format, count, data).
+ * Records can be appended one after the other in a file; they are read back without copy from a ByteBuffer.
+ *
+ * JSON: one object per Exif, written directly to the output without intermediate objects:
+ *   {"thumbnailOffset":-1,"thumbnailLength":0,"entries":[{"ifd":"IFD0","tag":271,"name":"Make","format":2,"count":6,"value":"Canon\u0000"},...]}
+ * Values are the raw values of the TIFF format, so they are read back exactly: a string for ascii (one char per byte,
+ * with the ending zero), base64 for undefined data, an array of numbers for numeric formats and of [numerator, denominator]
+ * for rationals ("NaN", "Infinity" and "-Infinity" strings for such floats). JSON Lines (one object per line) can be
+ * written and read back by the same methods.
+ *
+ * Both readers return an Exif whose values are decoded when asked, with the same values as the parsed file. The sub
+ * images are not exported, and only the location of the thumbnail.
+ */
+public class ExifExport {
+
+	private ExifExport() {
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Binary
+	//-------------------------------------------------------------------------
+
+	//Record length (int), then the record
+	public static void writeBinary(Exif exif, DataOutput out) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+		exif.writeRecord(new DataOutputStream(record));
+		out.writeInt(record.size());
+		out.write(record.toByteArray());
+	}
+
+	//Return null at the end of the input. A record longer than the maxAllocation of the options is rejected before it is allocated.
+	public static Exif readBinary(DataInput in, Exif.Options options) throws IOException {
+		int first;
+		try {
+			first = in.readUnsignedByte();
+		} catch (EOFException e) {
+			return null;
+		}
+		//The end of the input in the rest of the length is a truncated record
+		int length = (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+		if (length < 0) {
+			throw new IOException("Corrupted record: length is " + length);
+		}
+		if (length > options.getMaxAllocation()) {
+			throw new Exif.BudgetExceededException("Record needs " + length + " bytes, more than the " + options.getMaxAllocation() + " bytes allowed");
+		}
+		byte[] record = new byte[length];
+		in.readFully(record);
+		return Exif.readRecord(ByteBuffer.wrap(record), options);
+	}
+
+	//Read the record at the buffer position, and move the position after it. Return null if there is no more record.
+	//The Exif shares the bytes of the buffer, which must not be modified while the Exif is used.
+	public static Exif readBinary(ByteBuffer buffer, Exif.Options options) throws IOException {
+		if (buffer.remaining() == 0) {
+			return null;
+		}
+		if (buffer.remaining() < 4) {
+			throw new IOException("Corrupted record: " + buffer.remaining() + " bytes for the length");
+		}
+		int length = buffer.getInt(buffer.position());
+		if ((length < 0) || (length > buffer.remaining() - 4)) {
+			throw new IOException("Corrupted record: length " + length + " is out of the " + (buffer.remaining() - 4) + " remaining bytes");
+		}
+		ByteBuffer record = buffer.duplicate();
+		record.position(buffer.position() + 4);
+		record.limit(buffer.position() + 4 + length);
+		buffer.position(buffer.position() + 4 + length);
+		return Exif.readRecord(record, options);
+	}
+
+	//-------------------------------------------------------------------------
+	//-- JSON
+	//-------------------------------------------------------------------------
+
+	//Write in UTF-8, the stream is flushed but not closed
+	public static void writeJson(Exif exif, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writeJson(exif, writer);
+		writer.flush();
+	}
+
+	public static void writeJson(Exif exif, Appendable out) throws IOException {
+		out.append("{\"thumbnailOffset\":").append(Long.toString(exif.getThumbnailOffset()));
+		out.append(",\"thumbnailLength\":").append(Integer.toString(exif.getThumbnailLength()));
+		out.append(",\"entries\":[");
+		for (int i = 0; i < exif.getExtractedCount(); ++i) {
+			int tag = exif.getEntryTag(i);
+			int format = exif.getEntryFormat(i);
+			int count = exif.getEntryCount(i);
+			Exif.Tag tagDef = Exif.getTag(tag);
+			if (i > 0) {
+				out.append(',');
+			}
+			out.append("{\"ifd\":\"").append(exif.getEntryDirectory(i).name());
+			out.append("\",\"tag\":").append(Integer.toString(tag));
+			if (tagDef != null) {
+				out.append(",\"name\":");
+				appendString(out, tagDef.getTagName());
+			}
+			out.append(",\"format\":").append(Integer.toString(format));
+			out.append(",\"count\":").append(Long.toString(count & 0xFFFFFFFFL));
+			out.append(",\"value\":");
+			appendValue(out, format, count, exif.getEntryData(i));
+			out.append('}');
+		}
+		out.append("]}");
+	}
+
+	private static void appendValue(Appendable out, int format, int count, ByteBuffer data) throws IOException {
+		if (format == 2) { //ascii
+			StringBuilder str = new StringBuilder(count);
+			for (int i = 0; i < count; ++i) {
+				str.append((char) (data.get(i) & 0xFF));
+			}
+			appendString(out, str.toString());
+			return;
+		} else if (format == 7) { //undefined
+			byte[] bytes = new byte[count];
+			data.get(bytes);
+			out.append('"').append(Base64.getEncoder().encodeToString(bytes)).append('"');
+			return;
+		}
+		out.append('[');
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) {
+				out.append(',');
+			}
+			if (format == 1) { //unsigned byte
+				out.append(Integer.toString(data.get(i) & 0xFF));
+			} else if (format == 3) { //unsigned short
+				out.append(Integer.toString(data.getShort(2 * i) & 0xFFFF));
+			} else if ((format == 4) || (format == 13)) { //unsigned long, offset to subdirectory
+				out.append(Long.toString(data.getInt(4 * i) & 0xFFFFFFFFL));
+			} else if (format == 5) { //unsigned rational
+				out.append('[').append(Long.toString(data.getInt(8 * i) & 0xFFFFFFFFL)).append(',').append(Long.toString(data.getInt(8 * i + 4) & 0xFFFFFFFFL)).append(']');
+			} else if (format == 6) { //signed byte
+				out.append(Integer.toString(data.get(i)));
+			} else if (format == 8) { //signed short
+				out.append(Integer.toString(data.getShort(2 * i)));
+			} else if (format == 9) { //signed long
+				out.append(Integer.toString(data.getInt(4 * i)));
+			} else if (format == 10) { //signed rational
+				out.append('[').append(Integer.toString(data.getInt(8 * i))).append(',').append(Integer.toString(data.getInt(8 * i + 4))).append(']');
+			} else if (format == 11) { //float
+				appendDouble(out, data.getFloat(4 * i));
+			} else if (format == 12) { //double
+				appendDouble(out, data.getDouble(8 * i));
+			}
+		}
+		out.append(']');
+	}
+
+	private static void appendDouble(Appendable out, double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append('"').append(Double.toString(value)).append('"');
+		} else {
+			out.append(Double.toString(value));
+		}
+	}
+
+	private static void appendString(Appendable out, String str) throws IOException {
+		out.append('"');
+		for (int i = 0; i < str.length(); ++i) {
+			char c = str.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	//Read the next JSON object of the reader (nothing is read after it). Return null at the end of the input.
+	//Values are encoded into the record while they are read, so the format of an entry must come before its value (as written by writeJson).
+	public static Exif readJson(Reader in, Exif.Options options) throws IOException {
+		JsonReader json = new JsonReader(in);
+		if (json.skipWhitespaces() < 0) {
+			return null;
+		}
+		long thumbnailOffset = -1;
+		int thumbnailLength = 0;
+		int nbEntries = 0;
+		//Same record as Exif.writeRecord, in big endian: its header is written once the entries are read
+		ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(record);
+		out.write(new byte[17]);
+		ByteArrayOutputStream data = new ByteArrayOutputStream(64); //Data of the current entry
+		DataOutputStream dataOut = new DataOutputStream(data);
+
+		json.expect('{');
+		for (boolean first = true; json.nextKey(first); first = false) {
+			String key = json.readKey();
+			if (key.equals("thumbnailOffset")) {
+				thumbnailOffset = json.readInteger(-1, Long.MAX_VALUE);
+			} else if (key.equals("thumbnailLength")) {
+				thumbnailLength = (int) json.readInteger(0, Integer.MAX_VALUE);
+			} else if (key.equals("entries")) {
+				json.expect('[');
+				for (boolean firstEntry = true; json.nextElement(firstEntry); firstEntry = false) {
+					readEntry(json, out, data, dataOut);
+					nbEntries++;
+				}
+			} else {
+				json.skipValue();
+			}
+		}
+
+		ByteBuffer bytes = ByteBuffer.wrap(record.toByteArray());
+		bytes.put(0, (byte) 'M');
+		bytes.putLong(1, thumbnailOffset);
+		bytes.putInt(9, thumbnailLength);
+		bytes.putInt(13, nbEntries);
+		return Exif.readRecord(bytes, options);
+	}
+
+	private static void readEntry(JsonReader json, DataOutputStream out, ByteArrayOutputStream data, DataOutputStream dataOut) throws IOException {
+		String ifd = null;
+		int tag = -1;
+		int format = -1;
+		long count = -1;
+		long nbValues = -1;
+		data.reset();
+		json.expect('{');
+		for (boolean first = true; json.nextKey(first); first = false) {
+			String key = json.readKey();
+			if (key.equals("ifd")) {
+				ifd = json.readString();
+			} else if (key.equals("tag")) {
+				tag = (int) json.readInteger(0, 0xFFFF);
+			} else if (key.equals("format")) {
+				format = (int) json.readInteger(1, 13);
+			} else if (key.equals("count")) {
+				count = json.readInteger(0, 0xFFFFFFFFL);
+			} else if (key.equals("value")) {
+				if ((format < 0) || (nbValues >= 0)) {
+					throw new IOException("Entry of tag " + tag + " has a value before its format, or two values");
+				}
+				nbValues = readValue(json, tag, format, dataOut);
+			} else {
+				json.skipValue();
+			}
+		}
+		if ((ifd == null) || (tag < 0) || (count < 0) || (nbValues < 0)) {
+			throw new IOException("Entry of tag " + tag + " has missing fields");
+		}
+		if (nbValues != count) {
+			throw new IOException("Entry of tag " + tag + " has " + nbValues + " values instead of " + count);
+		}
+		Exif.Directory directory;
+		try {
+			directory = Exif.Directory.valueOf(ifd);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Entry of tag " + tag + " has an unknown IFD '" + ifd + "'");
+		}
+
+		out.writeByte(directory.ordinal());
+		out.writeShort(tag);
+		out.writeShort(format);
+		out.writeInt((int) count);
+		out.writeInt(Math.max(4, data.size()));
+		data.writeTo(out);
+		for (int i = data.size(); i < 4; ++i) {
+			out.writeByte(0);
+		}
+	}
+
+	//Write the raw TIFF data (big endian) of a JSON value, and return its number of values
+	private static long readValue(JsonReader json, int tag, int format, DataOutputStream out) throws IOException {
+		if (format == 2) { //ascii, one char per byte
+			CharSequence str = json.readText();
+			for (int i = 0; i < str.length(); ++i) {
+				if (str.charAt(i) > 0xFF) {
+					throw new IOException("Entry of tag " + tag + " has a char which is not a byte in its string");
+				}
+				out.writeByte(str.charAt(i));
+			}
+			return str.length();
+		} else if (format == 7) { //undefined, base64
+			byte[] bytes;
+			try {
+				bytes = Base64.getDecoder().decode(json.readString());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Entry of tag " + tag + " has a wrong base64 value");
+			}
+			out.write(bytes);
+			return bytes.length;
+		}
+
+		long nbValues = 0;
+		json.expect('[');
+		for (boolean first = true; json.nextElement(first); first = false) {
+			if (format == 1) { //unsigned byte
+				out.writeByte((int) json.readInteger(0, 0xFF));
+			} else if (format == 3) { //unsigned short
+				out.writeShort((int) json.readInteger(0, 0xFFFF));
+			} else if ((format == 4) || (format == 13)) { //unsigned long, offset to subdirectory
+				out.writeInt((int) json.readInteger(0, 0xFFFFFFFFL));
+			} else if ((format == 5) || (format == 10)) { //rationals, [numerator, denominator]
+				long min = (format == 5) ? 0 : Integer.MIN_VALUE;
+				long max = (format == 5) ? 0xFFFFFFFFL : Integer.MAX_VALUE;
+				json.expect('[');
+				out.writeInt((int) json.readInteger(min, max));
+				json.expect(',');
+				out.writeInt((int) json.readInteger(min, max));
+				json.expect(']');
+			} else if (format == 6) { //signed byte
+				out.writeByte((int) json.readInteger(Byte.MIN_VALUE, Byte.MAX_VALUE));
+			} else if (format == 8) { //signed short
+				out.writeShort((int) json.readInteger(Short.MIN_VALUE, Short.MAX_VALUE));
+			} else if (format == 9) { //signed long
+				out.writeInt((int) json.readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE));
+			} else if (format == 11) { //float
+				out.writeFloat((float) json.readDouble());
+			} else if (format == 12) { //double
+				out.writeDouble(json.readDouble());
+			}
+			nbValues++;
+		}
+		return nbValues;
+	}
+
+	//Minimal strict JSON reader, which reads numbers without intermediate objects
+	private static class JsonReader {
+		private final Reader		_in;
+		private final StringBuilder _text = new StringBuilder();	//Last string or number read
+		private int					_next = -2;	//Next char, -2 = not read yet
+
+		private JsonReader(Reader in) {
+			_in = in;
+		}
+
+		private int peek() throws IOException {
+			if (_next == -2) {
+				_next = _in.read();
+			}
+			return _next;
+		}
+
+		private int read() throws IOException {
+			int c = peek();
+			_next = -2;
+			return c;
+		}
+
+		private int skipWhitespaces() throws IOException {
+			while ((peek() == ' ') || (peek() == '\n') || (peek() == '\r') || (peek() == '\t')) {
+				read();
+			}
+			return peek();
+		}
+
+		private IOException unexpected(String expected, int c) {
+			return new IOException("JSON: " + expected + " expected, but found " + ((c < 0) ? "end of input" : "'" + (char) c + "'"));
+		}
+
+		private void expect(char expected) throws IOException {
+			int c = skipWhitespaces();
+			if (c != expected) {
+				throw unexpected("'" + expected + "'", c);
+			}
+			read();
+		}
+
+		//In an object, after '{' (first) or a value: return true if there is another key, false (and consume '}') at the end
+		private boolean nextKey(boolean first) throws IOException {
+			return next('}', first);
+		}
+
+		//In an array, after '[' (first) or a value: return true if there is another element, false (and consume ']') at the end
+		private boolean nextElement(boolean first) throws IOException {
+			return next(']', first);
+		}
+
+		//Values are separated by exactly one ',', without one before the first value or after the last one
+		private boolean next(char end, boolean first) throws IOException {
+			int c = skipWhitespaces();
+			if (c == end) {
+				read();
+				return false;
+			}
+			if (first == false) {
+				if (c != ',') {
+					throw unexpected("',' or '" + end + "'", c);
+				}
+				read();
+				c = skipWhitespaces();
+			}
+			if ((c == ',') || (c == end) || (c < 0)) {
+				throw unexpected("value", c);
+			}
+			return true;
+		}
+
+		//Key of an object, and the ':' after it
+		private String readKey() throws IOException {
+			String key = readString();
+			expect(':');
+			return key;
+		}
+
+		private String readString() throws IOException {
+			return readText().toString();
+		}
+
+		//The returned chars are valid until the next read
+		private CharSequence readText() throws IOException {
+			expect('"');
+			_text.setLength(0);
+			while (true) {
+				int c = read();
+				if (c < 0) {
+					throw new IOException("JSON: unexpected end of input in a string");
+				} else if (c == '"') {
+					return _text;
+				} else if (c < 0x20) {
+					throw new IOException("JSON: control char 0x" + Integer.toHexString(c) + " in a string");
+				} else if (c == '\\') {
+					c = read();
+					if (c == 'u') {
+						int value = 0;
+						for (int i = 0; i < 4; ++i) {
+							int digit = Character.digit(read(), 16);
+							if (digit < 0) {
+								throw new IOException("JSON: wrong unicode escape in a string");
+							}
+							value = (value << 4) | digit;
+						}
+						_text.append((char) value);
+					} else if (c == 'n') {
+						_text.append('\n');
+					} else if (c == 't') {
+						_text.append('\t');
+					} else if (c == 'r') {
+						_text.append('\r');
+					} else if (c == 'b') {
+						_text.append('\b');
+					} else if (c == 'f') {
+						_text.append('\f');
+					} else if ((c == '"') || (c == '\\') || (c == '/')) {
+						_text.append((char) c);
+					} else {
+						throw unexpected("escape char", c);
+					}
+				} else {
+					_text.append((char) c);
+				}
+			}
+		}
+
+		//Integer number (no fraction nor exponent) between min and max
+		private long readInteger(long min, long max) throws IOException {
+			int c = skipWhitespaces();
+			boolean negative = (c == '-');
+			if (negative) {
+				read();
+				c = peek();
+			}
+			if ((c < '0') || (c > '9')) {
+				throw unexpected("integer", c);
+			}
+			long value = 0;
+			while ((c >= '0') && (c <= '9')) {
+				if (value > (Long.MAX_VALUE - 9) / 10) {
+					throw new IOException("JSON: integer is too large");
+				}
+				value = value * 10 + (read() - '0');
+				c = peek();
+			}
+			if ((c == '.') || (c == 'e') || (c == 'E')) {
+				throw unexpected("integer", c);
+			}
+			value = negative ? -value : value;
+			if ((value < min) || (value > max)) {
+				throw new IOException("JSON: " + value + " is out of [" + min + ", " + max + "]");
+			}
+			return value;
+		}
+
+		//Number, or "NaN", "Infinity" or "-Infinity" string
+		private double readDouble() throws IOException {
+			int c = skipWhitespaces();
+			if (c == '"') {
+				String str = readString();
+				if (str.equals("NaN")) {
+					return Double.NaN;
+				} else if (str.equals("Infinity")) {
+					return Double.POSITIVE_INFINITY;
+				} else if (str.equals("-Infinity")) {
+					return Double.NEGATIVE_INFINITY;
+				}
+				throw new IOException("JSON: number expected, but found \"" + str + "\"");
+			}
+			_text.setLength(0);
+			while (((c >= '0') && (c <= '9')) || (c == '-') || (c == '+') || (c == '.') || (c == 'e') || (c == 'E')) {
+				_text.append((char) read());
+				c = peek();
+			}
+			try {
+				return Double.parseDouble(_text.toString());
+			} catch (NumberFormatException e) {
+				throw unexpected("number", (_text.length() > 0) ? _text.charAt(0) : c);
+			}
+		}
+
+		//Skip any value (of an unknown key)
+		private void skipValue() throws IOException {
+			int c = skipWhitespaces();
+			if (c == '"') {
+				readText();
+			} else if (c == '[') {
+				read();
+				for (boolean first = true; nextElement(first); first = false) {
+					skipValue();
+				}
+			} else if (c == '{') {
+				read();
+				for (boolean first = true; nextKey(first); first = false) {
+					readKey();
+					skipValue();
+				}
+			} else if ((c == 't') || (c == 'f') || (c == 'n')) {
+				_text.setLength(0);
+				while ((peek() >= 'a') && (peek() <= 'z')) {
+					_text.append((char) read());
+				}
+				String word = _text.toString();
+				if ((word.equals("true") == false) && (word.equals("false") == false) && (word.equals("null") == false)) {
+					throw new IOException("JSON: unknown value '" + word + "'");
+				}
+			} else {
+				readDouble();
+			}
+		}
+	}
+}
@@ -0,0 +1,486 @@
+package exif;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Spatial index of the GPS positions of many photos, for map views: bounding box, radius and nearest queries without
+ * scanning all the photos.
+ *
+ * Each point is an id given by the caller (a row of its own table), a position, and the altitude and GPS time when
+ * known. Points are kept in primitive arrays (24 bytes per point), positions in 1e-7 degrees (about 1 cm). They are
+ * bucketed in a grid of latitude/longitude cells (cellsPerDegree cells per degree), and sorted by latitude in each cell.
+ *
+ *   ExifGeoIndex index = new ExifGeoIndex();
+ *   index.add(id, exif); //false if the photo has no GPS position
+ *   index.build();       //added points are queried after the next build
+ *   for (int point : index.findInBox(48.8, 2.2, 48.9, 2.4)) {
+ *       index.getId(point) ...
+ *   }
+ *
+ * Queries read the immutable snapshot made by the last build, without lock: they never sort the points nor allocate the
+ * grid, and run in parallel with other queries and with adds. They return point numbers, to read with the getters; a
+ * build renumbers the points, so point numbers of previous queries are then no more valid.
+ */
+public class ExifGeoIndex {
+
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	public static final double EARTH_RADIUS = 6371008.8; //Mean radius, in meters
+
+	private static final int MAGIC = 0x4A454749; //'JEGI'
+	private static final int VERSION = 1;
+	private static final double SCALE = 1e7; //Positions are stored in 1e-7 degrees
+	private static final int INITIAL_RADIUS = 1000; //Meters, first radius of the nearest search
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int READ_CHUNK = 65536; //Points allocated at a time while reading, before the data is known to be there
+
+	//Points in the order they were added, or an immutable snapshot made by build() sorted by cell then by latitude
+	private static class Points {
+		private int		_size;
+		private int[]	_cellStarts;	//Of a snapshot: first point of each cell (and size at the end), null without points
+		private int[]	_ids;
+		private int[]	_latitudes;
+		private int[]	_longitudes;
+		private float[]	_altitudes;		//NaN if unknown
+		private long[]	_timestamps;	//NO_TIMESTAMP if unknown
+
+		private Points(int capacity) {
+			_ids = new int[capacity];
+			_latitudes = new int[capacity];
+			_longitudes = new int[capacity];
+			_altitudes = new float[capacity];
+			_timestamps = new long[capacity];
+		}
+
+		private void add(int id, int latitude, int longitude, float altitude, long timestamp) {
+			if (_size == _ids.length) {
+				int capacity = Math.max(INITIAL_CAPACITY, _size * 2);
+				_ids = Arrays.copyOf(_ids, capacity);
+				_latitudes = Arrays.copyOf(_latitudes, capacity);
+				_longitudes = Arrays.copyOf(_longitudes, capacity);
+				_altitudes = Arrays.copyOf(_altitudes, capacity);
+				_timestamps = Arrays.copyOf(_timestamps, capacity);
+			}
+			_ids[_size] = id;
+			_latitudes[_size] = latitude;
+			_longitudes[_size] = longitude;
+			_altitudes[_size] = altitude;
+			_timestamps[_size] = timestamp;
+			_size++;
+		}
+
+		private void add(Points points, int point) {
+			add(points._ids[point], points._latitudes[point], points._longitudes[point], points._altitudes[point], points._timestamps[point]);
+		}
+	}
+
+	private final int		_cellsPerDegree;
+	private final int		_rows;
+	private final int		_columns;
+	private Points			_added = new Points(INITIAL_CAPACITY);	//Points added since the last build, guarded by this
+	private volatile Points	_grid = new Points(0);					//Snapshot made by the last build
+
+	public ExifGeoIndex() {
+		this(1);
+	}
+
+	//cellsPerDegree: more cells make queries on dense areas faster, but the grid takes 4 * 64800 * cellsPerDegree^2 bytes
+	public ExifGeoIndex(int cellsPerDegree) {
+		if ((cellsPerDegree < 1) || (cellsPerDegree > 16)) {
+			throw new IllegalArgumentException("Cells per degree must be between 1 and 16, but is " + cellsPerDegree);
+		}
+		_cellsPerDegree = cellsPerDegree;
+		_rows = 180 * cellsPerDegree;
+		_columns = 360 * cellsPerDegree;
+	}
+
+	//Return false if the Exif has no GPS position
+	public boolean add(int id, Exif exif) {
+		Double latitude = exif.getGPSLatitude();
+		Double longitude = exif.getGPSLongitude();
+		if ((latitude == null) || (longitude == null)) {
+			return false;
+		}
+		Double altitude = exif.getGPSAltitude();
+		Long timestamp = exif.getGPSTimestamp();
+		return add(id, latitude, longitude, (altitude == null) ? Double.NaN : altitude, (timestamp == null) ? NO_TIMESTAMP : timestamp);
+	}
+
+	//Return false if the position is not valid (out of range, or NaN). The point is queried after the next build.
+	public synchronized boolean add(int id, double latitude, double longitude, double altitude, long timestamp) {
+		if (((latitude >= -90) && (latitude <= 90) && (longitude >= -180) && (longitude <= 180)) == false) {
+			return false;
+		}
+		_added.add(id, toFixed(latitude), toFixed(longitude), (float) altitude, timestamp);
+		return true;
+	}
+
+	//Make the points added since the last build visible to the queries (renumbers all the points)
+	public synchronized void build() {
+		if (_added._size == 0) {
+			return ;
+		}
+		_grid = sort(_grid, _added);
+		_added = new Points(INITIAL_CAPACITY);
+	}
+
+	//Number of points visible to the queries (added before the last build)
+	public int size() {
+		return _grid._size;
+	}
+
+	//Number of points added since the last build
+	public synchronized int getAddedCount() {
+		return _added._size;
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Points
+	//-------------------------------------------------------------------------
+
+	public int getId(int point) {
+		Points grid = _grid;
+		return grid._ids[checkPoint(grid, point)];
+	}
+
+	public double getLatitude(int point) {
+		Points grid = _grid;
+		return grid._latitudes[checkPoint(grid, point)] / SCALE;
+	}
+
+	public double getLongitude(int point) {
+		Points grid = _grid;
+		return grid._longitudes[checkPoint(grid, point)] / SCALE;
+	}
+
+	//NaN if unknown
+	public double getAltitude(int point) {
+		Points grid = _grid;
+		return grid._altitudes[checkPoint(grid, point)];
+	}
+
+	//Milliseconds since 1970 (UTC), NO_TIMESTAMP if unknown
+	public long getTimestamp(int point) {
+		Points grid = _grid;
+		return grid._timestamps[checkPoint(grid, point)];
+	}
+
+	private static int checkPoint(Points grid, int point) {
+		if ((point < 0) || (point >= grid._size)) {
+			throw new IndexOutOfBoundsException("Point " + point + " is not in the index of " + grid._size + " points");
+		}
+		return point;
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Queries
+	//-------------------------------------------------------------------------
+
+	//Points inside the box; minLongitude greater than maxLongitude is a box across the 180th meridian
+	public int[] findInBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		Points grid = _grid;
+		PointList points = new PointList();
+		int minLat = toFixed(Math.max(-90, minLatitude));
+		int maxLat = toFixed(Math.min(90, maxLatitude));
+		if (minLongitude <= maxLongitude) {
+			collect(grid, minLat, maxLat, toFixed(Math.max(-180, minLongitude)), toFixed(Math.min(180, maxLongitude)), points);
+		} else {
+			collect(grid, minLat, maxLat, toFixed(Math.max(-180, minLongitude)), toFixed(180), points);
+			collect(grid, minLat, maxLat, toFixed(-180), toFixed(Math.min(180, maxLongitude)), points);
+		}
+		return points.toArray();
+	}
+
+	//Points at most radius meters away
+	public int[] findInRadius(double latitude, double longitude, double radius) {
+		PointList points = new PointList();
+		collectInRadius(_grid, latitude, longitude, radius, points);
+		return points.toArray();
+	}
+
+	//The count nearest points (less if the index is smaller), nearest first
+	public int[] findNearest(double latitude, double longitude, int count) {
+		Points grid = _grid;
+		count = Math.min(count, grid._size);
+		if (count <= 0) {
+			return new int[0];
+		}
+		//All the points within a radius which contains at least count points include the count nearest ones
+		PointList points = new PointList();
+		for (double radius = INITIAL_RADIUS; ; radius *= 4) {
+			points.clear();
+			collectInRadius(grid, latitude, longitude, radius, points);
+			if ((points._size >= count) || (radius > Math.PI * EARTH_RADIUS)) {
+				break;
+			}
+		}
+		//Sort the candidates by distance, as (distance in cm << 32 | candidate)
+		long[] keys = new long[points._size];
+		for (int i = 0; i < points._size; ++i) {
+			int point = points._points[i];
+			long centimeters = Math.round(distance(latitude, longitude, grid._latitudes[point] / SCALE, grid._longitudes[point] / SCALE) * 100.);
+			keys[i] = (centimeters << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] nearest = new int[count];
+		for (int i = 0; i < count; ++i) {
+			nearest[i] = points._points[(int) (keys[i] & 0xFFFFFFFFL)];
+		}
+		return nearest;
+	}
+
+	//Great circle distance in meters (haversine formula)
+	public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double lat1 = Math.toRadians(latitude1);
+		double lat2 = Math.toRadians(latitude2);
+		double sinLat = Math.sin((lat2 - lat1) / 2);
+		double sinLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+		double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	private void collectInRadius(Points grid, double latitude, double longitude, double radius, PointList points) {
+		//Bounding box of the circle, then exact distance of each point in it
+		double angle = radius / EARTH_RADIUS;
+		double minLatitude = latitude - Math.toDegrees(angle);
+		double maxLatitude = latitude + Math.toDegrees(angle);
+		int start = points._size;
+		if ((minLatitude <= -90) || (maxLatitude >= 90) || (angle >= Math.PI / 2)) { //contains a pole: all the longitudes
+			collect(grid, toFixed(Math.max(-90, minLatitude)), toFixed(Math.min(90, maxLatitude)), toFixed(-180), toFixed(180), points);
+		} else {
+			double deltaLongitude = Math.toDegrees(Math.asin(Math.min(1, Math.sin(angle) / Math.cos(Math.toRadians(latitude)))));
+			int minLat = toFixed(minLatitude);
+			int maxLat = toFixed(maxLatitude);
+			double minLongitude = longitude - deltaLongitude;
+			double maxLongitude = longitude + deltaLongitude;
+			if (deltaLongitude >= 180) {
+				collect(grid, minLat, maxLat, toFixed(-180), toFixed(180), points);
+			} else if (minLongitude < -180) {
+				collect(grid, minLat, maxLat, toFixed(-180), toFixed(maxLongitude), points);
+				collect(grid, minLat, maxLat, toFixed(minLongitude + 360), toFixed(180), points);
+			} else if (maxLongitude > 180) {
+				collect(grid, minLat, maxLat, toFixed(minLongitude), toFixed(180), points);
+				collect(grid, minLat, maxLat, toFixed(-180), toFixed(maxLongitude - 360), points);
+			} else {
+				collect(grid, minLat, maxLat, toFixed(minLongitude), toFixed(maxLongitude), points);
+			}
+		}
+		int kept = start;
+		for (int i = start; i < points._size; ++i) {
+			int point = points._points[i];
+			if (distance(latitude, longitude, grid._latitudes[point] / SCALE, grid._longitudes[point] / SCALE) <= radius) {
+				points._points[kept++] = point;
+			}
+		}
+		points._size = kept;
+	}
+
+	//Add the points of the box (in 1e-7 degrees, longitudes not across the 180th meridian)
+	private void collect(Points grid, int minLat, int maxLat, int minLon, int maxLon, PointList points) {
+		if ((grid._cellStarts == null) || (minLat > maxLat) || (minLon > maxLon)) {
+			return ;
+		}
+		int minRow = getRow(minLat);
+		int maxRow = getRow(maxLat);
+		int minColumn = getColumn(minLon);
+		int maxColumn = getColumn(maxLon);
+		for (int row = minRow; row <= maxRow; ++row) {
+			for (int column = minColumn; column <= maxColumn; ++column) {
+				int cell = row * _columns + column;
+				int end = grid._cellStarts[cell + 1];
+				//Points of a cell are sorted by latitude: start at the first one in the box
+				for (int point = lowerBound(grid, grid._cellStarts[cell], end, minLat); (point < end) && (grid._latitudes[point] <= maxLat); ++point) {
+					if ((grid._longitudes[point] >= minLon) && (grid._longitudes[point] <= maxLon)) {
+						points.add(point);
+					}
+				}
+			}
+		}
+	}
+
+	//First point of [start, end[ whose latitude is at least latitude
+	private static int lowerBound(Points grid, int start, int end, int latitude) {
+		while (start < end) {
+			int middle = (start + end) >>> 1;
+			if (grid._latitudes[middle] < latitude) {
+				start = middle + 1;
+			} else {
+				end = middle;
+			}
+		}
+		return start;
+	}
+
+	private static int toFixed(double degrees) {
+		return (int) Math.round(degrees * SCALE);
+	}
+
+	private int getRow(int latitude) {
+		return (int) Math.min(_rows - 1, ((long) latitude + 900000000L) * _cellsPerDegree / 10000000L);
+	}
+
+	private int getColumn(int longitude) {
+		return (int) Math.min(_columns - 1, ((long) longitude + 1800000000L) * _cellsPerDegree / 10000000L);
+	}
+
+	//New snapshot with the points of the grid and the added ones, sorted by cell, then by latitude in each cell
+	private Points sort(Points grid, Points added) {
+		int size = grid._size + added._size;
+		int nbCells = _rows * _columns;
+		int[] cellStarts = new int[nbCells + 1];
+		int[] cells = new int[size];
+		int[] latitudes = new int[size];
+		for (int i = 0; i < size; ++i) {
+			Points points = (i < grid._size) ? grid : added;
+			int point = (i < grid._size) ? i : i - grid._size;
+			latitudes[i] = points._latitudes[point];
+			cells[i] = getRow(latitudes[i]) * _columns + getColumn(points._longitudes[point]);
+			cellStarts[cells[i] + 1]++;
+		}
+		for (int cell = 0; cell < nbCells; ++cell) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+
+		//Counting sort by cell, then sort each cell by (latitude << 32 | point)
+		long[] keys = new long[size];
+		int[] next = Arrays.copyOf(cellStarts, nbCells);
+		for (int i = 0; i < size; ++i) {
+			keys[next[cells[i]]++] = ((long) (latitudes[i] + 900000000) << 32) | i;
+		}
+		for (int cell = 0; cell < nbCells; ++cell) {
+			if (cellStarts[cell + 1] - cellStarts[cell] > 1) {
+				Arrays.sort(keys, cellStarts[cell], cellStarts[cell + 1]);
+			}
+		}
+
+		Points sorted = new Points(size);
+		sorted._cellStarts = cellStarts;
+		for (int i = 0; i < size; ++i) {
+			int point = (int) (keys[i] & 0xFFFFFFFFL);
+			if (point < grid._size) {
+				sorted.add(grid, point);
+			} else {
+				sorted.add(added, point - grid._size);
+			}
+		}
+		return sorted;
+	}
+
+	//Growing list of point numbers
+	private static class PointList {
+		private int[] _points = new int[16];
+		private int	  _size;
+
+		private void add(int point) {
+			if (_size == _points.length) {
+				_points = Arrays.copyOf(_points, _size * 2);
+			}
+			_points[_size++] = point;
+		}
+
+		private void clear() {
+			_size = 0;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(_points, _size);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Serialization
+	//-------------------------------------------------------------------------
+	//  magic (int), version (int), cells per degree (int), number of points (int)
+	//  then each array: ids (int), latitudes (int, 1e-7 degrees), longitudes (int), altitudes (float), timestamps (long)
+
+	//Write all the points, including the ones added since the last build
+	public synchronized void write(DataOutput out) throws IOException {
+		Points[] all = new Points[] { _grid, _added };
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(_cellsPerDegree);
+		out.writeInt(all[0]._size + all[1]._size);
+		for (Points points : all) {
+			for (int i = 0; i < points._size; ++i) {
+				out.writeInt(points._ids[i]);
+			}
+		}
+		for (Points points : all) {
+			for (int i = 0; i < points._size; ++i) {
+				out.writeInt(points._latitudes[i]);
+			}
+		}
+		for (Points points : all) {
+			for (int i = 0; i < points._size; ++i) {
+				out.writeInt(points._longitudes[i]);
+			}
+		}
+		for (Points points : all) {
+			for (int i = 0; i < points._size; ++i) {
+				out.writeFloat(points._altitudes[i]);
+			}
+		}
+		for (Points points : all) {
+			for (int i = 0; i < points._size; ++i) {
+				out.writeLong(points._timestamps[i]);
+			}
+		}
+	}
+
+	//The read index is built
+	public static ExifGeoIndex read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not an EXIF GPS index");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("EXIF GPS index version " + version + " is not supported");
+		}
+		int cellsPerDegree = in.readInt();
+		int size = in.readInt();
+		if ((cellsPerDegree < 1) || (cellsPerDegree > 16) || (size < 0)) {
+			throw new IOException("Corrupted EXIF GPS index: " + cellsPerDegree + " cells per degree, " + size + " points");
+		}
+		ExifGeoIndex index = new ExifGeoIndex(cellsPerDegree);
+		//Ids are read in growing arrays, so a corrupted size fails at the end of the data instead of allocating it.
+		//Once they are read, the data is known to be long enough for the other arrays.
+		Points points = new Points(0);
+		points._ids = new int[Math.min(size, READ_CHUNK)];
+		for (int i = 0; i < size; ++i) {
+			if (i == points._ids.length) {
+				points._ids = Arrays.copyOf(points._ids, (int) Math.min(size, 2L * i));
+			}
+			points._ids[i] = in.readInt();
+		}
+		points._latitudes = new int[size];
+		points._longitudes = new int[size];
+		points._altitudes = new float[size];
+		points._timestamps = new long[size];
+		for (int i = 0; i < size; ++i) {
+			points._latitudes[i] = in.readInt();
+		}
+		for (int i = 0; i < size; ++i) {
+			points._longitudes[i] = in.readInt();
+		}
+		for (int i = 0; i < size; ++i) {
+			points._altitudes[i] = in.readFloat();
+		}
+		for (int i = 0; i < size; ++i) {
+			points._timestamps[i] = in.readLong();
+		}
+		for (int i = 0; i < size; ++i) {
+			//Both bounds are compared: the absolute value of Integer.MIN_VALUE is negative
+			int latitude = points._latitudes[i];
+			int longitude = points._longitudes[i];
+			if ((latitude < -900000000) || (latitude > 900000000) || (longitude < -1800000000) || (longitude > 1800000000)) {
+				throw new IOException("Corrupted EXIF GPS index: point " + i + " is out of range");
+			}
+		}
+		points._size = size;
+		index._added = points;
+		index.build();
+		return index;
+	}
+}
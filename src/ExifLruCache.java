@@ -0,0 +1,234 @@
+package exif;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * In memory cache of parsed files, for servers which parse the same files again and again.
+ *
+ * The least recently used files are evicted when the total weight of the cached Exif objects is over the capacity.
+ * The weight of an Exif estimates its memory: ENTRY_WEIGHT bytes per extracted entry (and one more for the object
+ * itself), plus the TIFF data it keeps to decode the values (which holds the thumbnail).
+ *
+ * A file is parsed only once when several threads ask it at the same time: the first one parses it, the others wait
+ * for its result. A cached file is checked with one stat, and parsed again when its size or modification time has
+ * changed. Parse errors are not cached, all the threads waiting for a parse get its error, the next call parses again.
+ *
+ * All the methods can be called by several threads at the same time.
+ */
+public class ExifLruCache {
+
+	public static final int ENTRY_WEIGHT = 64;
+
+	private final long		   _capacity;
+	private final Exif.Options _options;
+	private final Object	   _lock = new Object();
+	private final LinkedHashMap<String, Node> _nodes = new LinkedHashMap<String, Node>(16, 0.75f, true); //access order
+	private long			   _weight;
+	private long			   _hits;
+	private long			   _misses;
+	private long			   _evictions;
+	private long			   _invalidations;
+
+	//A cached file, its Exif is parsed by the first thread which asked it
+	private static class Node {
+		private final long _size;
+		private final long _modifiedTime;
+		private final FutureTask<Exif> _task;
+		private long	   _weight;	//0 while parsing
+
+		private Node(long size, long modifiedTime, FutureTask<Exif> task) {
+			_size = size;
+			_modifiedTime = modifiedTime;
+			_task = task;
+		}
+	}
+
+	//capacity: maximum total weight (about bytes) of the cached Exif objects
+	public ExifLruCache(long capacity) {
+		this(capacity, new Exif.Options());
+	}
+
+	public ExifLruCache(long capacity, Exif.Options options) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be greater than 0, but is " + capacity);
+		}
+		_capacity = capacity;
+		_options = options;
+	}
+
+	//Return the cached Exif if the file has not changed, otherwise parse it
+	public Exif get(final Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final String key = path.toAbsolutePath().normalize().toString();
+		long size = attributes.size();
+		long modifiedTime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+
+		Node node;
+		boolean isLoader = false;
+		synchronized (_lock) {
+			node = _nodes.get(key);
+			if ((node != null) && ((node._size != size) || (node._modifiedTime != modifiedTime))) {
+				remove(key);
+				_invalidations++;
+				node = null;
+			}
+			if (node == null) {
+				node = new Node(size, modifiedTime, new FutureTask<Exif>(new Callable<Exif>() {
+					@Override
+					public Exif call() throws IOException {
+						return new Exif(path, _options);
+					}
+				}));
+				_nodes.put(key, node);
+				_misses++;
+				isLoader = true;
+			} else {
+				_hits++;
+			}
+		}
+
+		if (isLoader) {
+			node._task.run();
+			loaded(key, node);
+		}
+		return getResult(node);
+	}
+
+	//Account the weight of a parsed file, or forget it if the parse failed
+	private void loaded(String key, Node node) {
+		Exif exif;
+		try {
+			exif = node._task.get();
+		} catch (Exception e) {
+			synchronized (_lock) {
+				if (_nodes.get(key) == node) {
+					remove(key);
+				}
+			}
+			return;
+		}
+		synchronized (_lock) {
+			if (_nodes.get(key) == node) { //not invalidated meanwhile
+				node._weight = getWeight(exif);
+				_weight += node._weight;
+				evict();
+			}
+		}
+	}
+
+	private Exif getResult(Node node) throws IOException {
+		try {
+			return node._task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the parse of another thread");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	//Estimated memory of an Exif, always greater than 0
+	public static long getWeight(Exif exif) {
+		return (long) ENTRY_WEIGHT * (1 + exif.getExtractedCount()) + Math.max(exif.getRetainedLength(), exif.getThumbnailLength());
+	}
+
+	//Remove the least recently used files until the weight is under the capacity (files being parsed are kept)
+	private void evict() {
+		Iterator<Map.Entry<String, Node>> it = _nodes.entrySet().iterator();
+		while ((_weight > _capacity) && it.hasNext()) {
+			Node node = it.next().getValue();
+			if (node._weight > 0) {
+				it.remove();
+				_weight -= node._weight;
+				_evictions++;
+			}
+		}
+	}
+
+	private void remove(String key) {
+		Node node = _nodes.remove(key);
+		if (node != null) {
+			_weight -= node._weight;
+		}
+	}
+
+	public void invalidate(Path path) {
+		synchronized (_lock) {
+			remove(path.toAbsolutePath().normalize().toString());
+		}
+	}
+
+	public void clear() {
+		synchronized (_lock) {
+			_nodes.clear();
+			_weight = 0;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Counters
+	//-------------------------------------------------------------------------
+
+	public long getHits() {
+		synchronized (_lock) {
+			return _hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized (_lock) {
+			return _misses;
+		}
+	}
+
+	public long getEvictions() {
+		synchronized (_lock) {
+			return _evictions;
+		}
+	}
+
+	//Files parsed again because they have changed
+	public long getInvalidations() {
+		synchronized (_lock) {
+			return _invalidations;
+		}
+	}
+
+	public long getWeight() {
+		synchronized (_lock) {
+			return _weight;
+		}
+	}
+
+	public int size() {
+		synchronized (_lock) {
+			return _nodes.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (_lock) {
+			return _nodes.size() + " files (weight " + _weight + " / " + _capacity + ") : " + _hits + " hits, " + _misses + " misses, " + _evictions + " evictions, " + _invalidations + " invalidations";
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package exif;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*
+ * Change tag values directly in the file, without rewriting it: the new value overwrites the old one at its position,
+ * with one small positional write. Only values of the same size can be written (same format and count), which covers
+ * the usual fixes, as setting Orientation to 1 after rotating the pixels:
+ *
+ *   ExifPatcher patcher = new ExifPatcher(path);
+ *   try {
+ *       patcher.setInteger(0x0112, 1);
+ *   } finally {
+ *       patcher.close();
+ *   }
+ *
+ * The file is parsed once by the constructor (give options with a tag selection to only extract the tags to patch).
+ * Before each write, the old value is read again from the file: if it is not the parsed one, the file has been changed
+ * by someone else and nothing is written. The CRC of a PNG eXIf chunk is computed again after each write.
+ * The Exif returned by getExif() keeps the values parsed before the patches.
+ */
+public class ExifPatcher implements Closeable {
+
+	private final FileChannel _channel;
+	private final Exif		  _exif;
+
+	public ExifPatcher(Path path) throws IOException {
+		this(path, new Exif.Options());
+	}
+
+	public ExifPatcher(Path path, Exif.Options options) throws IOException {
+		_channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			_exif = new Exif(_channel, options);
+		} catch (IOException e) {
+			_channel.close();
+			throw e;
+		}
+	}
+
+	public Exif getExif() {
+		return _exif;
+	}
+
+	//Integer value (byte, short or long, signed or not) of a tag with a single value
+	public void setInteger(int tagValue, long value) throws IOException {
+		int index = findEntry(tagValue);
+		int format = _exif.getEntryFormat(index);
+		if (_exif.getEntryCount(index) != 1) {
+			throw new IOException("Tag 0x" + String.format("%04X", tagValue) + " has " + (_exif.getEntryCount(index) & 0xFFFFFFFFL) + " values, not 1");
+		}
+		long min;
+		long max;
+		if (format == 1) { //unsigned byte
+			min = 0;
+			max = 0xFF;
+		} else if (format == 3) { //unsigned short
+			min = 0;
+			max = 0xFFFF;
+		} else if ((format == 4) || (format == 13)) { //unsigned long
+			min = 0;
+			max = 0xFFFFFFFFL;
+		} else if (format == 6) { //signed byte
+			min = Byte.MIN_VALUE;
+			max = Byte.MAX_VALUE;
+		} else if (format == 8) { //signed short
+			min = Short.MIN_VALUE;
+			max = Short.MAX_VALUE;
+		} else if (format == 9) { //signed long
+			min = Integer.MIN_VALUE;
+			max = Integer.MAX_VALUE;
+		} else {
+			throw new IOException("Tag 0x" + String.format("%04X", tagValue) + " is not an integer (format " + format + ")");
+		}
+		if ((value < min) || (value > max)) {
+			throw new IOException("Value " + value + " does not fit the format " + format + " of tag 0x" + String.format("%04X", tagValue));
+		}
+
+		ByteBuffer data = ByteBuffer.allocate(4).order(_exif.getByteOrder());
+		if ((format == 1) || (format == 6)) {
+			data.put((byte) value);
+		} else if ((format == 3) || (format == 8)) {
+			data.putShort((short) value);
+		} else {
+			data.putInt((int) value);
+		}
+		data.flip();
+		write(tagValue, index, data);
+	}
+
+	//Ascii value: the string must not be longer than the old one (without its ending zero), it is padded with zeros
+	public void setString(int tagValue, String value) throws IOException {
+		int index = findEntry(tagValue);
+		if (_exif.getEntryFormat(index) != 2) {
+			throw new IOException("Tag 0x" + String.format("%04X", tagValue) + " is not an ascii string (format " + _exif.getEntryFormat(index) + ")");
+		}
+		int count = _exif.getEntryCount(index);
+		byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+		if ((count < 0) || (bytes.length >= count)) {
+			throw new IOException("'" + value + "' is too long for tag 0x" + String.format("%04X", tagValue) + ", at most " + (count - 1) + " chars");
+		}
+		write(tagValue, index, ByteBuffer.wrap(Arrays.copyOf(bytes, count)));
+	}
+
+	//Raw value, in the byte order of the file (see getExif().getByteOrder()), with exactly the length of the old one
+	public void setRaw(int tagValue, byte[] data) throws IOException {
+		int index = findEntry(tagValue);
+		write(tagValue, index, ByteBuffer.wrap(data));
+	}
+
+	private int findEntry(int tagValue) throws IOException {
+		int index = _exif.findEntry(tagValue);
+		if (index < 0) {
+			throw new IOException("Tag 0x" + String.format("%04X", tagValue) + " is not in the file (or not extracted)");
+		}
+		return index;
+	}
+
+	//Overwrite the value of an entry, if the file still has the parsed value
+	private void write(int tagValue, int index, ByteBuffer data) throws IOException {
+		long length = _exif.getEntryLength(index);
+		if (data.remaining() != length) {
+			throw new IOException("Tag 0x" + String.format("%04X", tagValue) + " value is " + length + " bytes, not " + data.remaining());
+		}
+		long position = _exif.getEntrySourcePosition(index);
+
+		ByteBuffer parsed = _exif.getEntryData(index);
+		parsed.limit((int) length);
+		ByteBuffer current = ByteBuffer.allocate((int) length);
+		while (current.hasRemaining()) {
+			if (_channel.read(current, position + current.position()) < 0) {
+				break;
+			}
+		}
+		current.flip();
+		if (current.equals(parsed) == false) {
+			throw new IOException("Tag 0x" + String.format("%04X", tagValue) + " has been changed in the file since it was parsed");
+		}
+
+		while (data.hasRemaining()) {
+			_channel.write(data, position + length - data.remaining());
+		}
+		if (_exif.getCRCChunkPosition() >= 0) {
+			updateCRC(_exif.getCRCChunkPosition(), _exif.getCRCChunkLength());
+		}
+	}
+
+	//Compute again the CRC of a PNG chunk (type and data), written after its data
+	private void updateCRC(long position, int length) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(4 + length);
+		while (chunk.hasRemaining()) {
+			if (_channel.read(chunk, position + chunk.position()) < 0) {
+				throw new IOException("Unexpected end of file while reading the PNG chunk at " + position);
+			}
+		}
+		chunk.flip();
+		CRC32 crc = new CRC32();
+		crc.update(chunk);
+		ByteBuffer value = ByteBuffer.allocate(4);
+		value.putInt(0, (int) crc.getValue());
+		while (value.hasRemaining()) {
+			_channel.write(value, position + 4 + length + value.position());
+		}
+	}
+
+	//Close the file (the written values are already in it)
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+}
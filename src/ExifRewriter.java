@@ -0,0 +1,345 @@
+package exif;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copy of a JPEG file without its EXIF APP1 segment, or with another one, for privacy (GPS removal) and size:
+ *
+ *   ExifRewriter.strip(source, target);
+ *   ExifRewriter.replace(source, target, ExifRewriter.toTiff(new Exif(source), true, Exif.Directory.GPS));
+ *
+ * The EXIF segments are located by walking the JPEG segments, without decoding them (a corrupted EXIF segment is
+ * stripped too): the bytes around them are copied with FileChannel.transferTo, so the image data is moved by the OS
+ * without going through Java buffers. The target is byte identical to the source outside the EXIF segments.
+ */
+public class ExifRewriter {
+
+	private static final int MAX_APP1_TIFF_LENGTH = 0xFFFF - 2 - 6;	//APP1 length (2 bytes) includes itself and the 'Exif00' header
+
+	private ExifRewriter() {
+	}
+
+	//Write a copy of the source without its EXIF data. Return false if the source has no EXIF segment (the target is then an exact copy).
+	public static boolean strip(Path source, Path target) throws IOException {
+		return rewrite(source, target, null);
+	}
+
+	//Write a copy of the source with the given TIFF data (between its position and its limit) as EXIF data.
+	//Without EXIF data in the source, the new APP1 segment is inserted after the SOI marker (and the JFIF APP0 segment).
+	public static void replace(Path source, Path target, ByteBuffer tiff) throws IOException {
+		if (tiff.remaining() > MAX_APP1_TIFF_LENGTH) {
+			throw new IOException("TIFF data of " + tiff.remaining() + " bytes does not fit an APP1 segment (at most " + MAX_APP1_TIFF_LENGTH + " bytes)");
+		}
+		rewrite(source, target, tiff);
+	}
+
+	//Return false if the source has no EXIF segment
+	private static boolean rewrite(Path source, Path target, ByteBuffer tiff) throws IOException {
+		if (Files.exists(target) && Files.isSameFile(source, target)) {
+			throw new IOException("Can not rewrite '" + source + "' into itself");
+		}
+		FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			ByteBuffer soi = ByteBuffer.allocate(2);
+			in.read(soi, 0);
+			if (((soi.get(0) & 0xFF) != 0xFF) || ((soi.get(1) & 0xFF) != 0xD8)) {
+				throw new IOException("'" + source + "' is not a JPEG file, only the EXIF segment of JPEG files can be rewritten");
+			}
+			List<long[]> segments = findExifSegments(in);
+			long size = in.size();
+			boolean found = (segments.isEmpty() == false);
+			long insertPosition = found ? segments.get(0)[0] : Math.min(size, getInsertPosition(in));
+
+			//Written in a temporary file which then replaces the target, so a failed copy does not leave a truncated target
+			Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+			FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				//Copy the bytes between the EXIF segments, the new one takes the place of the first one
+				long position = 0;
+				segments.add(new long[] { size, 0 });
+				for (long[] segment : segments) {
+					if ((tiff != null) && (position <= insertPosition) && (insertPosition <= segment[0])) {
+						transfer(in, position, insertPosition - position, out);
+						writeSegment(tiff, out);
+						position = insertPosition;
+					}
+					transfer(in, position, segment[0] - position, out);
+					position = segment[0] + segment[1];
+				}
+			} catch (IOException e) {
+				out.close();
+				Files.deleteIfExists(temporary);
+				throw e;
+			}
+			out.close();
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return found;
+		} finally {
+			in.close();
+		}
+	}
+
+	//EXIF APP1 segments of a JPEG file, as [position, length], found by walking the segments up to the image data.
+	//Their content is not decoded, so corrupted EXIF data is found (and removed) too.
+	private static List<long[]> findExifSegments(FileChannel in) throws IOException {
+		List<long[]> segments = new ArrayList<long[]>();
+		long size = in.size();
+		long position = 2;
+		long strayBytes = 0; //bytes between segments which are not a marker, skipped like the parser does
+		long maxStrayBytes = new Exif.Options().getMaxScanLength();
+		ByteBuffer header = ByteBuffer.allocate(9); //marker, length, 'Exif0'
+		while (position + 2 <= size) {
+			header.clear();
+			while (header.hasRemaining()) {
+				if (in.read(header, position + header.position()) < 0) {
+					break;
+				}
+			}
+			int b0 = header.get(0) & 0xFF;
+			int b1 = header.get(1) & 0xFF;
+			if (b0 != 0xFF) {
+				if (++strayBytes > maxStrayBytes) {
+					throw new IOException("More than " + maxStrayBytes + " bytes which are not JPEG markers between segments");
+				}
+				position += 1;
+			} else if (b1 == 0xFF) { //fill byte
+				position += 1;
+			} else if ((b1 == 0xDA) || (b1 == 0xD9)) { //start of scan or end of image: no more metadata
+				break;
+			} else if (((b1 >= 0xD0) && (b1 <= 0xD7)) || (b1 == 0x01)) { //marker without length
+				position += 2;
+			} else {
+				int length = (header.position() >= 4) ? header.getShort(2) & 0xFFFF : -1;
+				if ((length < 2) || (position + 2 + length > size)) {
+					throw new IOException("Segment 0x" + String.format("%02X", b1) + " at " + position + " has a length of " + length + " bytes, out of the file");
+				}
+				if ((b1 == 0xE1) && (length >= 7) && (header.getInt(4) == 0x45786966) && (header.get(8) == 0)) { //'Exif0'
+					segments.add(new long[] { position, 2 + length });
+				}
+				position += 2 + length;
+			}
+		}
+		return segments;
+	}
+
+	private static void writeSegment(ByteBuffer tiff, FileChannel out) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(10);
+		header.putShort((short) 0xFFE1);
+		header.putShort((short) (2 + 6 + tiff.remaining()));
+		header.putInt(0x45786966); //Exif00
+		header.putShort((short) 0);
+		header.flip();
+		ByteBuffer data = tiff.duplicate();
+		while (header.hasRemaining() || data.hasRemaining()) {
+			out.write(new ByteBuffer[] { header, data });
+		}
+	}
+
+	//After the SOI marker, and after the APP0 segment which must be first in JFIF files
+	private static long getInsertPosition(FileChannel in) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		while (header.hasRemaining()) {
+			if (in.read(header, 2 + header.position()) < 0) {
+				break;
+			}
+		}
+		if ((header.position() == 4) && ((header.get(0) & 0xFF) == 0xFF) && ((header.get(1) & 0xFF) == 0xE0)) {
+			return 2 + 2 + (header.getShort(2) & 0xFFFF);
+		}
+		return 2;
+	}
+
+	//Copy [position, position+length[ of the input at the end of the output
+	private static void transfer(FileChannel in, long position, long length, FileChannel out) throws IOException {
+		while (length > 0) {
+			long transferred = in.transferTo(position, length, out);
+			if (transferred <= 0) {
+				throw new IOException("Unexpected end of file at " + position + " while copying");
+			}
+			position += transferred;
+			length -= transferred;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+	//-- TIFF serialization
+	//-------------------------------------------------------------------------
+
+	//An IFD entry to write, with its raw data
+	private static class Field {
+		private final int _tag;
+		private final int _format;
+		private final int _count;
+		private final ByteBuffer _data;
+
+		private Field(int tag, int format, int count, ByteBuffer data) {
+			_tag = tag;
+			_format = format;
+			_count = count;
+			_data = data;
+		}
+
+		//Bytes after the IFD, for a value longer than the 4 bytes of the entry (word aligned)
+		private int getOutOfLineLength() {
+			int length = _data.remaining();
+			return (length <= 4) ? 0 : length + (length & 1);
+		}
+	}
+
+	/*
+	 * New TIFF data with the extracted entries of the Exif (in its byte order), without the removed directories:
+	 * IFD0 with the Exif, Interoperability and GPS IFDs it points to, and an IFD1 for the thumbnail when withThumbnail is true.
+	 * Values are copied raw. MakerNote and sub images are not written: their data contain offsets which can not be moved.
+	 */
+	public static ByteBuffer toTiff(Exif exif, boolean withThumbnail, Exif.Directory... removed) {
+		ByteOrder order = (exif.getByteOrder() == null) ? ByteOrder.BIG_ENDIAN : exif.getByteOrder();
+		List<Exif.Directory> removedDirectories = Arrays.asList(removed);
+		Map<Exif.Directory, List<Field>> directories = new EnumMap<Exif.Directory, List<Field>>(Exif.Directory.class);
+		for (Exif.Directory directory : new Exif.Directory[] { Exif.Directory.IFD0, Exif.Directory.EXIF, Exif.Directory.INTEROPERABILITY, Exif.Directory.GPS }) {
+			if (removedDirectories.contains(directory) == false) {
+				directories.put(directory, new ArrayList<Field>());
+			}
+		}
+		for (int i = 0; i < exif.getExtractedCount(); ++i) {
+			List<Field> fields = directories.get(exif.getEntryDirectory(i));
+			if (fields != null) {
+				ByteBuffer data = exif.getEntryData(i);
+				data.limit((int) exif.getEntryLength(i));
+				fields.add(new Field(exif.getEntryTag(i), exif.getEntryFormat(i), exif.getEntryCount(i), data));
+			}
+		}
+		ByteBuffer thumbnail = withThumbnail ? exif.getThumbnailBytes() : null;
+		List<Field> ifd0 = directories.containsKey(Exif.Directory.IFD0) ? directories.get(Exif.Directory.IFD0) : new ArrayList<Field>();
+		List<Field> exifIFD = getFields(directories, Exif.Directory.EXIF);
+		List<Field> interoperability = getFields(directories, Exif.Directory.INTEROPERABILITY);
+		List<Field> gps = getFields(directories, Exif.Directory.GPS);
+		List<Field> ifd1 = null;
+
+		//Pointers to the sub IFDs, their values are set once the layout is known
+		if ((interoperability != null) && (exifIFD == null)) {
+			if (directories.containsKey(Exif.Directory.EXIF)) {
+				exifIFD = new ArrayList<Field>();
+			} else {
+				interoperability = null; //only pointed by the Exif IFD
+			}
+		}
+		Field exifPointer = addPointer(ifd0, 0x8769, exifIFD, order);
+		Field gpsPointer = addPointer(ifd0, 0x8825, gps, order);
+		Field interoperabilityPointer = addPointer(exifIFD, 0xa005, interoperability, order);
+		Field thumbnailOffset = null;
+		if (thumbnail != null) {
+			ifd1 = new ArrayList<Field>();
+			ifd1.add(new Field(0x0103, 3, 1, ByteBuffer.allocate(2).order(order).putShort(0, (short) 6))); //Compression: JPEG
+			thumbnailOffset = new Field(0x0201, 4, 1, ByteBuffer.allocate(4).order(order));
+			ifd1.add(thumbnailOffset);
+			ifd1.add(new Field(0x0202, 4, 1, ByteBuffer.allocate(4).order(order).putInt(0, thumbnail.remaining())));
+		}
+
+		//Layout: header, IFD0, Exif IFD, Interoperability IFD, GPS IFD, IFD1, thumbnail
+		int ifd0Offset = 8;
+		int exifOffset = ifd0Offset + getIFDLength(ifd0);
+		int interoperabilityOffset = exifOffset + getIFDLength(exifIFD);
+		int gpsOffset = interoperabilityOffset + getIFDLength(interoperability);
+		int ifd1Offset = gpsOffset + getIFDLength(gps);
+		int thumbnailPosition = ifd1Offset + getIFDLength(ifd1);
+		int length = thumbnailPosition + ((thumbnail == null) ? 0 : thumbnail.remaining());
+
+		setPointer(exifPointer, exifOffset);
+		setPointer(gpsPointer, gpsOffset);
+		setPointer(interoperabilityPointer, interoperabilityOffset);
+		setPointer(thumbnailOffset, thumbnailPosition);
+
+		ByteBuffer tiff = ByteBuffer.allocate(length).order(order);
+		tiff.putShort((short) ((order == ByteOrder.LITTLE_ENDIAN) ? 0x4949 : 0x4D4D));
+		tiff.putShort((short) 42);
+		tiff.putInt(ifd0Offset);
+		writeIFD(tiff, ifd0Offset, ifd0, (ifd1 == null) ? 0 : ifd1Offset);
+		writeIFD(tiff, exifOffset, exifIFD, 0);
+		writeIFD(tiff, interoperabilityOffset, interoperability, 0);
+		writeIFD(tiff, gpsOffset, gps, 0);
+		writeIFD(tiff, ifd1Offset, ifd1, 0);
+		if (thumbnail != null) {
+			tiff.position(thumbnailPosition);
+			tiff.put(thumbnail.duplicate());
+		}
+		tiff.clear();
+		return tiff;
+	}
+
+	//Fields of a directory, or null if it is removed or empty
+	private static List<Field> getFields(Map<Exif.Directory, List<Field>> directories, Exif.Directory directory) {
+		List<Field> fields = directories.get(directory);
+		return ((fields == null) || fields.isEmpty()) ? null : fields;
+	}
+
+	private static Field addPointer(List<Field> fields, int tag, List<Field> pointed, ByteOrder order) {
+		if ((fields == null) || (pointed == null)) {
+			return null;
+		}
+		Field pointer = new Field(tag, 4, 1, ByteBuffer.allocate(4).order(order));
+		fields.add(pointer);
+		return pointer;
+	}
+
+	private static void setPointer(Field pointer, int offset) {
+		if (pointer != null) {
+			pointer._data.putInt(0, offset);
+		}
+	}
+
+	//Entries count, entries, next IFD offset, then the values longer than 4 bytes
+	private static int getIFDLength(List<Field> fields) {
+		if (fields == null) {
+			return 0;
+		}
+		int length = 2 + 12 * fields.size() + 4;
+		for (Field field : fields) {
+			length += field.getOutOfLineLength();
+		}
+		return length;
+	}
+
+	private static void writeIFD(ByteBuffer tiff, int offset, List<Field> fields, int nextIFDOffset) {
+		if (fields == null) {
+			return ;
+		}
+		Collections.sort(fields, new Comparator<Field>() { //TIFF entries are sorted by tag
+			@Override
+			public int compare(Field f1, Field f2) {
+				return (f1._tag < f2._tag) ? -1 : ((f1._tag == f2._tag) ? 0 : 1);
+			}
+		});
+		int dataOffset = offset + 2 + 12 * fields.size() + 4;
+		tiff.putShort(offset, (short) fields.size());
+		int entryPosition = offset + 2;
+		for (Field field : fields) {
+			tiff.putShort(entryPosition, (short) field._tag);
+			tiff.putShort(entryPosition + 2, (short) field._format);
+			tiff.putInt(entryPosition + 4, field._count);
+			if (field.getOutOfLineLength() == 0) {
+				tiff.position(entryPosition + 8);
+			} else {
+				tiff.putInt(entryPosition + 8, dataOffset);
+				tiff.position(dataOffset);
+				dataOffset += field.getOutOfLineLength();
+			}
+			tiff.put(field._data.duplicate());
+			entryPosition += 12;
+		}
+		tiff.putInt(entryPosition, nextIFDOffset);
+	}
+}
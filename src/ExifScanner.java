@@ -0,0 +1,312 @@
+package exif;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/*
+ * Parse a lot of files in parallel with Exif.
+ *
+ * Files are parsed on the given executor (default a pool of daemon threads of the scanner, as parsing blocks on file
+ * reads), and each result is given to the handler as soon as its file is parsed, from the thread which parsed it. A file
+ * which can not be parsed gives a result with its error, the scan goes on with the next files. An exception thrown by
+ * the handler stops the scan: no more file is submitted, and scan() throws it once the submitted files are parsed.
+ *
+ * The number of files being parsed at the same time is limited (default 2 per core): the scan waits for a free slot
+ * before submitting the next file, so the executor queue never holds the whole tree, and the disk is not flooded
+ * with more reads than it can serve. The limit can be raised for executors with many threads (virtual threads) on
+ * network or SSD storage.
+ *
+ * The scanner has no state: it can be used for several scans at the same time. The options are shared by all the
+ * parses, so they must not be modified during a scan (and an options listener must be thread safe).
+ */
+public class ExifScanner {
+
+	private final Executor	   _executor;
+	private final Exif.Options _options;
+	private final ExifCache	   _cache;	//null = files are always parsed
+	private final int		   _maxParallelFiles;
+
+	//Threads of the default pool are created when needed (at most maxParallelFiles are used at a time), and end after 60 s without work
+	public ExifScanner() {
+		this(Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger _threads = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ExifScanner-" + _threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}), new Exif.Options(), 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public ExifScanner(Executor executor, Exif.Options options, int maxParallelFiles) {
+		this(executor, options, null, maxParallelFiles);
+	}
+	
+	//Unchanged files are read from the cache (which has its own options), instead of being parsed
+	public ExifScanner(Executor executor, ExifCache cache, int maxParallelFiles) {
+		this(executor, (cache == null) ? null : cache.getOptions(), cache, maxParallelFiles);
+	}
+	
+	private ExifScanner(Executor executor, Exif.Options options, ExifCache cache, int maxParallelFiles) {
+		if ((executor == null) || (options == null)) {
+			throw new IllegalArgumentException("Executor and options must not be null");
+		}
+		if (maxParallelFiles < 1) {
+			throw new IllegalArgumentException("At least 1 file must be parsed at a time, but max is " + maxParallelFiles);
+		}
+		_executor = executor;
+		_options = options;
+		_cache = cache;
+		_maxParallelFiles = maxParallelFiles;
+	}
+
+	//Called from the executor threads, so it can be called by several threads at the same time.
+	//A runtime exception stops the scan, and is thrown by scan().
+	public interface ResultHandler {
+		void onResult(Result result);
+	}
+
+	public static class Result {
+		private final Path		_path;
+		private final long		_size;
+		private final Exif		_exif;
+		private final Exception _error;
+
+		private Result(Path path, long size, Exif exif, Exception error) {
+			_path = path;
+			_size = size;
+			_exif = exif;
+			_error = error;
+		}
+
+		public Path getPath() {
+			return _path;
+		}
+
+		//Size of the file in bytes, or -1 if the file could not be opened
+		public long getSize() {
+			return _size;
+		}
+
+		//Null when the parse failed
+		public Exif getExif() {
+			return _exif;
+		}
+
+		//Null when the parse succeeded
+		public Exception getError() {
+			return _error;
+		}
+
+		public boolean isError() {
+			return _error != null;
+		}
+	}
+
+	public static class Stats {
+		private final long _files;
+		private final long _bytes;
+		private final long _errors;
+		private final long _elapsedNanos;
+
+		private Stats(long files, long bytes, long errors, long elapsedNanos) {
+			_files = files;
+			_bytes = bytes;
+			_errors = errors;
+			_elapsedNanos = elapsedNanos;
+		}
+
+		//Number of results given to the handler (including errors)
+		public long getFiles() {
+			return _files;
+		}
+
+		//Total size of the parsed files (only the EXIF part of each file is actually read)
+		public long getBytes() {
+			return _bytes;
+		}
+
+		public long getErrors() {
+			return _errors;
+		}
+
+		public long getElapsedNanos() {
+			return _elapsedNanos;
+		}
+
+		public double getFilesPerSecond() {
+			return (_elapsedNanos == 0) ? 0 : _files * 1e9 / _elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return _files + " files (" + _errors + " errors, " + _bytes + " bytes) in " + (_elapsedNanos / 1000000) + " ms : " + String.format("%.1f", getFilesPerSecond()) + " files/s";
+		}
+	}
+
+	//-------------------------------------------------------------------------
+	//-- Scan
+	//-------------------------------------------------------------------------
+
+	//Parse all the regular files of the tree; files or directories which can not be read are reported as errors
+	public Stats scan(Path directory, final ResultHandler handler) throws IOException {
+		final Scan scan = new Scan(handler);
+		try {
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile()) {
+						scan.submit(file);
+					}
+					return scan.isStopped() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException error) {
+					scan.report(new Result(file, -1, null, error));
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} finally {
+			scan.await();
+		}
+		scan.checkHandler();
+		return scan.stats();
+	}
+
+	//Parse all the given files, the stream is consumed (but not closed) by the calling thread
+	public Stats scan(Stream<Path> paths, ResultHandler handler) throws IOException {
+		Scan scan = new Scan(handler);
+		try {
+			Iterator<Path> it = paths.iterator();
+			while (it.hasNext() && (scan.isStopped() == false)) {
+				scan.submit(it.next());
+			}
+		} finally {
+			scan.await();
+		}
+		scan.checkHandler();
+		return scan.stats();
+	}
+
+	//State of one scan, shared by the submitting thread and the executor threads
+	private class Scan {
+		private final ResultHandler _handler;
+		private final Semaphore		_slots = new Semaphore(_maxParallelFiles);
+		private final AtomicLong	_files = new AtomicLong();
+		private final AtomicLong	_bytes = new AtomicLong();
+		private final AtomicLong	_errors = new AtomicLong();
+		private final AtomicReference<RuntimeException> _handlerError = new AtomicReference<RuntimeException>();	//First exception of the handler
+		private final long			_start = System.nanoTime();
+		private long				_elapsedNanos;
+
+		private Scan(ResultHandler handler) {
+			if (handler == null) {
+				throw new IllegalArgumentException("Handler must not be null");
+			}
+			_handler = handler;
+		}
+
+		private void submit(final Path path) throws IOException {
+			acquire(1);
+			try {
+				_executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							report(parse(path));
+						} catch (RuntimeException e) {
+							_handlerError.compareAndSet(null, e);
+						} finally {
+							_slots.release();
+						}
+					}
+				});
+			} catch (RuntimeException e) { //rejected by the executor
+				_slots.release();
+				throw e;
+			}
+		}
+
+		private Result parse(Path path) {
+			long size = -1;
+			try {
+				if (_cache != null) {
+					size = Files.size(path);
+					return new Result(path, size, _cache.get(path), null);
+				}
+				//Open the file only once: the channel gives the size, and is read with positional reads
+				FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+				try {
+					size = channel.size();
+					return new Result(path, size, new Exif(channel, _options), null);
+				} finally {
+					channel.close();
+				}
+			} catch (Exception e) { //corrupted files can also fail with runtime exceptions
+				return new Result(path, size, null, e);
+			}
+		}
+
+		private void report(Result result) {
+			_files.incrementAndGet();
+			if (result.getSize() > 0) {
+				_bytes.addAndGet(result.getSize());
+			}
+			if (result.isError()) {
+				_errors.incrementAndGet();
+			}
+			_handler.onResult(result);
+		}
+
+		//True once the handler has thrown an exception
+		private boolean isStopped() {
+			return _handlerError.get() != null;
+		}
+
+		//Throw the exception of the handler, if any
+		private void checkHandler() {
+			if (_handlerError.get() != null) {
+				throw _handlerError.get();
+			}
+		}
+
+		//Wait for all the submitted files to be parsed
+		private void await() throws IOException {
+			acquire(_maxParallelFiles);
+			_slots.release(_maxParallelFiles);
+			_elapsedNanos = System.nanoTime() - _start;
+		}
+
+		private void acquire(int permits) throws IOException {
+			try {
+				_slots.acquire(permits);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Scan interrupted");
+			}
+		}
+
+		private Stats stats() {
+			return new Stats(_files.get(), _bytes.get(), _errors.get(), _elapsedNanos);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import exif.Exif;
+
+/*
+ * Parse budget: corrupted or malicious files are stopped by the limits of the options.
+ */
+public class ExifBudgetTest extends ExifTestCase {
+
+	private static final ByteOrder[] ORDERS = { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+
+	//Exif SubIFD pointers nested 'depth' times, the last IFD has the Make
+	private static byte[] nested(ByteOrder order, int depth) {
+		ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(order);
+		int ifd = tiff.ifd(0, tiff.ascii(0x010F, "Deep"));
+		for (int i = 0; i < depth; ++i) {
+			ifd = tiff.ifd(0, tiff.longs(0x8769, ifd));
+		}
+		return tiff.setFirstIFD(ifd).toBytes();
+	}
+
+	private static void checkBudgetExceeded(String what, final byte[] data, final Exif.Options options) {
+		checkThrows(Exif.BudgetExceededException.class, what, new Failing() {
+			@Override
+			public void run() throws Exception {
+				new Exif(data, options);
+			}
+		});
+	}
+
+	public void testMaxDepth() throws IOException {
+		for (ByteOrder order : ORDERS) {
+			byte[] deep = nested(order, 20);
+			checkBudgetExceeded(order + " default depth", deep, new Exif.Options());
+			checkBudgetExceeded(order + " depth 19", deep, new Exif.Options().setMaxDepth(19));
+			checkEquals("Deep\0", new Exif(deep, new Exif.Options().setMaxDepth(20)).get(0x010F).getString(), order + " depth 20");
+		}
+	}
+
+	public void testSubIFDLoopIsNotABudgetError() throws IOException {
+		for (ByteOrder order : ORDERS) {
+			ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(order);
+			int exif = tiff.data(0);
+			tiff.ifd(0, tiff.longs(0x8769, exif)); //Exif IFD which points to itself
+			int ifd0 = tiff.ifd(0, tiff.ascii(0x010F, "Loop"), tiff.longs(0x8769, exif));
+			checkEquals("Loop\0", new Exif(tiff.setFirstIFD(ifd0).toBytes()).get(0x010F).getString(), order + " Make");
+		}
+	}
+
+	public void testMaxEntries() throws IOException {
+		for (String name : new String[] { "be_large.jpg", "le_large.jpg" }) {
+			byte[] large = ExifTestFiles.corpus(name);
+			int count = new Exif(large).getExtractedCount();
+			checkBudgetExceeded(name + " 10 entries", large, new Exif.Options().setMaxEntries(10));
+			checkEquals(count, new Exif(large, new Exif.Options().setMaxEntries(16384)).getExtractedCount(), name + " default entries");
+		}
+	}
+
+	public void testMaxBytesRead() throws IOException {
+		byte[] large = ExifTestFiles.corpus("le_large.jpg");
+		checkBudgetExceeded("1000 bytes", large, new Exif.Options().setMaxBytesRead(1000));
+		new Exif(large, new Exif.Options().setMaxBytesRead(large.length));
+	}
+
+	public void testMaxAllocation() throws IOException {
+		byte[] large = ExifTestFiles.corpus("be_large.jpg");
+		checkBudgetExceeded("1000 bytes", large, new Exif.Options().setMaxAllocation(1000));
+		//A value larger than the allocation limit is rejected before it is decoded; a forged count out of the file is a format error
+		for (ByteOrder order : ORDERS) {
+			ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(order);
+			int ifd0 = tiff.ifd(0, tiff.undefined(0x927C, new byte[2 << 20]));
+			checkBudgetExceeded(order + " 2 MB value", tiff.setFirstIFD(ifd0).toBytes(), new Exif.Options().setMaxAllocation(1 << 20));
+			tiff = new ExifTestFiles.Tiff(order);
+			ifd0 = tiff.ifd(0, tiff.raw(0x927C, 7, 0x10000000, ExifTestFiles.int32(8)));
+			final byte[] forged = tiff.setFirstIFD(ifd0).toBytes();
+			checkThrows(Exif.FormatException.class, order + " 256 MB value", new Failing() {
+				@Override
+				public void run() throws Exception {
+					new Exif(forged);
+				}
+			});
+		}
+	}
+
+	public void testTimeout() throws IOException {
+		final Exif.Source file = new Exif.BufferSource(ByteBuffer.wrap(ExifTestFiles.corpus("le_large.jpg")));
+		final Exif.Source slow = new Exif.Source() {
+			@Override
+			public long size() throws IOException {
+				return file.size();
+			}
+
+			@Override
+			public ByteBuffer read(long position, int length) throws IOException {
+				try {
+					Thread.sleep(30);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return file.read(position, length);
+			}
+		};
+		checkThrows(Exif.BudgetExceededException.class, "50 ms", new Failing() {
+			@Override
+			public void run() throws Exception {
+				new Exif(slow, new Exif.Options().setTimeoutMillis(50));
+			}
+		});
+	}
+}
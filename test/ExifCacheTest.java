@@ -0,0 +1,278 @@
+package exif.test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import exif.Exif;
+import exif.ExifCache;
+
+/*
+ * Persistent cache: hits after a reopen, changed files, remembered errors, options of the store, truncated stores,
+ * and lookups while the store is saved.
+ */
+public class ExifCacheTest extends ExifTestCase {
+
+	private static final String[] FILES = { "be_small.jpg", "le_small.jpg", "be_gps.jpg", "le_gps.jpg", "be_large.jpg", "le_large.jpg", "be_nothumb.jpg", "le_nothumb.jpg", "be_raw.tif", "le_raw.tif" };
+
+	//Copies of the corpus files, which can be modified
+	private static List<Path> copies() throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		for (String name : FILES) {
+			paths.add(ExifTestFiles.tempFile("-" + name, ExifTestFiles.corpus(name)));
+		}
+		return paths;
+	}
+
+	//Path of a store which does not exist yet
+	private static Path store() throws IOException {
+		Path store = ExifTestFiles.tempFile(".cache", new byte[0]);
+		Files.delete(store);
+		return store;
+	}
+
+	private static void checkSameValues(Exif expected, Exif actual, String what) {
+		checkEquals(expected.getExtractedCount(), actual.getExtractedCount(), what + " extracted count");
+		for (Exif.ExifValue value : expected.getAllExtracted()) {
+			checkEquals(ExifTestFiles.toString(value), ExifTestFiles.toString(actual.get(value.getTagValue())), what + " tag 0x" + Integer.toHexString(value.getTagValue()));
+		}
+		checkEquals(expected.getThumbnailOffset(), actual.getThumbnailOffset(), what + " thumbnail offset");
+		checkEquals(expected.getThumbnailLength(), actual.getThumbnailLength(), what + " thumbnail length");
+	}
+
+	//Cache filled with the files, saved and closed
+	private static void fill(Path store, List<Path> paths) throws IOException {
+		ExifCache cache = new ExifCache(store);
+		try {
+			for (Path path : paths) {
+				checkSameValues(new Exif(path), cache.get(path), path + " first get");
+			}
+			checkEquals(0, cache.getHits(), "hits of the first gets");
+			checkEquals(paths.size(), cache.getMisses(), "misses of the first gets");
+		} finally {
+			cache.close();
+		}
+	}
+
+	//Same content length, so the file is only seen as changed through its modification time
+	private static void overwrite(Path path, byte[] data) throws IOException {
+		FileTime modifiedTime = Files.getLastModifiedTime(path);
+		Files.write(path, data);
+		Files.setLastModifiedTime(path, modifiedTime);
+	}
+
+	public void testHitAfterReopen() throws IOException {
+		List<Path> paths = copies();
+		List<Exif> parsed = new ArrayList<Exif>();
+		for (Path path : paths) {
+			parsed.add(new Exif(path));
+		}
+		Path store = store();
+		fill(store, paths);
+		//The files are zeroed with the same size and modification time: values can only come from the store
+		for (Path path : paths) {
+			overwrite(path, new byte[(int) Files.size(path)]);
+		}
+		ExifCache cache = new ExifCache(store);
+		try {
+			checkEquals(paths.size(), cache.size(), "entries of the reopened store");
+			for (int i = 0; i < paths.size(); ++i) {
+				checkSameValues(parsed.get(i), cache.get(paths.get(i)), FILES[i] + " cached");
+			}
+			checkEquals(paths.size(), cache.getHits(), "hits");
+			checkEquals(0, cache.getMisses(), "misses");
+		} finally {
+			cache.close();
+		}
+	}
+
+	public void testChangedFileIsParsedAgain() throws IOException {
+		Path path = ExifTestFiles.tempFile(".jpg", ExifTestFiles.corpus("be_gps.jpg"));
+		Path store = store();
+		fill(store, Collections.singletonList(path));
+		ExifCache cache = new ExifCache(store);
+		try {
+			//Other content of the same size, with another modification time
+			byte[] other = ExifTestFiles.corpus("le_gps.jpg");
+			check(other.length == Files.size(path), "same size");
+			FileTime modifiedTime = Files.getLastModifiedTime(path);
+			Files.write(path, other);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(modifiedTime.toMillis() + 10000));
+			checkEquals(ByteOrder.LITTLE_ENDIAN, cache.get(path).getByteOrder(), "parsed again after a modification time change");
+			checkEquals(1, cache.getMisses(), "misses after a modification time change");
+			//Other size, with the same modification time
+			FileTime sameTime = Files.getLastModifiedTime(path);
+			Files.write(path, ExifTestFiles.corpus("le_small.jpg"));
+			Files.setLastModifiedTime(path, sameTime);
+			checkEquals(null, cache.get(path).getGPSLatitude(), "parsed again after a size change");
+			checkEquals(2, cache.getMisses(), "misses after a size change");
+			cache.get(path);
+			checkEquals(1, cache.getHits(), "hit once parsed again");
+		} finally {
+			cache.close();
+		}
+	}
+
+	public void testInvalidFileErrorIsReplayed() throws IOException {
+		final Path path = ExifTestFiles.tempFile(".tif", new ExifTestFiles.Tiff(ByteOrder.BIG_ENDIAN).setFirstIFD(0x7FFFFFF0).toBytes());
+		Exif.FormatException parsed = checkThrows(Exif.FormatException.class, "invalid file", new Failing() {
+			@Override
+			public void run() throws Exception {
+				new Exif(path);
+			}
+		});
+		Path store = store();
+		for (int round = 0; round < 2; ++round) {
+			final ExifCache cache = new ExifCache(store);
+			try {
+				int nbGets = (round == 0) ? 3 : 2;
+				for (int i = 0; i < nbGets; ++i) {
+					Exif.FormatException cached = checkThrows(Exif.FormatException.class, "round " + round + " get " + i, new Failing() {
+						@Override
+						public void run() throws Exception {
+							cache.get(path);
+						}
+					});
+					checkEquals(parsed.getMessage(), cached.getMessage(), "round " + round + " error message");
+				}
+				//Parsed once, before the first save
+				checkEquals((round == 0) ? 1 : 0, cache.getMisses(), "round " + round + " misses");
+				checkEquals(2, cache.getHits(), "round " + round + " hits");
+			} finally {
+				cache.close();
+			}
+		}
+	}
+
+	public void testStoreOfOtherOptionsIsDiscarded() throws IOException {
+		List<Path> paths = copies();
+		Path store = store();
+		fill(store, paths);
+		ExifCache other = new ExifCache(store, new Exif.Options().setTags(0x0112), false);
+		try {
+			checkEquals(0, other.size(), "entries with other tags");
+			checkEquals(6, other.get(paths.get(0)).get(0x0112).getInt(), "Orientation parsed with other tags");
+			checkEquals(1, other.getMisses(), "misses with other tags");
+		} finally {
+			other.close();
+		}
+		ExifCache thumbnail = new ExifCache(store, new Exif.Options().setExtractThumbnail(false), false);
+		try {
+			checkEquals(0, thumbnail.size(), "entries with another thumbnail option");
+		} finally {
+			thumbnail.close();
+		}
+		ExifCache same = new ExifCache(store, new Exif.Options().setTags(0x0112), false);
+		try {
+			checkEquals(1, same.size(), "entries with the tags of the last save");
+		} finally {
+			same.close();
+		}
+	}
+
+	public void testTruncatedStore() throws IOException {
+		List<Path> paths = copies();
+		final Path store = store();
+		fill(store, paths);
+		final byte[] saved = Files.readAllBytes(store);
+		//Truncated before it is opened
+		for (int length : new int[] { 6, 20, saved.length / 2, saved.length - 1 }) {
+			Files.write(store, Arrays.copyOf(saved, length));
+			checkThrows(EOFException.class, "store truncated at " + length, new Failing() {
+				@Override
+				public void run() throws Exception {
+					new ExifCache(store);
+				}
+			});
+		}
+		//Truncated once opened: the records are read when the files are asked
+		Files.write(store, saved);
+		final ExifCache cache = new ExifCache(store);
+		try {
+			FileChannel channel = FileChannel.open(store, StandardOpenOption.WRITE);
+			try {
+				channel.truncate(100);
+			} finally {
+				channel.close();
+			}
+			for (final Path path : paths) {
+				checkThrows(EOFException.class, path + " in the truncated store", new Failing() {
+					@Override
+					public void run() throws Exception {
+						cache.get(path);
+					}
+				});
+			}
+		} finally {
+			cache.close();
+		}
+	}
+
+	//Threads get the saved files while other files are added and saved: the entries are read from the new store once saved
+	public void testGetDuringSave() throws Exception {
+		final List<Path> paths = copies();
+		final List<Exif> parsed = new ArrayList<Exif>();
+		for (Path path : paths) {
+			parsed.add(new Exif(path));
+		}
+		Path store = store();
+		fill(store, paths.subList(0, paths.size() / 2));
+		final ExifCache cache = new ExifCache(store);
+		final AtomicBoolean saving = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			for (int thread = 0; thread < 4; ++thread) {
+				readers.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int nbGets = 0;
+						while (saving.get() || (nbGets == 0)) {
+							for (int i = 0; i < paths.size() / 2; ++i) {
+								checkSameValues(parsed.get(i), cache.get(paths.get(i)), FILES[i] + " during save");
+								nbGets++;
+							}
+						}
+						return nbGets;
+					}
+				}));
+			}
+			//Each round adds a file (so the store is rewritten) and replaces the store
+			for (int round = 0; round < 20; ++round) {
+				Path path = paths.get(paths.size() / 2 + round % (paths.size() - paths.size() / 2));
+				Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 1000));
+				cache.get(path);
+				cache.save();
+			}
+			saving.set(false);
+			for (Future<Integer> reader : readers) {
+				check(reader.get(60, TimeUnit.SECONDS) > 0, "gets during save");
+			}
+			//After the save, all the files are read from the new store
+			long misses = cache.getMisses();
+			for (int i = 0; i < paths.size(); ++i) {
+				checkSameValues(parsed.get(i), cache.get(paths.get(i)), FILES[i] + " after save");
+			}
+			checkEquals(misses, cache.getMisses(), "no miss after save");
+			check(Files.exists(store.resolveSibling(store.getFileName() + ".tmp")) == false, "temporary store removed");
+		} finally {
+			executor.shutdown();
+			cache.close();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import exif.Exif;
+import exif.ExifColumns;
+
+/*
+ * Columnar extraction: values compared to the parsed files, null values, and executors which do not run the tasks.
+ */
+public class ExifColumnsTest extends ExifTestCase {
+
+	private static final String[] FILES = { "be_small.jpg", "le_small.jpg", "be_gps.jpg", "le_gps.jpg", "be_large.jpg", "le_large.jpg", "be_nothumb.jpg", "le_nothumb.jpg", "be_raw.tif", "le_raw.tif" };
+
+	private static final ExifColumns.Schema SCHEMA = new ExifColumns.Schema().addInteger(0x0112).addDouble(0x829D).addTimestamp(0x9003).addString(0x010F).addInteger(0x010F).addDouble(0xFFFE);
+
+	//More than 2 blocks of rows: the corpus files, a missing file, and a file which is not an image
+	private static List<Path> paths() throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		Path garbage = ExifTestFiles.tempFile(".jpg", new byte[1000]);
+		for (int i = 0; i < 150; ++i) {
+			if (i % 50 == 7) {
+				paths.add(Paths.get("missing-" + i + ".jpg"));
+			} else if (i % 50 == 8) {
+				paths.add(garbage);
+			} else {
+				paths.add(ExifTestFiles.corpusPath(FILES[i % FILES.length]));
+			}
+		}
+		return paths;
+	}
+
+	private static String trim(String str) {
+		int length = str.length();
+		while ((length > 0) && (str.charAt(length - 1) <= ' ')) {
+			length--;
+		}
+		return str.substring(0, length);
+	}
+
+	//Through an opened channel: new Exif(path) gives no value for a missing file, instead of an error
+	private static Exif parse(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new Exif(channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void checkColumns(List<Path> paths, ExifColumns columns) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		checkEquals(paths.size(), columns.getRowCount(), "rows");
+		checkEquals(6, columns.getColumnCount(), "columns");
+		List<String> dictionary = columns.getDictionary(3);
+		for (int i = 1; i < dictionary.size(); ++i) {
+			check(dictionary.get(i - 1).compareTo(dictionary.get(i)) < 0, "dictionary sorted");
+		}
+		for (int row = 0; row < paths.size(); ++row) {
+			String what = "row " + row + " " + paths.get(row).getFileName();
+			checkEquals(paths.get(row), columns.getPath(row), what + " path");
+			Exif exif;
+			try {
+				exif = parse(paths.get(row));
+			} catch (IOException e) {
+				check(columns.getError(row) != null, what + " error");
+				for (int column = 0; column < columns.getColumnCount(); ++column) {
+					check(columns.isNull(column, row), what + " null column " + column);
+				}
+				continue;
+			}
+			check(columns.getError(row) == null, what + " no error");
+			checkEquals(exif.get(0x0112).getInt(), columns.getIntegers(0)[row], what + " Orientation");
+			checkEquals(exif.get(0x829D).getDouble(), columns.getDoubles(1)[row], 0, what + " FNumber");
+			try {
+				checkEquals(dateFormat.parse(trim(exif.get(0x9003).getString())).getTime(), columns.getTimestamps(2)[row], what + " DateTimeOriginal");
+			} catch (ParseException e) {
+				throw new AssertionError(what + " date " + exif.get(0x9003).getString(), e);
+			}
+			checkEquals(trim(exif.get(0x010F).getString()), dictionary.get(columns.getStringCodes(3)[row]), what + " Make");
+			check(columns.isNull(0, row) == false, what + " Orientation not null");
+			check(columns.isNull(4, row), what + " ascii tag in an integer column is null");
+			check(columns.isNull(5, row), what + " missing tag is null");
+		}
+	}
+
+	public void testValuesMatchTheParsedFiles() throws IOException {
+		List<Path> paths = paths();
+		checkColumns(paths, ExifColumns.extract(paths, SCHEMA));
+	}
+
+	public void testWrongDatesAreNull() throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		String[] dates = { "0000:00:00 00:00:00", "    :  :     :  :  ", "2024:13:01 10:00:00", "2024-01-01", "1969:12:31 23:59:59" };
+		for (String date : dates) {
+			ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(ByteOrder.LITTLE_ENDIAN);
+			int exif = tiff.ifd(0, tiff.ascii(0x9003, date));
+			paths.add(ExifTestFiles.tempFile(".tif", tiff.setFirstIFD(tiff.ifd(0, tiff.longs(0x8769, exif))).toBytes()));
+		}
+		ExifColumns columns = ExifColumns.extract(paths, new ExifColumns.Schema().addTimestamp(0x9003));
+		for (int row = 0; row < dates.length - 1; ++row) {
+			check(columns.isNull(0, row), "'" + dates[row] + "' is null");
+		}
+		check(columns.isNull(0, dates.length - 1) == false, "date before 1970");
+		checkEquals(-1000, columns.getTimestamps(0)[dates.length - 1], "date before 1970");
+	}
+
+	public void testExecutorsWhichDoNotRunTheTasks() throws IOException {
+		List<Path> paths = paths();
+		Executor lost = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				//never run
+			}
+		};
+		checkColumns(paths, ExifColumns.extract(paths, SCHEMA, lost, 4));
+		Executor rejecting = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("Full");
+			}
+		};
+		checkColumns(paths, ExifColumns.extract(paths, SCHEMA, rejecting, 4));
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			checkColumns(paths, ExifColumns.extract(paths, SCHEMA, single, 8));
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	//Extractions on the common pool from tasks of the common pool, which occupy all its threads
+	public void testNestedCommonPool() throws Exception {
+		final List<Path> paths = paths();
+		final ForkJoinPool pool = ForkJoinPool.commonPool();
+		//A deadlock fails with a timeout
+		List<Future<ExifColumns>> results = new ArrayList<Future<ExifColumns>>();
+		for (int i = 0; i < pool.getParallelism() + 1; ++i) {
+			results.add(pool.submit(new Callable<ExifColumns>() {
+				@Override
+				public ExifColumns call() throws Exception {
+					return ExifColumns.extract(paths, SCHEMA, pool, 4);
+				}
+			}));
+		}
+		for (Future<ExifColumns> result : results) {
+			checkColumns(paths, result.get(60, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package exif.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import exif.Exif;
+import exif.ExifExport;
+
+/*
+ * Binary and JSON export: round trips of the corpus, and malformed or truncated records.
+ */
+public class ExifExportTest extends ExifTestCase {
+
+	private static final String[] FILES = { "be_small.jpg", "le_small.jpg", "be_gps.jpg", "le_gps.jpg", "be_large.jpg", "le_large.jpg", "be_nothumb.jpg", "le_nothumb.jpg", "be_raw.tif", "le_raw.tif" };
+
+	private static final String ENTRY = "{\"ifd\":\"IFD0\",\"tag\":274,\"format\":3,\"count\":1,\"value\":[6]}";
+
+	private static void checkSameValues(Exif expected, Exif actual, String what) {
+		checkEquals(expected.getExtractedCount(), actual.getExtractedCount(), what + " extracted count");
+		for (int i = 0; i < expected.getExtractedCount(); ++i) {
+			Exif.ExifValue value = expected.getAllExtracted().get(i);
+			Exif.ExifValue read = actual.getAllExtracted().get(i);
+			checkEquals(value.getTagValue(), read.getTagValue(), what + " tag of entry " + i);
+			checkEquals(ExifTestFiles.toString(value), ExifTestFiles.toString(read), what + " tag 0x" + Integer.toHexString(value.getTagValue()));
+		}
+		checkEquals(expected.getThumbnailOffset(), actual.getThumbnailOffset(), what + " thumbnail offset");
+		checkEquals(expected.getThumbnailLength(), actual.getThumbnailLength(), what + " thumbnail length");
+	}
+
+	private static Exif readJson(String json) throws IOException {
+		return ExifExport.readJson(new StringReader(json), new Exif.Options());
+	}
+
+	public void testBinaryRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Exif[] parsed = new Exif[FILES.length];
+		for (int i = 0; i < FILES.length; ++i) {
+			parsed[i] = new Exif(ExifTestFiles.corpus(FILES[i]));
+			ExifExport.writeBinary(parsed[i], out);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		for (int i = 0; i < FILES.length; ++i) {
+			checkSameValues(parsed[i], ExifExport.readBinary(in, new Exif.Options()), FILES[i] + " DataInput");
+			checkSameValues(parsed[i], ExifExport.readBinary(buffer, new Exif.Options()), FILES[i] + " ByteBuffer");
+		}
+		check(ExifExport.readBinary(in, new Exif.Options()) == null, "end of DataInput");
+		check(ExifExport.readBinary(buffer, new Exif.Options()) == null, "end of ByteBuffer");
+	}
+
+	public void testJsonLinesRoundTrip() throws IOException {
+		StringBuilder json = new StringBuilder();
+		Exif[] parsed = new Exif[FILES.length];
+		for (int i = 0; i < FILES.length; ++i) {
+			parsed[i] = new Exif(ExifTestFiles.corpus(FILES[i]));
+			ExifExport.writeJson(parsed[i], json);
+			json.append('\n');
+		}
+		Reader in = new StringReader(json.toString());
+		for (int i = 0; i < FILES.length; ++i) {
+			checkSameValues(parsed[i], ExifExport.readJson(in, new Exif.Options()), FILES[i]);
+		}
+		check(ExifExport.readJson(in, new Exif.Options()) == null, "end of input");
+	}
+
+	public void testJsonSpecialValues() throws IOException {
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(order);
+			ByteBuffer doubles = ByteBuffer.allocate(32).order(order).putDouble(Double.NaN).putDouble(Double.POSITIVE_INFINITY).putDouble(Double.NEGATIVE_INFINITY).putDouble(-1.5e-300);
+			int ifd0 = tiff.ifd(0, tiff.ascii(0x010E, "quote \" backslash \\ tab \t"), tiff.raw(0x0110, 10, 1, ByteBuffer.allocate(8).order(order).putInt(-3).putInt(7).array()), tiff.raw(0xC000, 12, 4, doubles.array()));
+			Exif exif = new Exif(tiff.setFirstIFD(ifd0).toBytes());
+			StringBuilder json = new StringBuilder();
+			ExifExport.writeJson(exif, json);
+			checkSameValues(exif, readJson(json.toString()), order.toString());
+		}
+	}
+
+	public void testMalformedJsonIsRejected() {
+		String[] malformed = {
+			"{\"entries\":[" + ENTRY + " " + ENTRY + "]}",	//missing comma
+			"{\"entries\":[" + ENTRY + ",]}",				//trailing comma
+			"{\"entries\":[," + ENTRY + "]}",				//leading comma
+			"{\"thumbnailOffset\":-1 \"entries\":[]}",		//missing comma between keys
+			"{\"entries\":[" + ENTRY.replace("[6]", "[6,7]") + "]}",	//count mismatch
+			"{\"entries\":[" + ENTRY.replace("[6]", "[70000]") + "]}",	//out of the short range
+			"{\"entries\":[" + ENTRY.replace("[6]", "[6.5]") + "]}",	//not an integer
+			"{\"entries\":[" + ENTRY.replace("IFD0", "IFD9") + "]}",	//unknown IFD
+			"{\"entries\":[{\"ifd\":\"IFD0\",\"tag\":274,\"value\":[6],\"format\":3,\"count\":1}]}",	//value before format
+			"{\"entries\":[{\"ifd\":\"IFD0\",\"tag\":274,\"format\":3,\"value\":[6]}]}",	//no count
+			"{\"entries\":[{\"ifd\":\"IFD0\",\"tag\":270,\"format\":7,\"count\":1,\"value\":\"@@\"}]}",	//wrong base64
+			"{\"entries\":[{\"ifd\":\"IFD0\",\"tag\":270,\"format\":2,\"count\":2,\"value\":\"a\\q\"}]}",	//unknown escape
+			"{\"entries\":[" + ENTRY,										//truncated
+			"{\"unknown\":tru,\"entries\":[]}",								//wrong literal
+		};
+		for (final String json : malformed) {
+			checkThrows(IOException.class, json, new Failing() {
+				@Override
+				public void run() throws Exception {
+					readJson(json);
+				}
+			});
+		}
+	}
+
+	public void testUnknownKeysAreSkipped() throws IOException {
+		Exif exif = readJson(" {\"version\":{\"a\":[1,\"x\",null,true]},\"entries\":[" + ENTRY + "],\"thumbnailLength\":0}");
+		checkEquals(6, exif.get(0x0112).getInt(), "Orientation");
+	}
+
+	public void testBinaryRecordBounds() throws IOException {
+		final byte[] record = new byte[] { 0x7F, 0, 0, 0 }; //2 GB record
+		checkThrows(Exif.BudgetExceededException.class, "record longer than maxAllocation", new Failing() {
+			@Override
+			public void run() throws Exception {
+				ExifExport.readBinary(new DataInputStream(new ByteArrayInputStream(record)), new Exif.Options());
+			}
+		});
+		checkThrows(IOException.class, "record longer than the buffer", new Failing() {
+			@Override
+			public void run() throws Exception {
+				ExifExport.readBinary(ByteBuffer.wrap(record), new Exif.Options());
+			}
+		});
+		checkThrows(IOException.class, "negative length", new Failing() {
+			@Override
+			public void run() throws Exception {
+				ExifExport.readBinary(new DataInputStream(new ByteArrayInputStream(new byte[] { -1, 0, 0, 0 })), new Exif.Options());
+			}
+		});
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExifExport.writeBinary(new Exif(ExifTestFiles.corpus("le_gps.jpg")), new DataOutputStream(bytes));
+		final byte[] written = bytes.toByteArray();
+		for (final int length : new int[] { 2, 10, written.length - 1 }) {
+			checkThrows(IOException.class, "truncated at " + length, new Failing() {
+				@Override
+				public void run() throws Exception {
+					ExifExport.readBinary(new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(written, length))), new Exif.Options());
+				}
+			});
+			checkThrows(IOException.class, "truncated buffer at " + length, new Failing() {
+				@Override
+				public void run() throws Exception {
+					ExifExport.readBinary(ByteBuffer.wrap(Arrays.copyOf(written, length)), new Exif.Options());
+				}
+			});
+		}
+	}
+}
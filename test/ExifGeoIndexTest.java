@@ -0,0 +1,187 @@
+package exif.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import exif.Exif;
+import exif.ExifGeoIndex;
+
+/*
+ * GPS index: queries compared to a brute force search, builds, and saved indexes.
+ */
+public class ExifGeoIndexTest extends ExifTestCase {
+
+	private static final int NB_POINTS = 20000;
+	private static final double PRECISION = 1e-7; //Positions are stored in 1e-7 degrees
+
+	private final double[] _latitudes = new double[NB_POINTS];
+	private final double[] _longitudes = new double[NB_POINTS];
+
+	//Random points (id = index in the arrays), a third of them around Paris so that some cells are crowded
+	private ExifGeoIndex randomIndex() {
+		Random random = new Random(42);
+		ExifGeoIndex index = new ExifGeoIndex();
+		for (int i = 0; i < NB_POINTS; ++i) {
+			boolean paris = (i % 3 == 0);
+			_latitudes[i] = paris ? 48.85 + random.nextGaussian() * 0.05 : random.nextDouble() * 180 - 90;
+			_longitudes[i] = paris ? 2.35 + random.nextGaussian() * 0.05 : random.nextDouble() * 360 - 180;
+			check(index.add(i, _latitudes[i], _longitudes[i], i, 1000L * i), "point " + i + " added");
+		}
+		index.build();
+		return index;
+	}
+
+	private static int[] ids(ExifGeoIndex index, int[] points) {
+		int[] ids = new int[points.length];
+		for (int i = 0; i < points.length; ++i) {
+			ids[i] = index.getId(points[i]);
+		}
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	private int[] bruteInBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		int[] ids = new int[NB_POINTS];
+		int count = 0;
+		for (int i = 0; i < NB_POINTS; ++i) {
+			boolean inLongitude = (minLongitude <= maxLongitude) ? (_longitudes[i] >= minLongitude) && (_longitudes[i] <= maxLongitude) : (_longitudes[i] >= minLongitude) || (_longitudes[i] <= maxLongitude);
+			if ((_latitudes[i] >= minLatitude) && (_latitudes[i] <= maxLatitude) && inLongitude) {
+				ids[count++] = i;
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	private int[] bruteInRadius(double latitude, double longitude, double radius) {
+		int[] ids = new int[NB_POINTS];
+		int count = 0;
+		for (int i = 0; i < NB_POINTS; ++i) {
+			if (ExifGeoIndex.distance(latitude, longitude, _latitudes[i], _longitudes[i]) <= radius) {
+				ids[count++] = i;
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	public void testQueriesMatchBruteForce() {
+		ExifGeoIndex index = randomIndex();
+		checkEquals(NB_POINTS, index.size(), "size");
+		//Box bounds are not on a point (random doubles), so the fixed point rounding does not change the result
+		double[][] boxes = { { 48.8, 2.3, 48.9, 2.4 }, { -10.5, -20.5, 30.5, 40.5 }, { -60.5, 170.5, 60.5, -170.5 }, { -90, -180, 90, 180 }, { 10.5, 10.5, 10.6, 10.6 } };
+		for (double[] box : boxes) {
+			checkEquals(bruteInBox(box[0], box[1], box[2], box[3]), ids(index, index.findInBox(box[0], box[1], box[2], box[3])), "box " + Arrays.toString(box));
+		}
+		double[][] circles = { { 48.85, 2.35, 1000 }, { 48.85, 2.35, 50000 }, { 0.5, 179.9, 800000 }, { 89.9, 12.3, 500000 }, { -89.9, -45, 2000000 } };
+		for (double[] circle : circles) {
+			checkEquals(bruteInRadius(circle[0], circle[1], circle[2]), ids(index, index.findInRadius(circle[0], circle[1], circle[2])), "circle " + Arrays.toString(circle));
+		}
+	}
+
+	public void testNearest() {
+		ExifGeoIndex index = randomIndex();
+		for (double[] center : new double[][] { { 48.85, 2.35 }, { -33.9, 151.2 }, { 0, 180 }, { 90, 0 } }) {
+			int[] nearest = index.findNearest(center[0], center[1], 10);
+			checkEquals(10, nearest.length, "nearest count");
+			double previous = 0;
+			for (int point : nearest) {
+				double distance = ExifGeoIndex.distance(center[0], center[1], index.getLatitude(point), index.getLongitude(point));
+				check(distance >= previous, "nearest first around " + Arrays.toString(center));
+				previous = distance;
+			}
+			//No other point is nearer than the last one (5 cm for the rounding of the positions)
+			int[] inRadius = bruteInRadius(center[0], center[1], previous - 0.05);
+			check(inRadius.length < 10, inRadius.length + " points nearer than the 10th around " + Arrays.toString(center));
+		}
+		checkEquals(0, new ExifGeoIndex().findNearest(0, 0, 10).length, "nearest in an empty index");
+	}
+
+	public void testPointsAreVisibleAfterBuild() {
+		ExifGeoIndex index = new ExifGeoIndex();
+		checkEquals(0, index.findInBox(-90, -180, 90, 180).length, "empty index");
+		check(index.add(7, 45.5, 6.5, 1200, 1000), "point added after a query on an empty index");
+		check(index.add(8, 45.6, 6.6, Double.NaN, ExifGeoIndex.NO_TIMESTAMP), "point without altitude nor timestamp");
+		check(index.add(9, 91, 0, 0, 0) == false, "latitude out of range");
+		check(index.add(9, 0, Double.NaN, 0, 0) == false, "NaN longitude");
+		checkEquals(0, index.size(), "size before build");
+		checkEquals(2, index.getAddedCount(), "added count before build");
+		checkEquals(0, index.findInBox(45, 6, 46, 7).length, "query before build");
+		index.build();
+		checkEquals(2, index.size(), "size after build");
+		checkEquals(0, index.getAddedCount(), "added count after build");
+		int[] points = index.findInBox(45, 6, 46, 7);
+		checkEquals(new int[] { 7, 8 }, ids(index, points), "ids after build");
+		int point = (index.getId(points[0]) == 7) ? points[0] : points[1];
+		checkEquals(45.5, index.getLatitude(point), PRECISION, "latitude");
+		checkEquals(6.5, index.getLongitude(point), PRECISION, "longitude");
+		checkEquals(1200, index.getAltitude(point), 0, "altitude");
+		checkEquals(1000, index.getTimestamp(point), "timestamp");
+	}
+
+	public void testAddExif() throws IOException {
+		ExifGeoIndex index = new ExifGeoIndex();
+		Exif big = new Exif(ExifTestFiles.corpus("be_gps.jpg"));
+		Exif little = new Exif(ExifTestFiles.corpus("le_gps.jpg"));
+		check(index.add(1, big), "be_gps.jpg added");
+		check(index.add(2, little), "le_gps.jpg added");
+		check(index.add(3, new Exif(ExifTestFiles.corpus("le_small.jpg"))) == false, "le_small.jpg has no GPS position");
+		index.build();
+		int[] nearest = index.findNearest(big.getGPSLatitude(), big.getGPSLongitude(), 2);
+		checkEquals(2, nearest.length, "nearest");
+		checkEquals(index.getLatitude(nearest[0]), index.getLatitude(nearest[1]), 0, "same latitude in both byte orders");
+		checkEquals(big.getGPSLatitude(), index.getLatitude(nearest[0]), PRECISION, "latitude");
+	}
+
+	public void testWriteAndRead() throws IOException {
+		ExifGeoIndex index = randomIndex();
+		index.add(NB_POINTS, 1.5, 2.5, 3, 4); //not built yet
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		index.write(new DataOutputStream(bytes));
+		ExifGeoIndex read = ExifGeoIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		checkEquals(NB_POINTS + 1, read.size(), "size of the read index");
+		checkEquals(0, read.getAddedCount(), "added count of the read index");
+		double[] box = { 48.8, 2.3, 48.9, 2.4 };
+		checkEquals(ids(index, index.findInBox(box[0], box[1], box[2], box[3])), ids(read, read.findInBox(box[0], box[1], box[2], box[3])), "box of the read index");
+		checkEquals(new int[] { NB_POINTS }, ids(read, read.findInBox(1.4999, 2.4999, 1.5001, 2.5001)), "point not built before the write");
+	}
+
+	public void testCorruptedIndexIsRejected() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		randomIndex().write(new DataOutputStream(bytes));
+		final byte[] written = bytes.toByteArray();
+		for (final int length : new int[] { 6, 16, 100, written.length - 1 }) {
+			checkThrows(IOException.class, "truncated at " + length, new Failing() {
+				@Override
+				public void run() throws Exception {
+					ExifGeoIndex.read(new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(written, length))));
+				}
+			});
+		}
+		//A corrupted size fails at the end of the data, without allocating the arrays of 2 billion points
+		final byte[] hugeSize = Arrays.copyOf(written, 1000);
+		hugeSize[12] = 0x7F;
+		checkThrows(IOException.class, "corrupted size", new Failing() {
+			@Override
+			public void run() throws Exception {
+				ExifGeoIndex.read(new DataInputStream(new ByteArrayInputStream(hugeSize)));
+			}
+		});
+		//Positions out of range, above and below (Integer.MIN_VALUE has no positive absolute value), of the first point
+		int[][] positions = { { 0x7F7F7F7F, 0 }, { Integer.MIN_VALUE, 0 }, { 0, Integer.MIN_VALUE }, { -900000001, 0 }, { 0, 1800000001 } };
+		for (int[] position : positions) {
+			final byte[] outOfRange = written.clone();
+			ByteBuffer.wrap(outOfRange).putInt(16 + 4 * NB_POINTS, position[0]).putInt(16 + 8 * NB_POINTS, position[1]);
+			checkThrows(IOException.class, "position out of range " + Arrays.toString(position), new Failing() {
+				@Override
+				public void run() throws Exception {
+					ExifGeoIndex.read(new DataInputStream(new ByteArrayInputStream(outOfRange)));
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import exif.Exif;
+
+/*
+ * HEIF files: EXIF item located with the 'meta' box, in the 'mdat' or 'idat' box, without reading the media data.
+ */
+public class ExifHeifTest extends ExifTestCase {
+
+	private static final String[] JPEGS = { "be_gps.jpg", "le_gps.jpg" };
+
+	//Same values as the JPEG file with the same TIFF data
+	private static void checkSameValues(Exif expected, Exif actual, String what) {
+		checkEquals(expected.getByteOrder(), actual.getByteOrder(), what + " byte order");
+		checkEquals(expected.getExtractedCount(), actual.getExtractedCount(), what + " extracted count");
+		for (Exif.ExifValue value : expected.getAllExtracted()) {
+			checkEquals(ExifTestFiles.toString(value), ExifTestFiles.toString(actual.get(value.getTagValue())), what + " tag 0x" + Integer.toHexString(value.getTagValue()));
+		}
+		checkEquals(expected.getGPSLatitude(), actual.getGPSLatitude(), what + " latitude");
+	}
+
+	public void testItemLayouts() throws IOException {
+		for (String name : JPEGS) {
+			byte[] jpeg = ExifTestFiles.corpus(name);
+			for (ExifTestFiles.HeifLayout layout : ExifTestFiles.HeifLayout.values()) {
+				byte[] heif = ExifTestFiles.heif(ExifTestFiles.tiffOf(jpeg), layout);
+				checkSameValues(new Exif(jpeg), new Exif(heif), name + " " + layout);
+			}
+		}
+	}
+
+	public void testMediaDataIsNotRead() throws IOException {
+		for (ExifTestFiles.HeifLayout layout : ExifTestFiles.HeifLayout.values()) {
+			byte[] heif = ExifTestFiles.heif(ExifTestFiles.tiffOf(ExifTestFiles.corpus("le_small.jpg")), layout);
+			ExifTestFiles.CountingSource source = new ExifTestFiles.CountingSource(heif);
+			new Exif(source, new Exif.Options());
+			check(source.getBytesRead() < 64 * 1024, layout + " : " + source.getBytesRead() + " bytes read for a 1 MB file");
+		}
+	}
+
+	public void testFileWithoutExifItemHasNoValue() throws IOException {
+		byte[] mp4 = ExifTestFiles.concat(ExifTestFiles.box("ftyp", ExifTestFiles.ascii("isom"), ExifTestFiles.int32(0), ExifTestFiles.ascii("isom")), ExifTestFiles.box("moov", new byte[500]), ExifTestFiles.box("mdat", new byte[1 << 20]));
+		checkEquals(0, new Exif(mp4).getExtractedCount(), "extracted count");
+	}
+
+	public void testTruncatedFilesAreRejected() throws IOException {
+		final byte[] heif = ExifTestFiles.heif(ExifTestFiles.tiffOf(ExifTestFiles.corpus("le_small.jpg")), ExifTestFiles.HeifLayout.MDAT);
+		for (final int length : new int[] { 40, 200, heif.length - 100 }) {
+			checkThrows(Exif.FormatException.class, "truncated at " + length, new Failing() {
+				@Override
+				public void run() throws Exception {
+					new Exif(Arrays.copyOf(heif, length));
+				}
+			});
+		}
+	}
+
+	public void testItemWithoutIdatBoxIsRejected() throws IOException {
+		final byte[] heif = ExifTestFiles.heif(ExifTestFiles.tiffOf(ExifTestFiles.corpus("be_small.jpg")), ExifTestFiles.HeifLayout.IDAT);
+		//Replace the 'idat' box by a 'free' box of the same length: the item of the 'idat' box can not be found
+		int idat = indexOf(heif, ExifTestFiles.ascii("idat"));
+		System.arraycopy(ExifTestFiles.ascii("free"), 0, heif, idat, 4);
+		checkThrows(Exif.FormatException.class, "item without 'idat' box", new Failing() {
+			@Override
+			public void run() throws Exception {
+				new Exif(heif);
+			}
+		});
+	}
+
+	//8 bytes locations which are negative as signed longs, or which overflow, in the 'mdat' box or in the 'idat' box
+	public void testLocationOutOfRangeIsRejected() throws IOException {
+		long[][] locations = { { 0, 0, -1 }, { 0, -1, 16 }, { -8, 0, 16 }, { 0, Long.MAX_VALUE, 16 }, { Long.MAX_VALUE, 1, 16 }, { Long.MAX_VALUE - 8, 8, 8 }, { 0, 0, Long.MIN_VALUE } };
+		for (int constructionMethod = 0; constructionMethod <= 1; ++constructionMethod) {
+			for (long[] location : locations) {
+				String what = "method " + constructionMethod + " location " + Arrays.toString(location);
+				final byte[] heif = ExifTestFiles.heif(constructionMethod, location[0], location[1], location[2]);
+				final Path path = ExifTestFiles.tempFile(".heic", heif);
+				Exif.FormatException e = checkThrows(Exif.FormatException.class, what, new Failing() {
+					@Override
+					public void run() throws Exception {
+						new Exif(heif);
+					}
+				});
+				check(e.getMessage().contains("out of range"), what + " : " + e.getMessage());
+				e = checkThrows(Exif.FormatException.class, what + " in a file", new Failing() {
+					@Override
+					public void run() throws Exception {
+						new Exif(path);
+					}
+				});
+				check(e.getMessage().contains("out of range"), what + " in a file : " + e.getMessage());
+			}
+		}
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern) {
+		for (int i = 0; i + pattern.length <= data.length; ++i) {
+			if (Arrays.equals(Arrays.copyOfRange(data, i, i + pattern.length), pattern)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Pattern not found");
+	}
+}
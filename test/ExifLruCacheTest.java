@@ -0,0 +1,187 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import exif.Exif;
+import exif.ExifLruCache;
+
+/*
+ * In memory cache: one parse for concurrent gets, eviction order and weights, changed files, and failed parses.
+ */
+public class ExifLruCacheTest extends ExifTestCase {
+
+	private static final int NB_THREADS = 8;
+
+	//Copies of a corpus file, which all have the same weight
+	private static List<Path> copies(String name, int count) throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = 0; i < count; ++i) {
+			paths.add(ExifTestFiles.tempFile("-" + name, ExifTestFiles.corpus(name)));
+		}
+		return paths;
+	}
+
+	//Result of the get of each thread, all started at the same time
+	private static List<Future<Exif>> getAtOnce(final ExifLruCache cache, final Path path, ExecutorService executor) {
+		final CyclicBarrier start = new CyclicBarrier(NB_THREADS);
+		List<Future<Exif>> results = new ArrayList<Future<Exif>>();
+		for (int i = 0; i < NB_THREADS; ++i) {
+			results.add(executor.submit(new Callable<Exif>() {
+				@Override
+				public Exif call() throws Exception {
+					start.await(60, TimeUnit.SECONDS);
+					return cache.get(path);
+				}
+			}));
+		}
+		return results;
+	}
+
+	public void testConcurrentGetsParseOnce() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+		try {
+			for (String name : new String[] { "be_large.jpg", "le_gps.jpg", "be_raw.tif" }) {
+				Path path = ExifTestFiles.tempFile("-" + name, ExifTestFiles.corpus(name));
+				ExifLruCache cache = new ExifLruCache(1 << 20);
+				Exif first = null;
+				for (Future<Exif> result : getAtOnce(cache, path, executor)) {
+					Exif exif = result.get(60, TimeUnit.SECONDS);
+					first = (first == null) ? exif : first;
+					check(exif == first, name + " same Exif instance for all the threads");
+				}
+				checkEquals(1, cache.getMisses(), name + " misses");
+				checkEquals(NB_THREADS - 1, cache.getHits(), name + " hits");
+				checkEquals(ExifLruCache.getWeight(first), cache.getWeight(), name + " weight");
+				checkEquals(new Exif(path).getExtractedCount(), first.getExtractedCount(), name + " extracted count");
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testEvictionOrder() throws IOException {
+		List<Path> paths = copies("le_gps.jpg", 5);
+		long weight = ExifLruCache.getWeight(new Exif(paths.get(0)));
+		ExifLruCache cache = new ExifLruCache(3 * weight);
+		for (int i = 0; i < 3; ++i) {
+			cache.get(paths.get(i));
+			checkEquals((i + 1) * weight, cache.getWeight(), "weight of " + (i + 1) + " files");
+		}
+		checkEquals(0, cache.getEvictions(), "evictions under the capacity");
+		//Use order 1, 0, 2 (by the get of the file 0): the file 1 is the least recently used
+		cache.get(paths.get(0));
+		cache.get(paths.get(3));
+		checkEquals(1, cache.getEvictions(), "evictions over the capacity");
+		checkEquals(3, cache.size(), "size after an eviction");
+		checkEquals(3 * weight, cache.getWeight(), "weight after an eviction");
+		long misses = cache.getMisses();
+		for (int i : new int[] { 0, 2, 3 }) {
+			cache.get(paths.get(i));
+		}
+		checkEquals(misses, cache.getMisses(), "files kept");
+		//Use order 0, 2, 3: the file 0 is evicted
+		cache.get(paths.get(1));
+		checkEquals(misses + 1, cache.getMisses(), "evicted file parsed again");
+		checkEquals(2, cache.getEvictions(), "evictions");
+		misses = cache.getMisses();
+		for (int i : new int[] { 2, 3, 1 }) {
+			cache.get(paths.get(i));
+		}
+		checkEquals(misses, cache.getMisses(), "files kept after the second eviction");
+
+		//A file heavier than the capacity is not kept
+		ExifLruCache small = new ExifLruCache(weight - 1);
+		small.get(paths.get(4));
+		checkEquals(0, small.size(), "file heavier than the capacity");
+		checkEquals(0, small.getWeight(), "weight without file");
+		checkEquals(1, small.getEvictions(), "file heavier than the capacity evicted");
+	}
+
+	public void testChangedFileIsParsedAgain() throws IOException {
+		Path path = ExifTestFiles.tempFile(".jpg", ExifTestFiles.corpus("be_gps.jpg"));
+		ExifLruCache cache = new ExifLruCache(1 << 20);
+		Exif first = cache.get(path);
+		check(cache.get(path) == first, "cached");
+		//Other content of the same size, with another modification time
+		byte[] other = ExifTestFiles.corpus("le_gps.jpg");
+		check(other.length == Files.size(path), "same size");
+		FileTime modifiedTime = Files.getLastModifiedTime(path);
+		Files.write(path, other);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(modifiedTime.toMillis() + 10000));
+		Exif changed = cache.get(path);
+		check(changed != first, "parsed again after a modification time change");
+		checkEquals(ByteOrder.LITTLE_ENDIAN, changed.getByteOrder(), "content after a modification time change");
+		checkEquals(1, cache.getInvalidations(), "invalidations");
+		checkEquals(2, cache.getMisses(), "misses");
+		checkEquals(1, cache.size(), "size");
+		checkEquals(ExifLruCache.getWeight(changed), cache.getWeight(), "weight of the new Exif only");
+		check(cache.get(path) == changed, "cached once parsed again");
+	}
+
+	public void testFailedParseIsNotCached() throws Exception {
+		Path path = ExifTestFiles.tempFile(".tif", new ExifTestFiles.Tiff(ByteOrder.BIG_ENDIAN).setFirstIFD(0x7FFFFFF0).toBytes());
+		ExifLruCache cache = new ExifLruCache(1 << 20);
+		ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+		try {
+			for (int round = 0; round < 10; ++round) {
+				for (final Future<Exif> result : getAtOnce(cache, path, executor)) {
+					Exif.FormatException e = checkThrows(Exif.FormatException.class, "round " + round + " get", new Failing() {
+						@Override
+						public void run() throws Exception {
+							try {
+								result.get(60, TimeUnit.SECONDS);
+							} catch (ExecutionException failure) {
+								throw (Exception) failure.getCause();
+							}
+						}
+					});
+					check(e.getMessage() != null, "round " + round + " error message");
+				}
+				checkEquals(0, cache.size(), "round " + round + " failed parse not cached");
+				checkEquals(0, cache.getWeight(), "round " + round + " weight");
+			}
+			//Each round parses again, the threads which waited for a parse count as hits
+			checkEquals(10L * NB_THREADS, cache.getHits() + cache.getMisses(), "gets");
+			check(cache.getMisses() >= 10, cache.getMisses() + " misses for 10 rounds");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testInvalidateAndClear() throws IOException {
+		List<Path> paths = copies("be_small.jpg", 3);
+		long weight = ExifLruCache.getWeight(new Exif(paths.get(0)));
+		ExifLruCache cache = new ExifLruCache(1 << 20);
+		Exif first = cache.get(paths.get(0));
+		for (Path path : paths) {
+			cache.get(path);
+		}
+		checkEquals(3 * weight, cache.getWeight(), "weight of 3 files");
+		cache.invalidate(paths.get(0));
+		checkEquals(2, cache.size(), "size after invalidate");
+		checkEquals(2 * weight, cache.getWeight(), "weight after invalidate");
+		check(cache.get(paths.get(0)) != first, "parsed again after invalidate");
+		cache.invalidate(ExifTestFiles.corpusPath("missing.jpg"));
+		checkEquals(3 * weight, cache.getWeight(), "weight after invalidate of a file not cached");
+		cache.clear();
+		checkEquals(0, cache.size(), "size after clear");
+		checkEquals(0, cache.getWeight(), "weight after clear");
+		long misses = cache.getMisses();
+		cache.get(paths.get(1));
+		checkEquals(misses + 1, cache.getMisses(), "parsed again after clear");
+		checkEquals(weight, cache.getWeight(), "weight after clear and get");
+	}
+}
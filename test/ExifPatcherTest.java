@@ -0,0 +1,162 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import exif.Exif;
+import exif.ExifPatcher;
+
+/*
+ * In place patches: one small write of the value, in all the containers, checked against the file before writing.
+ */
+public class ExifPatcherTest extends ExifTestCase {
+
+	//Copy of a corpus file, and the same TIFF data in the other containers
+	private static Path[] files(String jpegName) throws IOException {
+		byte[] jpeg = ExifTestFiles.corpus(jpegName);
+		byte[] tiff = ExifTestFiles.tiffOf(jpeg);
+		return new Path[] {
+			ExifTestFiles.tempFile(".jpg", jpeg),
+			ExifTestFiles.tempFile(".tif", tiff),
+			ExifTestFiles.tempFile(".heic", ExifTestFiles.heif(tiff, ExifTestFiles.HeifLayout.MDAT)),
+			ExifTestFiles.tempFile(".png", ExifTestFiles.png(tiff, true, false)),
+			ExifTestFiles.tempFile(".webp", ExifTestFiles.webp(tiff, true)),
+		};
+	}
+
+	private static int countChangedBytes(byte[] before, byte[] after) {
+		checkEquals(before.length, after.length, "file length");
+		int changed = 0;
+		for (int i = 0; i < before.length; ++i) {
+			if (before[i] != after[i]) {
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	public void testSetIntegerInAllContainers() throws IOException {
+		for (String name : new String[] { "be_small.jpg", "le_small.jpg" }) {
+			for (Path path : files(name)) {
+				String what = name + " " + path.getFileName();
+				byte[] before = Files.readAllBytes(path);
+				checkEquals(6, new Exif(path).get(0x0112).getInt(), what + " Orientation before");
+				ExifPatcher patcher = new ExifPatcher(path, new Exif.Options().setTags(0x0112));
+				try {
+					patcher.setInteger(0x0112, 1);
+					checkEquals(6, patcher.getExif().get(0x0112).getInt(), what + " parsed Orientation");
+				} finally {
+					patcher.close();
+				}
+				checkEquals(1, new Exif(path).get(0x0112).getInt(), what + " Orientation after");
+				//The short value only, and the 4 bytes of the CRC of a PNG chunk
+				int changed = countChangedBytes(before, Files.readAllBytes(path));
+				check(changed <= (path.toString().endsWith(".png") ? 5 : 1), what + " : " + changed + " bytes changed");
+			}
+		}
+	}
+
+	public void testPngCrcIsUpdated() throws IOException {
+		Path path = files("be_gps.jpg")[3];
+		ExifPatcher patcher = new ExifPatcher(path);
+		try {
+			patcher.setInteger(0x0112, 3);
+			patcher.setString(0x010F, "Pentax");
+		} finally {
+			patcher.close();
+		}
+		ByteBuffer png = ByteBuffer.wrap(Files.readAllBytes(path));
+		int position = 8;
+		int nbChunks = 0;
+		while (position < png.limit()) {
+			int length = png.getInt(position);
+			CRC32 crc = new CRC32();
+			crc.update(png.array(), position + 4, 4 + length);
+			checkEquals((int) crc.getValue(), png.getInt(position + 8 + length), "CRC of chunk " + nbChunks);
+			position += 12 + length;
+			nbChunks++;
+		}
+		checkEquals(4, nbChunks, "chunks");
+		checkEquals(3, new Exif(path).get(0x0112).getInt(), "Orientation");
+	}
+
+	public void testSetStringIsPadded() throws IOException {
+		Path path = files("le_gps.jpg")[0];
+		final ExifPatcher patcher = new ExifPatcher(path);
+		try {
+			final int count = patcher.getExif().get(0x010F).getCount();
+			patcher.setString(0x010F, "Pentax");
+			checkThrows(IOException.class, "string as long as the old one", new Failing() {
+				@Override
+				public void run() throws Exception {
+					patcher.setString(0x010F, new String(new char[count]).replace('\0', 'x'));
+				}
+			});
+		} finally {
+			patcher.close();
+		}
+		String make = new Exif(path).get(0x010F).getString();
+		check(make.startsWith("Pentax\0"), "Make is '" + make + "'");
+		check(make.substring(6).replace("\0", "").isEmpty(), "Make padded with zeros: '" + make + "'");
+	}
+
+	public void testChangedFileIsNotWritten() throws IOException {
+		Path path = files("be_small.jpg")[0];
+		final ExifPatcher first = new ExifPatcher(path);
+		try {
+			ExifPatcher second = new ExifPatcher(path);
+			try {
+				second.setInteger(0x0112, 8);
+			} finally {
+				second.close();
+			}
+			checkThrows(IOException.class, "value changed since the parse", new Failing() {
+				@Override
+				public void run() throws Exception {
+					first.setInteger(0x0112, 1);
+				}
+			});
+		} finally {
+			first.close();
+		}
+		checkEquals(8, new Exif(path).get(0x0112).getInt(), "Orientation of the second patcher");
+	}
+
+	public void testWrongValuesAreRejected() throws IOException {
+		Path path = files("le_small.jpg")[0];
+		byte[] before = Files.readAllBytes(path);
+		final ExifPatcher patcher = new ExifPatcher(path);
+		try {
+			checkThrows(IOException.class, "out of the short range", new Failing() {
+				@Override
+				public void run() throws Exception {
+					patcher.setInteger(0x0112, 70000);
+				}
+			});
+			checkThrows(IOException.class, "integer of an ascii tag", new Failing() {
+				@Override
+				public void run() throws Exception {
+					patcher.setInteger(0x010F, 1);
+				}
+			});
+			checkThrows(IOException.class, "missing tag", new Failing() {
+				@Override
+				public void run() throws Exception {
+					patcher.setInteger(0xFFFE, 1);
+				}
+			});
+			checkThrows(IOException.class, "raw value of another length", new Failing() {
+				@Override
+				public void run() throws Exception {
+					patcher.setRaw(0x0112, new byte[4]);
+				}
+			});
+		} finally {
+			patcher.close();
+		}
+		checkEquals(0, countChangedBytes(before, Files.readAllBytes(path)), "changed bytes");
+	}
+}
@@ -0,0 +1,84 @@
+package exif.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import exif.Exif;
+
+/*
+ * PNG eXIf chunk and WebP EXIF chunk, found by jumping from chunk to chunk without reading the image data.
+ */
+public class ExifPngWebpTest extends ExifTestCase {
+
+	private static final String[] JPEGS = { "be_gps.jpg", "le_gps.jpg" };
+
+	private static void checkSameValues(Exif expected, Exif actual, String what) {
+		checkEquals(expected.getByteOrder(), actual.getByteOrder(), what + " byte order");
+		checkEquals(expected.getExtractedCount(), actual.getExtractedCount(), what + " extracted count");
+		for (Exif.ExifValue value : expected.getAllExtracted()) {
+			checkEquals(ExifTestFiles.toString(value), ExifTestFiles.toString(actual.get(value.getTagValue())), what + " tag 0x" + Integer.toHexString(value.getTagValue()));
+		}
+	}
+
+	public void testPngChunkPositions() throws IOException {
+		for (String name : JPEGS) {
+			byte[] jpeg = ExifTestFiles.corpus(name);
+			byte[] tiff = ExifTestFiles.tiffOf(jpeg);
+			checkSameValues(new Exif(jpeg), new Exif(ExifTestFiles.png(tiff, false, false)), name + " eXIf after IDAT");
+			checkSameValues(new Exif(jpeg), new Exif(ExifTestFiles.png(tiff, true, true)), name + " eXIf with Exif00 header before IDAT");
+		}
+	}
+
+	public void testWebpChunks() throws IOException {
+		for (String name : JPEGS) {
+			byte[] jpeg = ExifTestFiles.corpus(name);
+			byte[] tiff = ExifTestFiles.tiffOf(jpeg);
+			checkSameValues(new Exif(jpeg), new Exif(ExifTestFiles.webp(tiff, false)), name + " EXIF chunk");
+			checkSameValues(new Exif(jpeg), new Exif(ExifTestFiles.webp(tiff, true)), name + " EXIF chunk with Exif00 header");
+		}
+	}
+
+	public void testImageDataIsNotRead() throws IOException {
+		byte[] tiff = ExifTestFiles.tiffOf(ExifTestFiles.corpus("le_small.jpg"));
+		for (byte[] file : new byte[][] { ExifTestFiles.png(tiff, false, false), ExifTestFiles.webp(tiff, false) }) {
+			ExifTestFiles.CountingSource source = new ExifTestFiles.CountingSource(file);
+			new Exif(source, new Exif.Options());
+			check(source.getBytesRead() < 64 * 1024, source.getBytesRead() + " bytes read for a 1 MB file");
+		}
+	}
+
+	public void testFilesWithoutExifHaveNoValue() throws IOException {
+		byte[] png = ExifTestFiles.concat(Arrays.copyOf(ExifTestFiles.png(new byte[0], true, false), 8), ExifTestFiles.pngChunk("IHDR", new byte[13]), ExifTestFiles.pngChunk("IDAT", new byte[1000]), ExifTestFiles.pngChunk("IEND"));
+		checkEquals(0, new Exif(png).getExtractedCount(), "PNG without eXIf");
+		byte[] simple = ExifTestFiles.riff("WEBP", ExifTestFiles.riffChunk("VP8 ", new byte[1000]));
+		checkEquals(0, new Exif(simple).getExtractedCount(), "simple WebP");
+		//The EXIF chunk is ignored without the EXIF flag of the VP8X chunk
+		byte[] tiff = ExifTestFiles.tiffOf(ExifTestFiles.corpus("le_small.jpg"));
+		byte[] noFlag = ExifTestFiles.riff("WEBP", ExifTestFiles.riffChunk("VP8X", new byte[10]), ExifTestFiles.riffChunk("VP8 ", new byte[1000]), ExifTestFiles.riffChunk("EXIF", tiff));
+		checkEquals(0, new Exif(noFlag).getExtractedCount(), "WebP without EXIF flag");
+	}
+
+	public void testOtherRiffFilesAreRejected() {
+		final byte[] avi = ExifTestFiles.riff("AVI ", ExifTestFiles.riffChunk("LIST", ExifTestFiles.ascii("abcd")));
+		checkThrows(Exif.FormatException.class, "AVI file", new Failing() {
+			@Override
+			public void run() throws Exception {
+				new Exif(avi);
+			}
+		});
+	}
+
+	public void testTruncatedFilesAreRejected() throws IOException {
+		byte[] tiff = ExifTestFiles.tiffOf(ExifTestFiles.corpus("be_small.jpg"));
+		for (final byte[] file : new byte[][] { ExifTestFiles.png(tiff, false, false), ExifTestFiles.webp(tiff, true) }) {
+			for (final int length : new int[] { 20, (1 << 19), file.length - 100 }) {
+				checkThrows(Exif.FormatException.class, "truncated at " + length, new Failing() {
+					@Override
+					public void run() throws Exception {
+						new Exif(Arrays.copyOf(file, length));
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import exif.Exif;
+import exif.ExifRewriter;
+
+/*
+ * Strip and replace: bytes around the EXIF segments compared to the source, files without or with several EXIF
+ * segments, and rejected rewrites.
+ */
+public class ExifRewriterTest extends ExifTestCase {
+
+	private static final String[] JPEGS = { "be_small.jpg", "le_small.jpg", "be_gps.jpg", "le_gps.jpg", "be_large.jpg", "le_large.jpg", "be_nothumb.jpg", "le_nothumb.jpg" };
+
+	//[position, length] of the first EXIF APP1 segment (marker included)
+	private static int[] exifSegment(byte[] jpeg) {
+		ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+		int position = 2;
+		while (position + 4 <= jpeg.length) {
+			int marker = buffer.getShort(position) & 0xFFFF;
+			int length = buffer.getShort(position + 2) & 0xFFFF;
+			if ((marker == 0xFFE1) && (jpeg[position + 4] == 'E')) {
+				return new int[] { position, 2 + length };
+			}
+			position += 2 + length;
+		}
+		throw new IllegalArgumentException("No EXIF APP1 segment");
+	}
+
+	private static byte[] app1(byte[] tiff) {
+		return ExifTestFiles.concat(ExifTestFiles.int16(0xFFE1), ExifTestFiles.int16(2 + 6 + tiff.length), ExifTestFiles.ascii("Exif"), new byte[2], tiff);
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] array = new byte[buffer.remaining()];
+		buffer.duplicate().get(array);
+		return array;
+	}
+
+	//Existing target, replaced by the rewrite
+	private static Path target() throws IOException {
+		return ExifTestFiles.tempFile(".jpg", new byte[] { 1, 2, 3 });
+	}
+
+	private static void checkNoTemporaryFile(Path target) {
+		check(Files.exists(target.resolveSibling(target.getFileName() + ".tmp")) == false, target + " temporary file removed");
+	}
+
+	public void testStripAndReplace() throws IOException {
+		for (String name : JPEGS) {
+			byte[] jpeg = ExifTestFiles.corpus(name);
+			int[] segment = exifSegment(jpeg);
+			byte[] before = Arrays.copyOfRange(jpeg, 0, segment[0]);
+			byte[] after = Arrays.copyOfRange(jpeg, segment[0] + segment[1], jpeg.length);
+			Path source = ExifTestFiles.corpusPath(name);
+
+			Path stripped = target();
+			check(ExifRewriter.strip(source, stripped), name + " has an EXIF segment");
+			checkEquals(ExifTestFiles.concat(before, after), Files.readAllBytes(stripped), name + " stripped");
+			checkEquals(0, new Exif(stripped).getExtractedCount(), name + " stripped extracted count");
+			checkNoTemporaryFile(stripped);
+
+			Exif exif = new Exif(source);
+			byte[] tiff = toArray(ExifRewriter.toTiff(exif, true, Exif.Directory.GPS));
+			Path replaced = target();
+			ExifRewriter.replace(source, replaced, ByteBuffer.wrap(tiff));
+			checkEquals(ExifTestFiles.concat(before, app1(tiff), after), Files.readAllBytes(replaced), name + " replaced");
+			Exif rewritten = new Exif(replaced);
+			check(rewritten.getGPSLatitude() == null, name + " GPS removed");
+			checkEquals(exif.get(0x0112).getInt(), rewritten.get(0x0112).getInt(), name + " Orientation kept");
+			checkEquals(exif.getThumbnailLength(), rewritten.getThumbnailLength(), name + " thumbnail kept");
+			checkNoTemporaryFile(replaced);
+		}
+	}
+
+	public void testFileWithoutExifSegment() throws IOException {
+		byte[] jpeg = ExifTestFiles.corpus("le_gps.jpg");
+		int[] segment = exifSegment(jpeg);
+		byte[] tiff = ExifTestFiles.tiffOf(jpeg);
+		//With the JFIF APP0 segment first, and without the APP0 segments (one before and one after the EXIF segment)
+		byte[] withApp0 = ExifTestFiles.concat(Arrays.copyOfRange(jpeg, 0, segment[0]), Arrays.copyOfRange(jpeg, segment[0] + segment[1], jpeg.length));
+		int secondApp0End = segment[0] + 2 + (ByteBuffer.wrap(withApp0).getShort(segment[0] + 2) & 0xFFFF);
+		byte[] withoutApp0 = ExifTestFiles.concat(Arrays.copyOfRange(jpeg, 0, 2), Arrays.copyOfRange(withApp0, secondApp0End, withApp0.length));
+		int[] insertPositions = { segment[0], 2 };
+		byte[][] sources = { withApp0, withoutApp0 };
+		for (int i = 0; i < sources.length; ++i) {
+			String what = (i == 0) ? "with APP0" : "without APP0";
+			Path source = ExifTestFiles.tempFile(".jpg", sources[i]);
+			Path target = target();
+			check(ExifRewriter.strip(source, target) == false, what + " has no EXIF segment");
+			checkEquals(sources[i], Files.readAllBytes(target), what + " exact copy");
+
+			ExifRewriter.replace(source, target, ByteBuffer.wrap(tiff));
+			byte[] expected = ExifTestFiles.concat(Arrays.copyOfRange(sources[i], 0, insertPositions[i]), app1(tiff), Arrays.copyOfRange(sources[i], insertPositions[i], sources[i].length));
+			checkEquals(expected, Files.readAllBytes(target), what + " inserted segment");
+			checkEquals(new Exif(jpeg).getGPSLatitude(), new Exif(target).getGPSLatitude(), what + " latitude");
+		}
+	}
+
+	public void testSeveralExifSegments() throws IOException {
+		byte[] jpeg = ExifTestFiles.corpus("be_gps.jpg");
+		int[] segment = exifSegment(jpeg);
+		byte[] before = Arrays.copyOfRange(jpeg, 0, segment[0]);
+		byte[] exifSegment = Arrays.copyOfRange(jpeg, segment[0], segment[0] + segment[1]);
+		byte[] after = Arrays.copyOfRange(jpeg, segment[0] + segment[1], jpeg.length);
+		//A second EXIF segment after the second APP0 segment, and a corrupted one just after the first
+		int app0Length = 2 + (ByteBuffer.wrap(after).getShort(2) & 0xFFFF);
+		byte[] corrupted = app1(new byte[] { 'X', 'X', 0, 0 });
+		Path source = ExifTestFiles.tempFile(".jpg", ExifTestFiles.concat(before, exifSegment, corrupted, Arrays.copyOfRange(after, 0, app0Length), exifSegment, Arrays.copyOfRange(after, app0Length, after.length)));
+
+		Path target = target();
+		check(ExifRewriter.strip(source, target), "EXIF segments found");
+		checkEquals(ExifTestFiles.concat(before, after), Files.readAllBytes(target), "all EXIF segments stripped");
+
+		byte[] tiff = ExifTestFiles.tiffOf(ExifTestFiles.corpus("le_small.jpg"));
+		ExifRewriter.replace(source, target, ByteBuffer.wrap(tiff));
+		checkEquals(ExifTestFiles.concat(before, app1(tiff), after), Files.readAllBytes(target), "one EXIF segment in place of the first");
+	}
+
+	public void testRejectedRewrites() throws IOException {
+		final byte[] jpeg = ExifTestFiles.corpus("le_small.jpg");
+		final Path source = ExifTestFiles.tempFile(".jpg", jpeg);
+		//Into itself, also through another path to the same file
+		for (final Path target : new Path[] { source, source.getParent().resolve(".").resolve(source.getFileName()) }) {
+			checkThrows(IOException.class, "rewrite of " + target + " into itself", new Failing() {
+				@Override
+				public void run() throws Exception {
+					ExifRewriter.strip(source, target);
+				}
+			});
+		}
+		checkEquals(jpeg, Files.readAllBytes(source), "source unchanged");
+
+		//TIFF data too large for an APP1 segment, and a source which is not a JPEG file: the existing target is unchanged
+		final Path target = target();
+		checkThrows(IOException.class, "TIFF data too large", new Failing() {
+			@Override
+			public void run() throws Exception {
+				ExifRewriter.replace(source, target, ByteBuffer.allocate(0xFFFF - 7));
+			}
+		});
+		//The largest TIFF data fills an APP1 segment of 65535 bytes
+		ExifRewriter.replace(source, target, ByteBuffer.allocate(0xFFFF - 8));
+		checkEquals(jpeg.length - exifSegment(jpeg)[1] + 2 + 0xFFFF, Files.size(target), "largest APP1 segment");
+		final byte[] rewritten = Files.readAllBytes(target);
+		final Path notJpeg = ExifTestFiles.tempFile(".tif", ExifTestFiles.corpus("le_raw.tif"));
+		checkThrows(IOException.class, "not a JPEG file", new Failing() {
+			@Override
+			public void run() throws Exception {
+				ExifRewriter.strip(notJpeg, target);
+			}
+		});
+		checkEquals(rewritten, Files.readAllBytes(target), "target unchanged");
+		checkNoTemporaryFile(target);
+	}
+}
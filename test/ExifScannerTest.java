@@ -0,0 +1,253 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import exif.Exif;
+import exif.ExifScanner;
+
+/*
+ * Parallel scans: results and counters compared to the parsed files, errors of files, and exceptions of the handler
+ * and of the executor.
+ */
+public class ExifScannerTest extends ExifTestCase {
+
+	private static final String[] FILES = { "be_small.jpg", "le_small.jpg", "be_gps.jpg", "le_gps.jpg", "be_large.jpg", "le_large.jpg", "be_nothumb.jpg", "le_nothumb.jpg", "be_raw.tif", "le_raw.tif" };
+
+	//Results of a scan by path
+	private static class Collector implements ExifScanner.ResultHandler {
+		private final Map<Path, ExifScanner.Result> _results = new ConcurrentHashMap<Path, ExifScanner.Result>();
+		private final AtomicInteger _duplicates = new AtomicInteger();
+
+		@Override
+		public void onResult(ExifScanner.Result result) {
+			if (_results.put(result.getPath(), result) != null) {
+				_duplicates.incrementAndGet();
+			}
+		}
+	}
+
+	//Directory with copies of the corpus files, a file which is not valid, and a sub directory
+	private static Path directory() throws IOException {
+		Path directory = Files.createTempDirectory("exif-test");
+		directory.toFile().deleteOnExit();
+		Path sub = Files.createDirectory(directory.resolve("sub"));
+		sub.toFile().deleteOnExit();
+		for (int i = 0; i < FILES.length; ++i) {
+			Path path = ((i % 2 == 0) ? directory : sub).resolve(FILES[i]);
+			Files.write(path, ExifTestFiles.corpus(FILES[i]));
+			path.toFile().deleteOnExit();
+		}
+		Path invalid = sub.resolve("invalid.tif");
+		Files.write(invalid, new ExifTestFiles.Tiff(ByteOrder.BIG_ENDIAN).setFirstIFD(0x7FFFFFF0).toBytes());
+		invalid.toFile().deleteOnExit();
+		return directory;
+	}
+
+	private static List<Path> regularFiles(Path directory) throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		Stream<Path> walk = Files.walk(directory);
+		try {
+			Iterator<Path> it = walk.iterator();
+			while (it.hasNext()) {
+				Path path = it.next();
+				if (Files.isRegularFile(path)) {
+					paths.add(path);
+				}
+			}
+		} finally {
+			walk.close();
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	//Each result compared to the parse of its file, and the counters to the files
+	private static void checkScan(List<Path> paths, Collector collector, ExifScanner.Stats stats, String what) throws IOException {
+		checkEquals(0, collector._duplicates.get(), what + " files reported twice");
+		checkEquals(paths.size(), collector._results.size(), what + " results");
+		long bytes = 0;
+		int errors = 0;
+		for (Path path : paths) {
+			ExifScanner.Result result = collector._results.get(path);
+			check(result != null, what + " result of " + path);
+			Exif exif;
+			FileChannel channel;
+			try {
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+			} catch (NoSuchFileException e) {
+				check(result.isError() && (result.getError() instanceof NoSuchFileException), what + " " + path + " missing");
+				checkEquals(-1, result.getSize(), what + " " + path + " size of a missing file");
+				errors++;
+				continue;
+			}
+			try {
+				bytes += channel.size();
+				checkEquals(channel.size(), result.getSize(), what + " " + path + " size");
+				exif = new Exif(channel);
+			} catch (Exif.FormatException e) {
+				check(result.isError() && (result.getError() instanceof Exif.FormatException), what + " " + path + " error");
+				check(result.getExif() == null, what + " " + path + " no Exif");
+				errors++;
+				continue;
+			} finally {
+				channel.close();
+			}
+			check(result.isError() == false, what + " " + path + " no error : " + result.getError());
+			checkEquals(exif.getExtractedCount(), result.getExif().getExtractedCount(), what + " " + path + " extracted count");
+		}
+		checkEquals(paths.size(), stats.getFiles(), what + " files");
+		checkEquals(bytes, stats.getBytes(), what + " bytes");
+		checkEquals(errors, stats.getErrors(), what + " errors");
+	}
+
+	public void testDirectoryScan() throws IOException {
+		Path directory = directory();
+		List<Path> paths = regularFiles(directory);
+		checkEquals(FILES.length + 1, paths.size(), "files of the directory");
+		Collector collector = new Collector();
+		ExifScanner.Stats stats = new ExifScanner().scan(directory, collector);
+		checkScan(paths, collector, stats, "default scanner");
+		checkEquals(1, stats.getErrors(), "invalid file reported");
+
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			collector = new Collector();
+			checkScan(paths, collector, new ExifScanner(single, new Exif.Options(), 1).scan(directory, collector), "1 file at a time");
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	public void testCorpusScan() throws IOException {
+		Path corpus = ExifTestFiles.corpusPath(FILES[0]).getParent();
+		List<Path> paths = regularFiles(corpus);
+		Collector collector = new Collector();
+		checkScan(paths, collector, new ExifScanner().scan(corpus, collector), "corpus directory");
+		collector = new Collector();
+		checkScan(paths, collector, new ExifScanner().scan(paths.stream(), collector), "corpus stream");
+	}
+
+	//Missing and invalid files are reported, the next files are parsed
+	public void testErrorsDoNotStopTheScan() throws IOException {
+		Path directory = directory();
+		List<Path> paths = new ArrayList<Path>();
+		for (Path path : regularFiles(directory)) {
+			paths.add(directory.resolve("missing-" + path.getFileName()));
+			paths.add(path);
+		}
+		Collector collector = new Collector();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			ExifScanner.Stats stats = new ExifScanner(pool, new Exif.Options(), 3).scan(paths.stream(), collector);
+			checkScan(paths, collector, stats, "stream with errors");
+			checkEquals(FILES.length + 1 + 1, stats.getErrors(), "missing and invalid files");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testHandlerExceptionStopsTheScan() throws IOException {
+		final IllegalStateException thrown = new IllegalStateException("Handler failure");
+		final AtomicInteger calls = new AtomicInteger();
+		final ExifScanner.ResultHandler failing = new ExifScanner.ResultHandler() {
+			@Override
+			public void onResult(ExifScanner.Result result) {
+				if (calls.incrementAndGet() == 5) {
+					throw thrown;
+				}
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			final ExifScanner scanner = new ExifScanner(pool, new Exif.Options(), 2);
+			IllegalStateException e = checkThrows(IllegalStateException.class, "handler exception of a stream scan", new Failing() {
+				@Override
+				public void run() throws Exception {
+					scanner.scan(repeat(1000).stream(), failing);
+				}
+			});
+			check(e == thrown, "same exception of a stream scan");
+			check(calls.get() < 100, calls.get() + " files reported by a stream scan stopped at the 5th file");
+
+			calls.set(0);
+			final Path directory = directory();
+			e = checkThrows(IllegalStateException.class, "handler exception of a directory scan", new Failing() {
+				@Override
+				public void run() throws Exception {
+					scanner.scan(directory, failing);
+				}
+			});
+			check(e == thrown, "same exception of a directory scan");
+			check(calls.get() < FILES.length + 1, calls.get() + " files reported by a directory scan stopped at the 5th file");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static List<Path> repeat(int count) {
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = 0; i < count; ++i) {
+			paths.add(ExifTestFiles.corpusPath(FILES[i % FILES.length]));
+		}
+		return paths;
+	}
+
+	//The slot of a rejected file is released: otherwise the scan waits forever for it
+	public void testRejectingExecutor() throws Exception {
+		final AtomicInteger executed = new AtomicInteger();
+		Executor rejecting = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				if (executed.incrementAndGet() > 3) {
+					throw new RejectedExecutionException("Full");
+				}
+				command.run();
+			}
+		};
+		final ExifScanner scanner = new ExifScanner(rejecting, new Exif.Options(), 1);
+		final Collector collector = new Collector();
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		try {
+			Future<ExifScanner.Stats> scan = caller.submit(new Callable<ExifScanner.Stats>() {
+				@Override
+				public ExifScanner.Stats call() throws Exception {
+					return scanner.scan(repeat(10).stream(), collector);
+				}
+			});
+			try {
+				scan.get(60, TimeUnit.SECONDS);
+				throw new AssertionError("Rejected file not reported");
+			} catch (ExecutionException e) {
+				check(e.getCause() instanceof RejectedExecutionException, "rejection thrown : " + e.getCause());
+			}
+			checkEquals(3, collector._results.size(), "files parsed before the rejection");
+		} finally {
+			caller.shutdownNow();
+		}
+		//The scanner has no state: the next scan is not affected
+		executed.set(Integer.MIN_VALUE);
+		checkEquals(FILES.length, scanner.scan(repeat(FILES.length).stream(), new Collector()).getFiles(), "scan after a rejection");
+	}
+}
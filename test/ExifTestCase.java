@@ -0,0 +1,68 @@
+package exif.test;
+
+import java.util.Arrays;
+
+/*
+ * Checks of the tests: a failed check throws an AssertionError with the given description.
+ */
+public abstract class ExifTestCase {
+
+	//Code which must throw an exception
+	protected interface Failing {
+		void run() throws Exception;
+	}
+
+	protected static void check(boolean condition, String what) {
+		if (condition == false) {
+			throw new AssertionError(what);
+		}
+	}
+
+	protected static void checkEquals(Object expected, Object actual, String what) {
+		boolean equal;
+		if ((expected instanceof int[]) && (actual instanceof int[])) {
+			equal = Arrays.equals((int[]) expected, (int[]) actual);
+		} else if ((expected instanceof byte[]) && (actual instanceof byte[])) {
+			equal = Arrays.equals((byte[]) expected, (byte[]) actual);
+		} else {
+			equal = (expected == null) ? (actual == null) : expected.equals(actual);
+		}
+		if (equal == false) {
+			throw new AssertionError(what + " : expected " + toString(expected) + " but was " + toString(actual));
+		}
+	}
+
+	protected static void checkEquals(long expected, long actual, String what) {
+		if (expected != actual) {
+			throw new AssertionError(what + " : expected " + expected + " but was " + actual);
+		}
+	}
+
+	protected static void checkEquals(double expected, double actual, double delta, String what) {
+		if (Math.abs(expected - actual) > delta) {
+			throw new AssertionError(what + " : expected " + expected + " but was " + actual);
+		}
+	}
+
+	//Return the exception, which must be of the given type (or a sub type)
+	protected static <T extends Throwable> T checkThrows(Class<T> expected, String what, Failing failing) {
+		try {
+			failing.run();
+		} catch (Throwable e) {
+			if (expected.isInstance(e)) {
+				return expected.cast(e);
+			}
+			throw new AssertionError(what + " : expected " + expected.getSimpleName() + " but was " + e, e);
+		}
+		throw new AssertionError(what + " : expected " + expected.getSimpleName() + " but nothing was thrown");
+	}
+
+	private static String toString(Object value) {
+		if (value instanceof int[]) {
+			return Arrays.toString((int[]) value);
+		} else if (value instanceof byte[]) {
+			return Arrays.toString((byte[]) value);
+		}
+		return String.valueOf(value);
+	}
+}
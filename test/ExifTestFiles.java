@@ -0,0 +1,323 @@
+package exif.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import exif.Exif;
+
+/*
+ * Fixtures of the tests: files of the generated corpus, TIFF data built entry by entry, containers built around TIFF
+ * data, and temporary files.
+ */
+public class ExifTestFiles {
+
+	private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+
+	private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	private static File _corpus = new File("bench/corpus");
+
+	private ExifTestFiles() {
+	}
+
+	static void setCorpus(File corpus) {
+		_corpus = corpus;
+	}
+
+	//File of the corpus, as generated by exif.bench.ExifSampleGenerator (be_ or le_ small, gps, large, nothumb .jpg, and raw.tif)
+	public static byte[] corpus(String name) throws IOException {
+		return Files.readAllBytes(new File(_corpus, name).toPath());
+	}
+
+	public static Path corpusPath(String name) {
+		return new File(_corpus, name).toPath();
+	}
+
+	//TIFF data of the EXIF APP1 segment of a JPEG file
+	public static byte[] tiffOf(byte[] jpeg) {
+		ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+		int position = 2;
+		while (position + 4 <= jpeg.length) {
+			int marker = buffer.getShort(position) & 0xFFFF;
+			int length = buffer.getShort(position + 2) & 0xFFFF;
+			if ((marker == 0xFFE1) && (new String(jpeg, position + 4, 4, StandardCharsets.ISO_8859_1).equals("Exif"))) {
+				return Arrays.copyOfRange(jpeg, position + 10, position + 2 + length);
+			}
+			position += 2 + length;
+		}
+		throw new IllegalArgumentException("No EXIF APP1 segment");
+	}
+
+	//Decoded value, to compare the values of two files
+	public static String toString(Exif.ExifValue value) {
+		return (value.getValue() instanceof byte[]) ? Arrays.toString((byte[]) value.getValue()) : String.valueOf(value.getValue());
+	}
+
+	//HEIF file with an 'Exif' item (offset to the TIFF header, 'Exif00' header, TIFF data) and 1 MB of media data:
+	//MDAT = item at the end of the 'mdat' box after the 'meta' box, IDAT = item in the 'idat' box of the 'meta' box,
+	//LARGE_MDAT = 'mdat' box with a 64 bits length before the 'meta' box
+	public enum HeifLayout {
+		MDAT, IDAT, LARGE_MDAT
+	}
+
+	public static byte[] heif(byte[] tiff, HeifLayout layout) {
+		byte[] item = concat(int32(6), EXIF_HEADER, tiff);
+		byte[] media = new byte[1 << 20];
+		byte[] ftyp = box("ftyp", ascii("heic"), int32(0), ascii("mif1heic"));
+		byte[] hdlr = fullBox("hdlr", 0, int32(0), ascii("pict"), new byte[13]);
+		byte[] iinf = fullBox("iinf", 0, int16(2), fullBox("infe", 2, int16(1), int16(0), ascii("hvc1"), new byte[1]), fullBox("infe", 2, int16(2), int16(0), ascii("Exif"), new byte[1]));
+		if (layout == HeifLayout.IDAT) {
+			return concat(ftyp, fullBox("meta", 0, hdlr, iloc(2, 1, 0, item.length), iinf, box("idat", item)), box("mdat", media));
+		} else if (layout == HeifLayout.LARGE_MDAT) {
+			byte[] mdat = concat(int32(1), ascii("mdat"), int32(0), int32(16 + media.length + item.length), media, item);
+			return concat(ftyp, mdat, fullBox("meta", 0, hdlr, iloc(2, 0, ftyp.length + 16 + media.length, item.length), iinf));
+		}
+		int metaLength = fullBox("meta", 0, hdlr, iloc(2, 0, 0, item.length), iinf).length;
+		int itemPosition = ftyp.length + metaLength + 8 + media.length;
+		return concat(ftyp, fullBox("meta", 0, hdlr, iloc(2, 0, itemPosition, item.length), iinf), box("mdat", media, item));
+	}
+
+	//PNG file with an eXIf chunk before or after 1 MB of image data, with or without the 'Exif00' header before the TIFF data
+	public static byte[] png(byte[] tiff, boolean beforeImage, boolean exifHeader) {
+		byte[] ihdr = pngChunk("IHDR", int32(10), int32(10), new byte[] { 8, 2, 0, 0, 0 });
+		byte[] exif = pngChunk("eXIf", exifHeader ? EXIF_HEADER : new byte[0], tiff);
+		byte[] idat = pngChunk("IDAT", new byte[1 << 20]);
+		return concat(PNG_SIGNATURE, ihdr, beforeImage ? exif : idat, beforeImage ? idat : exif, pngChunk("IEND"));
+	}
+
+	//Length, type, data and CRC of type and data
+	public static byte[] pngChunk(String type, byte[]... payloads) {
+		byte[] payload = concat(payloads);
+		CRC32 crc = new CRC32();
+		crc.update(ascii(type));
+		crc.update(payload);
+		return concat(int32(payload.length), ascii(type), payload, int32((int) crc.getValue()));
+	}
+
+	//Extended WebP file (VP8X chunk with the EXIF flag) with an EXIF chunk after chunks of odd lengths and 1 MB of image data
+	public static byte[] webp(byte[] tiff, boolean exifHeader) {
+		byte[] vp8x = riffChunk("VP8X", new byte[] { 0x08, 0, 0, 0, 9, 0, 0, 9, 0, 0 });
+		return riff("WEBP", vp8x, riffChunk("ICCP", ascii("abc")), riffChunk("VP8 ", new byte[(1 << 20) + 1]), riffChunk("EXIF", exifHeader ? EXIF_HEADER : new byte[0], tiff));
+	}
+
+	public static byte[] riff(String formType, byte[]... chunks) {
+		byte[] body = concat(ascii(formType), concat(chunks));
+		return concat(ascii("RIFF"), littleEndian(body.length), body);
+	}
+
+	//Type, length (little endian), data padded to an even length
+	public static byte[] riffChunk(String type, byte[]... payloads) {
+		byte[] payload = concat(payloads);
+		return concat(ascii(type), littleEndian(payload.length), payload, new byte[payload.length & 1]);
+	}
+
+	private static byte[] littleEndian(int value) {
+		return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+	}
+
+	//HEIF whose EXIF item has the given location, with 8 bytes base offset, offset and length (construction method 0 or 1 for the 'idat' box)
+	public static byte[] heif(int constructionMethod, long baseOffset, long offset, long length) {
+		byte[] ftyp = box("ftyp", ascii("heic"), int32(0), ascii("mif1heic"));
+		byte[] hdlr = fullBox("hdlr", 0, int32(0), ascii("pict"), new byte[13]);
+		byte[] iinf = fullBox("iinf", 0, int16(1), fullBox("infe", 2, int16(2), int16(0), ascii("Exif"), new byte[1]));
+		byte[] iloc = fullBox("iloc", 1, new byte[] { (byte) 0x88, (byte) 0x80 }, int16(1), int16(2), int16(constructionMethod), int16(0), int64(baseOffset), int16(1), int64(offset), int64(length));
+		return concat(ftyp, fullBox("meta", 0, hdlr, iloc, iinf, box("idat", new byte[64])), box("mdat", new byte[64]));
+	}
+
+	//Version 1, 4 bytes offsets and lengths, one extent
+	private static byte[] iloc(int itemID, int constructionMethod, int offset, int length) {
+		return fullBox("iloc", 1, new byte[] { 0x44, 0x00 }, int16(1), int16(itemID), int16(constructionMethod), int16(0), int16(1), int32(offset), int32(length));
+	}
+
+	//ISO media box (32 bits length)
+	public static byte[] box(String type, byte[]... payloads) {
+		byte[] payload = concat(payloads);
+		return concat(int32(8 + payload.length), ascii(type), payload);
+	}
+
+	public static byte[] fullBox(String type, int version, byte[]... payloads) {
+		return box(type, new byte[] { (byte) version, 0, 0, 0 }, concat(payloads));
+	}
+
+	public static byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] array : arrays) {
+			out.write(array, 0, array.length);
+		}
+		return out.toByteArray();
+	}
+
+	//Big endian
+	public static byte[] int16(int value) {
+		return ByteBuffer.allocate(2).putShort((short) value).array();
+	}
+
+	public static byte[] int32(int value) {
+		return ByteBuffer.allocate(4).putInt(value).array();
+	}
+
+	public static byte[] int64(long value) {
+		return ByteBuffer.allocate(8).putLong(value).array();
+	}
+
+	public static byte[] ascii(String str) {
+		return str.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	//Source which counts the bytes read
+	public static class CountingSource implements Exif.Source {
+		private final Exif.Source _source;
+		private long			  _bytesRead;
+
+		public CountingSource(byte[] data) {
+			_source = new Exif.BufferSource(ByteBuffer.wrap(data));
+		}
+
+		@Override
+		public long size() throws IOException {
+			return _source.size();
+		}
+
+		@Override
+		public ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer buffer = _source.read(position, length);
+			_bytesRead += buffer.remaining();
+			return buffer;
+		}
+
+		public long getBytesRead() {
+			return _bytesRead;
+		}
+	}
+
+	//Deleted when the tests end
+	public static Path tempFile(String suffix, byte[] data) throws IOException {
+		Path path = Files.createTempFile("exif-test", suffix);
+		path.toFile().deleteOnExit();
+		Files.write(path, data);
+		return path;
+	}
+
+	//TIFF data written IFD by IFD, in big or little endian; values longer than 4 bytes are written after their IFD
+	public static class Tiff {
+		private final ByteBuffer _data = ByteBuffer.allocate(4 << 20);
+
+		public Tiff(ByteOrder order) {
+			_data.order(order);
+			_data.put((byte) ((order == ByteOrder.LITTLE_ENDIAN) ? 'I' : 'M'));
+			_data.put(_data.get(0));
+			_data.putShort((short) 42);
+			_data.putInt(0); //offset to IFD0, see setFirstIFD
+		}
+
+		public static class Entry {
+			private final int	 _tag;
+			private final int	 _format;
+			private final int	 _count;
+			private final byte[] _value;
+
+			private Entry(int tag, int format, int count, byte[] value) {
+				_tag = tag;
+				_format = format;
+				_count = count;
+				_value = value;
+			}
+		}
+
+		public Entry ascii(int tag, String value) {
+			byte[] bytes = Arrays.copyOf(value.getBytes(StandardCharsets.ISO_8859_1), value.length() + 1);
+			return new Entry(tag, 2, bytes.length, bytes);
+		}
+
+		public Entry shorts(int tag, int... values) {
+			ByteBuffer value = ByteBuffer.allocate(2 * values.length).order(_data.order());
+			for (int v : values) {
+				value.putShort((short) v);
+			}
+			return new Entry(tag, 3, values.length, value.array());
+		}
+
+		public Entry longs(int tag, int... values) {
+			ByteBuffer value = ByteBuffer.allocate(4 * values.length).order(_data.order());
+			for (int v : values) {
+				value.putInt(v);
+			}
+			return new Entry(tag, 4, values.length, value.array());
+		}
+
+		public Entry rational(int tag, int numerator, int denominator) {
+			ByteBuffer value = ByteBuffer.allocate(8).order(_data.order());
+			value.putInt(numerator).putInt(denominator);
+			return new Entry(tag, 5, 1, value.array());
+		}
+
+		public Entry undefined(int tag, byte[] value) {
+			return new Entry(tag, 7, value.length, value);
+		}
+
+		//Raw entry, for corrupted counts and formats
+		public Entry raw(int tag, int format, int count, byte[] value) {
+			return new Entry(tag, format, count, value);
+		}
+
+		//Bytes which are not part of the metadata (image data); return their offset
+		public int data(int length) {
+			align();
+			int offset = _data.position();
+			_data.position(offset + length);
+			return offset;
+		}
+
+		//Return the offset of the IFD
+		public int ifd(int nextIFDOffset, Entry... entries) {
+			align();
+			int offset = _data.position();
+			int valuePosition = offset + 2 + 12 * entries.length + 4;
+			_data.putShort((short) entries.length);
+			for (Entry entry : entries) {
+				_data.putShort((short) entry._tag);
+				_data.putShort((short) entry._format);
+				_data.putInt(entry._count);
+				if (entry._value.length <= 4) {
+					_data.put(Arrays.copyOf(entry._value, 4));
+				} else {
+					_data.putInt(valuePosition);
+					ByteBuffer value = _data.duplicate();
+					value.position(valuePosition);
+					value.put(entry._value);
+					valuePosition += entry._value.length + (entry._value.length & 1);
+				}
+			}
+			_data.putInt(nextIFDOffset);
+			_data.position(valuePosition);
+			return offset;
+		}
+
+		public void setNextIFD(int ifdOffset, int nextIFDOffset) {
+			_data.putInt(ifdOffset + 2 + 12 * (_data.getShort(ifdOffset) & 0xFFFF), nextIFDOffset);
+		}
+
+		public Tiff setFirstIFD(int ifdOffset) {
+			_data.putInt(4, ifdOffset);
+			return this;
+		}
+
+		public byte[] toBytes() {
+			return Arrays.copyOf(_data.array(), _data.position());
+		}
+
+		private void align() {
+			if ((_data.position() & 1) != 0) {
+				_data.put((byte) 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package exif.test;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Behavior tests, without any dependency (the project has no build file, so JUnit can not be used).
+ *
+ *   javac -d out src/*.java test/*.java
+ *   java -cp out exif.test.ExifTests [corpusDirectory] [testClassName...]
+ *
+ * Each public method named test* of the test classes is run on a new instance, in name order. A test fails when it
+ * throws (an AssertionError of the checks, or any other exception). The fixtures are the generated files of the
+ * benchmark corpus (default bench/corpus), and containers built in memory around their TIFF data.
+ * The exit status is 1 if a test failed.
+ */
+public class ExifTests {
+
+	private static final Class<?>[] TEST_CLASSES = {
+		ExifTiffTest.class,
+		ExifHeifTest.class,
+		ExifPngWebpTest.class,
+		ExifBudgetTest.class,
+		ExifExportTest.class,
+		ExifPatcherTest.class,
+		ExifRewriterTest.class,
+		ExifScannerTest.class,
+		ExifCacheTest.class,
+		ExifLruCacheTest.class,
+		ExifGeoIndexTest.class,
+		ExifColumnsTest.class,
+	};
+
+	public static void main(String[] args) throws Exception {
+		File corpus = new File(args.length > 0 ? args[0] : "bench/corpus");
+		if (new File(corpus, "le_small.jpg").isFile() == false) {
+			throw new IllegalArgumentException("No corpus in directory '" + corpus.getAbsolutePath() + "', generate it with exif.bench.ExifSampleGenerator");
+		}
+		ExifTestFiles.setCorpus(corpus);
+		List<String> selected = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+
+		int nbTests = 0;
+		List<String> failures = new ArrayList<String>();
+		for (Class<?> testClass : TEST_CLASSES) {
+			if ((selected.isEmpty() == false) && (selected.contains(testClass.getSimpleName()) == false)) {
+				continue;
+			}
+			for (Method method : testMethods(testClass)) {
+				nbTests++;
+				String name = testClass.getSimpleName() + "." + method.getName();
+				try {
+					method.invoke(testClass.getDeclaredConstructor().newInstance());
+					System.out.println("OK   " + name);
+				} catch (InvocationTargetException e) {
+					failures.add(name);
+					System.out.println("FAIL " + name + " : " + e.getCause());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+		System.out.println(nbTests + " tests, " + failures.size() + " failed" + (failures.isEmpty() ? "" : " : " + failures));
+		if (failures.isEmpty() == false) {
+			System.exit(1);
+		}
+	}
+
+	private static List<Method> testMethods(Class<?> testClass) {
+		List<Method> methods = new ArrayList<Method>();
+		for (Method method : testClass.getDeclaredMethods()) {
+			if (method.getName().startsWith("test") && Modifier.isPublic(method.getModifiers()) && (method.getParameterTypes().length == 0)) {
+				methods.add(method);
+			}
+		}
+		methods.sort(new Comparator<Method>() {
+			@Override
+			public int compare(Method method1, Method method2) {
+				return method1.getName().compareTo(method2.getName());
+			}
+		});
+		return methods;
+	}
+}
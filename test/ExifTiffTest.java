@@ -0,0 +1,123 @@
+package exif.test;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import exif.Exif;
+
+/*
+ * TIFF based files (DNG, CR2, NEF, ARW...): IFD chain, SubIFDs trees, and only the metadata read.
+ */
+public class ExifTiffTest extends ExifTestCase {
+
+	private static final ByteOrder[] ORDERS = { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+
+	//Raw file: 1 MB of image data, IFD0 with 2 SubIFDs (the second with a nested one) and the Exif IFD, then the chain IFD1 -> IFD2 -> IFD3
+	private static byte[] raw(ByteOrder order) {
+		ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(order);
+		int strip = tiff.data(1 << 20);
+		int ifd3 = tiff.ifd(0, tiff.longs(0x0100, 3));
+		int ifd2 = tiff.ifd(ifd3, tiff.longs(0x0100, 2));
+		int ifd1 = tiff.ifd(ifd2, tiff.shorts(0x0103, 1), tiff.longs(0x0100, 1));
+		int nested = tiff.ifd(0, tiff.longs(0x0100, 42));
+		int sub0 = tiff.ifd(0, tiff.longs(0x0100, 6000), tiff.longs(0x0101, 4000));
+		int sub1 = tiff.ifd(0, tiff.longs(0x0100, 160), tiff.longs(0x014A, nested));
+		int exif = tiff.ifd(0, tiff.rational(0x829A, 1, 250), tiff.ascii(0x9003, "2024:01:02 03:04:05"));
+		int ifd0 = tiff.ifd(ifd1, tiff.ascii(0x010F, "Canon"), tiff.ascii(0x0110, "EOS R5"), tiff.longs(0x0111, strip), tiff.longs(0x0117, 1 << 20), tiff.longs(0x014A, sub0, sub1), tiff.longs(0x8769, exif));
+		return tiff.setFirstIFD(ifd0).toBytes();
+	}
+
+	private static List<String> names(List<Exif.SubImage> subImages) {
+		List<String> names = new ArrayList<String>();
+		for (Exif.SubImage subImage : subImages) {
+			names.add(subImage.getName());
+		}
+		return names;
+	}
+
+	//Ascii values keep their ending zero
+	public void testMainImageValues() throws IOException {
+		for (ByteOrder order : ORDERS) {
+			Exif exif = new Exif(raw(order));
+			checkEquals(order, exif.getByteOrder(), "byte order");
+			checkEquals("Canon\0", exif.get(0x010F).getString(), order + " Make");
+			checkEquals("EOS R5\0", exif.get("Model").getString(), order + " Model");
+			checkEquals(250, exif.get(0x829A).getDenominator(0), order + " ExposureTime");
+			checkEquals("2024:01:02 03:04:05\0", exif.get(0x9003).getString(), order + " DateTimeOriginal");
+			check(exif.get(0x0100) == null, order + " values of the sub images are not mixed with the main image");
+		}
+	}
+
+	public void testChainAndSubIFDs() throws IOException {
+		for (ByteOrder order : ORDERS) {
+			List<Exif.SubImage> subImages = new Exif(raw(order)).getSubImages();
+			List<String> names = names(subImages);
+			checkEquals(Arrays.asList("IDF0 SubIFD 0", "IDF0 SubIFD 1", "IDF0 SubIFD 1 SubIFD 0", "IFD1", "IFD2", "IFD3"), sorted(names), order + " sub images");
+			checkEquals(6000, subImages.get(names.indexOf("IDF0 SubIFD 0")).get(0x0100).getInt(), order + " SubIFD 0 width");
+			checkEquals(42, subImages.get(names.indexOf("IDF0 SubIFD 1 SubIFD 0")).get(0x0100).getInt(), order + " nested SubIFD width");
+			checkEquals(3, subImages.get(names.indexOf("IFD3")).get(0x0100).getInt(), order + " IFD3 width");
+		}
+	}
+
+	public void testChainLoopIsParsedOnce() throws IOException {
+		ExifTestFiles.Tiff tiff = new ExifTestFiles.Tiff(ByteOrder.LITTLE_ENDIAN);
+		int ifd2 = tiff.ifd(0, tiff.longs(0x0100, 2));
+		int ifd1 = tiff.ifd(ifd2, tiff.longs(0x0100, 1));
+		int ifd0 = tiff.ifd(ifd1, tiff.ascii(0x010F, "Loop"));
+		tiff.setNextIFD(ifd2, ifd1); //IFD2 -> IFD1
+		Exif exif = new Exif(tiff.setFirstIFD(ifd0).toBytes());
+		checkEquals(Arrays.asList("IFD1", "IFD2"), names(exif.getSubImages()), "sub images");
+		checkEquals("Loop\0", exif.get(0x010F).getString(), "Make");
+	}
+
+	public void testImageDataIsNotRead() throws IOException {
+		ExifTestFiles.CountingSource source = new ExifTestFiles.CountingSource(raw(ByteOrder.BIG_ENDIAN));
+		Exif exif = new Exif(source, new Exif.Options());
+		checkEquals("Canon\0", exif.get(0x010F).getString(), "Make");
+		check(source.getBytesRead() < 64 * 1024, source.getBytesRead() + " bytes read for a 1 MB file");
+	}
+
+	public void testCorpusEndiansHaveSameValues() throws IOException {
+		Exif big = new Exif(ExifTestFiles.corpus("be_raw.tif"));
+		Exif little = new Exif(ExifTestFiles.corpus("le_raw.tif"));
+		checkEquals(ByteOrder.BIG_ENDIAN, big.getByteOrder(), "be_raw.tif byte order");
+		checkEquals(ByteOrder.LITTLE_ENDIAN, little.getByteOrder(), "le_raw.tif byte order");
+		checkEquals(big.getExtractedCount(), little.getExtractedCount(), "extracted count");
+		check(big.getExtractedCount() > 0, "values extracted");
+		for (int i = 0; i < big.getAllExtracted().size(); ++i) {
+			Exif.ExifValue value = big.getAllExtracted().get(i);
+			checkEquals(ExifTestFiles.toString(value), ExifTestFiles.toString(little.get(value.getTagValue())), "tag 0x" + Integer.toHexString(value.getTagValue()));
+		}
+	}
+
+	public void testTruncatedFilesAreRejected() throws IOException {
+		final byte[] raw = ExifTestFiles.corpus("le_raw.tif");
+		for (final int length : new int[] { 4, 7, raw.length / 2 }) {
+			checkThrows(IOException.class, "truncated at " + length, new Failing() {
+				@Override
+				public void run() throws Exception {
+					new Exif(Arrays.copyOf(raw, length));
+				}
+			});
+		}
+	}
+
+	public void testWrongFirstIFDOffsetIsRejected() {
+		final byte[] tiff = new ExifTestFiles.Tiff(ByteOrder.BIG_ENDIAN).setFirstIFD(0x7FFFFFF0).toBytes();
+		checkThrows(Exif.FormatException.class, "IFD0 out of the file", new Failing() {
+			@Override
+			public void run() throws Exception {
+				new Exif(tiff);
+			}
+		});
+	}
+
+	private static List<String> sorted(List<String> names) {
+		List<String> sorted = new ArrayList<String>(names);
+		sorted.sort(null);
+		return sorted;
+	}
+}